@@ -75,7 +75,60 @@ public enum AttributeName {
      * A key used in an attribute map to specify that the script to be parsed has
      * unicode escape in it. Default is false.
      */
-    UNICODE_ESCAPE("org.jruby.embed.unicode.escpe");
+    UNICODE_ESCAPE("org.jruby.embed.unicode.escpe"),
+
+    /**
+     * A key used in an attribute map to set the maximum number of parsed scripts
+     * kept in a parse cache. The value should be Integer. Default is 0, which
+     * means scripts are parsed every time.
+     */
+    PARSE_CACHE_SIZE("org.jruby.embed.parsecache.size"),
+
+    /**
+     * A key used in an attribute map to specify that global variables are retrieved
+     * incrementally after the evaluation. When true, Ruby's global variables are
+     * scanned only when new ones have been defined, and only the global variables
+     * the variable map already has are updated otherwise. Default is false.
+     */
+    INCREMENTAL_GLOBAL_RETRIEVAL("org.jruby.embed.global.retrieval.incremental"),
+
+    /**
+     * A key used in an attribute map to set a default {@link VariableSyncPolicy},
+     * which chooses types of variables injected and retrieved around the evaluation.
+     * Default is VariableSyncPolicy.ALL.
+     */
+    VARIABLE_SYNC_POLICY("org.jruby.embed.variable.sync.policy"),
+
+    /**
+     * A key used in an attribute map to set a {@link org.jruby.embed.io.FlushPolicy},
+     * which decides when writers set by setWriter/setErrorWriter are flushed.
+     * Default is FlushPolicy.ALWAYS.
+     */
+    FLUSH_POLICY("org.jruby.embed.writer.flush.policy"),
+
+    /**
+     * A key used in an attribute map to set the number of characters written
+     * before a writer is flushed under FlushPolicy.THRESHOLD. The value should be
+     * Integer. Default is 8192.
+     */
+    FLUSH_THRESHOLD("org.jruby.embed.writer.flush.threshold"),
+
+    /**
+     * A key used in an attribute map to set a directory where compiled scripts
+     * are saved. The value should be String or java.io.File. Used only in JIT
+     * or FORCE compile mode when a script is parsed from a file. Default is
+     * null, which means compiled scripts are not saved.
+     */
+    COMPILED_SCRIPT_CACHE_DIR("org.jruby.embed.compiled.cache.dir"),
+
+    /**
+     * A key used in an attribute map to specify that getInstance returns an
+     * instance of a generated class, which calls Ruby methods directly and converts
+     * int, long, double and boolean without boxing, instead of a reflective proxy.
+     * Variables are injected and retrieved around each call just as through a
+     * proxy. The value should be Boolean. Default is false.
+     */
+    INTERFACE_BRIDGE("org.jruby.embed.interface.bridge");
 
     private final String fqpn;
 
@@ -29,8 +29,11 @@
  */
 package org.jruby.embed;
 
+import java.util.List;
+import java.util.Map;
 import org.jruby.ast.Node;
 import org.jruby.javasupport.JavaEmbedUtils;
+import org.jruby.runtime.builtin.IRubyObject;
 import org.jruby.runtime.scope.ManyVarsDynamicScope;
 
 /**
@@ -55,4 +58,34 @@ public interface EmbedEvalUnit extends JavaEmbedUtils.EvalUnit {
      * @return scope to refer local variables.
      */
     public ManyVarsDynamicScope getScope();
+
+    /**
+     * Evaluates a parsed script. Variables are injected and retrieved following
+     * the given policy instead of the default one.
+     *
+     * @param policy is a policy to choose types of variables to be synchronized
+     * @return results of executing this evaluation unit
+     */
+    public IRubyObject run(VariableSyncPolicy policy);
+
+    /**
+     * Evaluates a parsed script once for each row of variables, injecting and
+     * retrieving variables in the container only once for the whole batch. Only
+     * variables whose values differ from the previous row are injected before each
+     * evaluation.
+     *
+     * @param rows is a list of maps from variable names to values
+     * @return results of evaluations in the order of the rows
+     */
+    public IRubyObject[] runBatch(List<Map<String, Object>> rows);
+
+    /**
+     * Evaluates a parsed script once for each row of columnar variables.
+     * columns[i][row] is a value of names[i] in the row.
+     *
+     * @param names are variable names
+     * @param columns are values of variables, one column per name
+     * @return results of evaluations in the order of the rows
+     */
+    public IRubyObject[] runBatch(String[] names, Object[][] columns);
 }
@@ -75,6 +75,20 @@ public interface EmbedRubyObjectAdapter extends RubyObjectAdapter {
      */
     <T> T callMethod(Object receiver, String methodName, Object[] args, Class<T> returnType);
 
+    /**
+     * Executes a method defined in Ruby script. This method is used when a Ruby
+     * method have multiple arguments, and only variables chosen by a given policy
+     * should be injected and retrieved.
+     *
+     * @param receiver is an instance that will receive this method call
+     * @param methodName is a method name to be called
+     * @param args is an array of method arguments
+     * @param policy is a policy to choose types of variables to be synchronized
+     * @param returnType is the type we want it to convert to
+     * @return an instance of requested Java type
+     */
+    <T> T callMethod(Object receiver, String methodName, Object[] args, VariableSyncPolicy policy, Class<T> returnType);
+
     /**
      * Executes a method defined in Ruby script. This method is used when a Ruby
      * method have multiple arguments, one of which is a block.
@@ -148,4 +162,88 @@ public interface EmbedRubyObjectAdapter extends RubyObjectAdapter {
      * @return is the type we want it to convert to
      */
     <T> T callSuper(Object receiver, Object[] args, Block block, Class<T> returnType);
+
+    /**
+     * Executes a method defined in Ruby script, which does not have any argument and
+     * returns a number. Arguments are passed as Ruby Fixnum and the returned
+     * value is converted to Java long without boxing.
+     *
+     * @param receiver is an instance that will receive this method call
+     * @param methodName is a method name to be called
+     * @return a returned value as long
+     */
+    long callMethodForLong(Object receiver, String methodName);
+
+    /**
+     * Executes a method defined in Ruby script, which has only one argument and
+     * returns a number. Arguments are passed as Ruby Fixnum and the returned
+     * value is converted to Java long without boxing.
+     *
+     * @param receiver is an instance that will receive this method call
+     * @param methodName is a method name to be called
+     * @param arg is a method argument
+     * @return a returned value as long
+     */
+    long callMethodForLong(Object receiver, String methodName, long arg);
+
+    /**
+     * Executes a method defined in Ruby script, which has two arguments and
+     * returns a number. Arguments are passed as Ruby Fixnum and the returned
+     * value is converted to Java long without boxing.
+     *
+     * @param receiver is an instance that will receive this method call
+     * @param methodName is a method name to be called
+     * @param arg0 is the first method argument
+     * @param arg1 is the second method argument
+     * @return a returned value as long
+     */
+    long callMethodForLong(Object receiver, String methodName, long arg0, long arg1);
+
+    /**
+     * Executes a method defined in Ruby script, which does not have any argument and
+     * returns a number. Arguments are passed as Ruby Float and the returned
+     * value is converted to Java double without boxing.
+     *
+     * @param receiver is an instance that will receive this method call
+     * @param methodName is a method name to be called
+     * @return a returned value as double
+     */
+    double callMethodForDouble(Object receiver, String methodName);
+
+    /**
+     * Executes a method defined in Ruby script, which has only one argument and
+     * returns a number. Arguments are passed as Ruby Float and the returned
+     * value is converted to Java double without boxing.
+     *
+     * @param receiver is an instance that will receive this method call
+     * @param methodName is a method name to be called
+     * @param arg is a method argument
+     * @return a returned value as double
+     */
+    double callMethodForDouble(Object receiver, String methodName, double arg);
+
+    /**
+     * Executes a method defined in Ruby script, which has two arguments and
+     * returns a number. Arguments are passed as Ruby Float and the returned
+     * value is converted to Java double without boxing.
+     *
+     * @param receiver is an instance that will receive this method call
+     * @param methodName is a method name to be called
+     * @param arg0 is the first method argument
+     * @param arg1 is the second method argument
+     * @return a returned value as double
+     */
+    double callMethodForDouble(Object receiver, String methodName, double arg0, double arg1);
+
+    /**
+     * Returns a reference to a method defined in Ruby script. The reference
+     * remembers the method resolved on its first call and reuses it until
+     * the receiver's class hierarchy changes, so repeated calls skip the
+     * lookup by name.
+     *
+     * @param receiver is an instance that will receive method calls
+     * @param methodName is a method name to be called
+     * @return a reference to the method
+     */
+    RubyMethodRef lookupMethod(Object receiver, String methodName);
 }
@@ -30,6 +30,7 @@
 package org.jruby.embed;
 
 import org.jruby.embed.internal.BiVariableMap;
+import org.jruby.embed.internal.LocalContext;
 import java.util.List;
 import java.util.Map;
 import org.jruby.Ruby;
@@ -66,6 +67,13 @@ public interface LocalContextProvider {
      */
     RubyInstanceConfig getRubyInstanceConfig();
 
+    /**
+     * Returns an instance of {@link LocalContext} of a specified scope.
+     *
+     * @return a local context
+     */
+    LocalContext getLocalContext();
+
     /**
      * Returend a Ruby runtime of a specified scope.
      *
@@ -86,4 +94,10 @@ public interface LocalContextProvider {
      * @return an attribute map
      */
     Map getAttributeMap();
+
+    /**
+     * Terminates all Ruby runtimes this provider has created. Local contexts are
+     * initialized again when they are requested next time.
+     */
+    void terminate();
 }
@@ -30,7 +30,7 @@
 package org.jruby.embed;
 
 /**
- * LocalContextState defines three scopes to maintain {@link org.jruby.embed.internal.LocalContext}.
+ * LocalContextState defines scopes to maintain {@link org.jruby.embed.internal.LocalContext}.
  *
  * @author Yoko Harada <yokolet@gmail.com>
  */
@@ -49,5 +49,20 @@ public enum LocalContextScope {
     /**
      * Specifes that an instance of {@link org.jruby.embed.internal.LocalContext} is a thread local.
      */
-    THREADSAFE
+    THREADSAFE,
+
+    /**
+     * Specifies that instances of {@link org.jruby.embed.internal.LocalContext} are
+     * pooled and shared by threads. A thread checks out one of them while it evaluates
+     * a script or calls a method.
+     */
+    POOLED,
+
+    /**
+     * Specifies that instances of {@link org.jruby.embed.internal.LocalContext} are
+     * pooled like POOLED, but threads waiting for them are served in arrival order.
+     * This scope suits many lightweight threads, such as virtual threads, sharing a
+     * small number of Ruby runtimes.
+     */
+    CONCURRENT
 }
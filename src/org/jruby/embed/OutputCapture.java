@@ -0,0 +1,130 @@
+/**
+ * **** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 Yoko Harada <yokolet@gmail.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ * **** END LICENSE BLOCK *****
+ */
+package org.jruby.embed;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+
+/**
+ * A buffer that receives standard output and error of a single evaluation.
+ * Give an instance to runScriptlet(String, OutputCapture) of {@link ScriptingContainer}.
+ * Output is captured only while the evaluation runs on the calling thread. Threads
+ * the script starts write to the usual $stdout and $stderr. An instance can be
+ * reused after reset(), which keeps allocated buffers.
+ *
+ * Usage example:
+ * <pre>
+ *     OutputCapture capture = new OutputCapture();
+ *     container.runScriptlet("puts 'hello'", capture);
+ *     String output = capture.getOutput();   // "hello\n"
+ *     capture.reset();</pre>
+ *
+ * @author Yoko Harada <yokolet@gmail.com>
+ */
+public class OutputCapture {
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+    private final String encoding;
+
+    /**
+     * Creates OutputCapture which decodes output with a default encoding.
+     */
+    public OutputCapture() {
+        this(null);
+    }
+
+    /**
+     * Creates OutputCapture which decodes output with a specified encoding.
+     *
+     * @param encoding an encoding used in getOutput() and getErrorOutput()
+     */
+    public OutputCapture(String encoding) {
+        if (encoding == null) {
+            encoding = Charset.defaultCharset().name();
+        } else if (!Charset.isSupported(encoding)) {
+            throw new IllegalArgumentException(encoding + " is not supported");
+        }
+        this.encoding = encoding;
+    }
+
+    OutputStream getOutputStream() {
+        return out;
+    }
+
+    OutputStream getErrorStream() {
+        return err;
+    }
+
+    /**
+     * Returns captured standard output.
+     *
+     * @return captured standard output
+     */
+    public String getOutput() {
+        return toString(out);
+    }
+
+    /**
+     * Returns captured standard error.
+     *
+     * @return captured standard error
+     */
+    public String getErrorOutput() {
+        return toString(err);
+    }
+
+    /**
+     * Returns captured standard output as bytes.
+     *
+     * @return captured standard output
+     */
+    public byte[] getOutputBytes() {
+        return out.toByteArray();
+    }
+
+    /**
+     * Discards captured output so that this instance can be reused.
+     */
+    public void reset() {
+        out.reset();
+        err.reset();
+    }
+
+    private String toString(ByteArrayOutputStream stream) {
+        try {
+            return stream.toString(encoding);
+        } catch (UnsupportedEncodingException e) {
+            // never happens since the encoding has been checked
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+}
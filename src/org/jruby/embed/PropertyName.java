@@ -42,7 +42,7 @@ public enum PropertyName {
 
     /**
      * A key to get/set local context scope. The assigned value is one of
-     * threadsafe, singlethread, or singleton
+     * threadsafe, singlethread, singleton, pooled or concurrent
      */
     LOCALCONTEXT_SCOPE("org.jruby.embed.localcontext.scope"),
 
@@ -62,7 +62,46 @@ public enum PropertyName {
      * A key to get/set compatible version to Ruby. If the assigend value matches
      * "[jJ]?(r|R)(u|U)(b|B)(y|Y)1[\\._]?9", then Ruby 1.9 will be chosen.
      */
-    COMPATVERSION("org.jruby.embed.compat.version");
+    COMPATVERSION("org.jruby.embed.compat.version"),
+
+    /**
+     * A key to get/set the minimum number of local contexts in a pooled local
+     * context scope. The assigned value is an integer. The default is 1.
+     */
+    POOL_MIN_SIZE("org.jruby.embed.pool.min"),
+
+    /**
+     * A key to get/set the maximum number of local contexts in a pooled local
+     * context scope. The assigned value is an integer. The default is the number
+     * of available processors.
+     */
+    POOL_MAX_SIZE("org.jruby.embed.pool.max"),
+
+    /**
+     * A key to get/set milliseconds after which an idle local context is terminated
+     * in a pooled local context scope. The default is 300000.
+     */
+    POOL_IDLE_TIMEOUT("org.jruby.embed.pool.idle.timeout"),
+
+    /**
+     * A key to get/set milliseconds a thread waits for a local context in a pooled
+     * local context scope. The default is 30000.
+     */
+    POOL_BORROW_TIMEOUT("org.jruby.embed.pool.borrow.timeout"),
+
+    /**
+     * A key to get/set the maximum number of Ruby runtimes in a threadsafe local
+     * context scope. The assigned value is an integer. Zero or a negative value,
+     * which is the default, means no limit.
+     */
+    THREADSAFE_MAX_RUNTIMES("org.jruby.embed.threadsafe.max"),
+
+    /**
+     * A key to get/set milliseconds after which a Ruby runtime of a thread that
+     * has not used it is terminated in a threadsafe local context scope. The
+     * default is 0, which terminates runtimes of dead threads only.
+     */
+    THREADSAFE_IDLE_TIMEOUT("org.jruby.embed.threadsafe.idle.timeout");
 
     private final String fqpn;
 
@@ -0,0 +1,83 @@
+/**
+ * **** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 Yoko Harada <yokolet@gmail.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ * **** END LICENSE BLOCK *****
+ */
+package org.jruby.embed;
+
+import org.jruby.runtime.Block;
+
+/**
+ * Reference to a method defined in Ruby script, which is bound to a receiver.
+ * An instance of this interface is returned by lookupMethod() method of
+ * {@link ScriptingContainer}. The method is resolved on the first call and the
+ * result is reused while the receiver's class hierarchy stays the same.
+ *
+ * @author Yoko Harada <yokolet@gmail.com>
+ */
+public interface RubyMethodRef {
+    /**
+     * Returns the instance that receives method calls.
+     *
+     * @return a receiver
+     */
+    Object getReceiver();
+
+    /**
+     * Returns the name of the referenced method.
+     *
+     * @return a method name
+     */
+    String getName();
+
+    /**
+     * Executes the referenced method without any argument.
+     *
+     * @param returnType is the type we want it to convert to
+     * @return an instance of requested Java type
+     */
+    <T> T call(Class<T> returnType);
+
+    /**
+     * Executes the referenced method with given arguments.
+     *
+     * @param args is an array of method arguments
+     * @param returnType is the type we want it to convert to
+     * @return an instance of requested Java type
+     */
+    <T> T call(Object[] args, Class<T> returnType);
+
+    /**
+     * Executes the referenced method with given arguments and a block.
+     *
+     * @param args is an array of method arguments except a block
+     * @param block is a block to be executed in this method
+     * @param returnType is the type we want it to convert to
+     * @return an instance of requested Java type
+     */
+    <T> T call(Object[] args, Block block, Class<T> returnType);
+}
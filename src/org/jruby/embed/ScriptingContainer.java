@@ -31,16 +31,31 @@ package org.jruby.embed;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.io.PrintWriter;
 import java.io.Reader;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.PropertyResourceBundle;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.jruby.Ruby;
 import org.jruby.RubyGlobal.InputGlobalVariable;
 import org.jruby.RubyGlobal.OutputGlobalVariable;
@@ -48,15 +63,23 @@ import org.jruby.RubyIO;
 import org.jruby.RubyInstanceConfig;
 import org.jruby.RubyNil;
 import org.jruby.embed.internal.BiVariableMap;
+import org.jruby.embed.internal.EmbedEvalUnitCache;
+import org.jruby.embed.internal.EmbedFutureTask;
 import org.jruby.embed.internal.EmbedRubyInterfaceAdapterImpl;
 import org.jruby.embed.internal.EmbedRubyObjectAdapterImpl;
 import org.jruby.embed.internal.EmbedRubyRuntimeAdapterImpl;
+import org.jruby.embed.internal.LocalContext;
+import org.jruby.embed.internal.OutputRouter;
+import org.jruby.embed.internal.PooledLocalContextProvider;
 import org.jruby.embed.internal.SingleThreadLocalContextProvider;
 import org.jruby.embed.internal.SingletonLocalContextProvider;
 import org.jruby.embed.internal.ThreadSafeLocalContextProvider;
+import org.jruby.embed.io.AsyncOutputStream;
+import org.jruby.embed.io.FlushPolicy;
 import org.jruby.embed.io.ReaderInputStream;
 import org.jruby.embed.io.WriterOutputStream;
 import org.jruby.embed.util.SystemPropertyCatcher;
+import org.jruby.exceptions.RaiseException;
 import org.jruby.javasupport.JavaEmbedUtils;
 import org.jruby.javasupport.JavaEmbedUtils.EvalUnit;
 import org.jruby.javasupport.JavaUtil;
@@ -161,6 +184,8 @@ public class ScriptingContainer {
     private EmbedRubyRuntimeAdapter runtimeAdapter = new EmbedRubyRuntimeAdapterImpl(this);
     private EmbedRubyObjectAdapter objectAdapter = new EmbedRubyObjectAdapterImpl(this);
     private EmbedRubyInterfaceAdapter interfaceAdapter = new EmbedRubyInterfaceAdapterImpl(this);
+    private ExecutorService asyncExecutor = null;
+    private ScheduledExecutorService timeoutScheduler = null;
 
     /**
      * Constructs a ScriptingContainer with a default values.
@@ -197,6 +222,9 @@ public class ScriptingContainer {
      */
     public ScriptingContainer(LocalContextScope scope, LocalVariableBehavior behavior, String propertyname) {
         provider = getProviderInstance(scope, behavior);
+        if (provider instanceof PooledLocalContextProvider) {
+            ((PooledLocalContextProvider)provider).setConfigurator(new StreamConfigurator());
+        }
         Map map = new HashMap<String, String[]>();
         properties = Collections.unmodifiableMap(map);
         if (propertyname == null || propertyname.length() == 0) {
@@ -217,6 +245,10 @@ public class ScriptingContainer {
                 return new ThreadSafeLocalContextProvider(behavior);
             case SINGLETHREAD :
                 return new SingleThreadLocalContextProvider(behavior);
+            case POOLED :
+                return new PooledLocalContextProvider(behavior);
+            case CONCURRENT :
+                return new PooledLocalContextProvider(behavior, true);
             case SINGLETON :
             default :
                 return new SingletonLocalContextProvider(behavior);
@@ -274,6 +306,28 @@ public class ScriptingContainer {
         return provider;
     }
 
+    /**
+     * Tears down all Ruby runtimes this container has created in its local
+     * context scope. With {@link LocalContextScope#THREADSAFE}, runtimes of every
+     * thread are terminated. The container is still usable; new runtimes are
+     * initialized when they are requested next time.
+     */
+    public void terminate() {
+        synchronized (this) {
+            if (asyncExecutor != null) {
+                for (Runnable task : asyncExecutor.shutdownNow()) {
+                    ((Future<?>)task).cancel(false);
+                }
+                asyncExecutor = null;
+            }
+            if (timeoutScheduler != null) {
+                timeoutScheduler.shutdownNow();
+                timeoutScheduler = null;
+            }
+        }
+        provider.terminate();
+    }
+
     /**
      * Returns a Ruby runtime in one of {@link LocalContextScope}
      *
@@ -294,6 +348,17 @@ public class ScriptingContainer {
         return provider.getVarMap();
     }
 
+    /**
+     * Returns a parse cache in one of {@link LocalContextScope}. The cache is
+     * used only when a positive size is set to {@link AttributeName#PARSE_CACHE_SIZE}.
+     * Users can see how often parsing was skipped by the cache's counters.
+     *
+     * @return a parse cache specific to the current thread
+     */
+    public EmbedEvalUnitCache getParseCache() {
+        return provider.getLocalContext().getParseCache();
+    }
+
     /**
      * Returns a attribute map in one of {@link LocalContextScope}. Attributes
      * in this map accept any key value pair, types of which are java.lang.Object.
@@ -386,7 +451,13 @@ public class ScriptingContainer {
      * @return an object which can be run
      */
     public EmbedEvalUnit parse(String script, int... lines) {
-        return runtimeAdapter.parse(script, lines);
+        // a parse cache belongs to the local context that has the runtime
+        checkout();
+        try {
+            return runtimeAdapter.parse(script, lines);
+        } finally {
+            checkin();
+        }
     }
 
     /**
@@ -402,7 +473,12 @@ public class ScriptingContainer {
      * @return an object which can be run
      */
     public EmbedEvalUnit parse(Reader reader, String filename, int... lines) {
-        return runtimeAdapter.parse(reader, filename, lines);
+        checkout();
+        try {
+            return runtimeAdapter.parse(reader, filename, lines);
+        } finally {
+            checkin();
+        }
     }
 
     /**
@@ -418,7 +494,12 @@ public class ScriptingContainer {
      * @return an object which can be run
      */
     public EmbedEvalUnit parse(PathType type, String filename, int... lines) {
-        return runtimeAdapter.parse(type, filename, lines);
+        checkout();
+        try {
+            return runtimeAdapter.parse(type, filename, lines);
+        } finally {
+            checkin();
+        }
     }
 
     /**
@@ -434,7 +515,12 @@ public class ScriptingContainer {
      * @return an object which can be run
      */
     public EmbedEvalUnit parse(InputStream istream, String filename, int... lines) {
-        return runtimeAdapter.parse(istream, filename, lines);
+        checkout();
+        try {
+            return runtimeAdapter.parse(istream, filename, lines);
+        } finally {
+            checkin();
+        }
     }
 
     /**
@@ -446,18 +532,324 @@ public class ScriptingContainer {
      * @return an evaluated result converted to a Java object
      */
     public Object runScriptlet(String script) {
-        EmbedEvalUnit unit = parse(script);
-        return runUnit(unit);
+        checkout();
+        try {
+            EmbedEvalUnit unit = parse(script);
+            return runUnit(unit);
+        } finally {
+            checkin();
+        }
+    }
+
+    /**
+     * Evaluates a script under the current scope (perhaps the top-level
+     * scope) and returns a result only if a script returns a value. Variables
+     * are injected and retrieved following the given policy instead of the
+     * default one.
+     *
+     * @param script is a Ruby script to get run
+     * @param policy is a policy to choose types of variables to be synchronized
+     * @return an evaluated result converted to a Java object
+     */
+    public Object runScriptlet(String script, VariableSyncPolicy policy) {
+        checkout();
+        try {
+            EmbedEvalUnit unit = parse(script);
+            return runUnit(unit, policy);
+        } finally {
+            checkin();
+        }
+    }
+
+    /**
+     * Evaluates a script under the current scope (perhaps the top-level
+     * scope) and returns a result only if a script returns a value. Standard
+     * output and error of this evaluation go to the given capture instead of
+     * the writers set to this container. Global variables $stdout and $stderr
+     * are replaced only once, so this method is cheap enough to call for every
+     * request.
+     *
+     * @param script is a Ruby script to get run
+     * @param capture receives standard output and error of this evaluation
+     * @return an evaluated result converted to a Java object
+     */
+    public Object runScriptlet(String script, OutputCapture capture) {
+        if (capture == null) {
+            return runScriptlet(script);
+        }
+        checkout();
+        try {
+            OutputRouter router = getOutputRouter();
+            OutputStream previousOut = router.routeOutput(capture.getOutputStream());
+            OutputStream previousErr = router.routeError(capture.getErrorStream());
+            try {
+                EmbedEvalUnit unit = parse(script);
+                return runUnit(unit);
+            } finally {
+                router.routeOutput(previousOut);
+                router.routeError(previousErr);
+            }
+        } finally {
+            checkin();
+        }
+    }
+
+    /**
+     * Evaluates a script on a worker thread of this container and returns a
+     * Future of the result. Worker threads are as many as the maximum size of the
+     * pool for LocalContextScope.POOLED and CONCURRENT, so tasks beyond that wait
+     * in a queue without holding threads. With LocalContextScope.SINGLETON, tasks
+     * run one by one on a single worker thread. LocalContextScope.SINGLETHREAD
+     * doesn't allow other threads to use the runtime, and with
+     * LocalContextScope.THREADSAFE, variables and definitions given by this
+     * thread live only in its own runtime, so with both scopes the task runs on
+     * the calling thread before this method returns.
+     *
+     * <p>Cancelling the Future with mayInterruptIfRunning true raises RuntimeError
+     * in the running script.
+     *
+     * @param script is a Ruby script to get run
+     * @return a Future of an evaluated result converted to a Java object
+     */
+    public Future<Object> runScriptletAsync(String script) {
+        return runScriptletAsync(script, 0L, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Evaluates a script on a worker thread of this container and returns a
+     * Future of the result. The evaluation is cancelled when it hasn't completed
+     * within the timeout counted from this method call, and then Future.get()
+     * throws CancellationException.
+     *
+     * @param script is a Ruby script to get run
+     * @param timeout is the maximum time to wait. Zero or a negative value means no timeout.
+     * @param unit is the time unit of the timeout
+     * @return a Future of an evaluated result converted to a Java object
+     */
+    public Future<Object> runScriptletAsync(final String script, long timeout, TimeUnit unit) {
+        return submit(null, new Callable<Object>() {
+            public Object call() {
+                return runScriptlet(script);
+            }
+        }, timeout, unit);
+    }
+
+    private <T> Future<T> submit(Ruby runtime, Callable<T> callable, long timeout, TimeUnit unit) {
+        boolean inline = false;
+        if (provider instanceof SingleThreadLocalContextProvider) {
+            inline = true;
+        } else if (provider instanceof ThreadSafeLocalContextProvider) {
+            // a runtime of a thread-safe container is used only by its own thread,
+            // and a worker's runtime wouldn't see what the caller has put or defined
+            if (runtime != null && !((ThreadSafeLocalContextProvider)provider).isCurrentRuntime(runtime)) {
+                throw new IllegalArgumentException("receiver belongs to a runtime of another thread");
+            }
+            inline = true;
+        }
+        final EmbedFutureTask<T> task = EmbedFutureTask.newTask(provider, runtime, callable);
+        if (timeout > 0) {
+            task.setTimeout(getTimeoutScheduler().schedule(new Runnable() {
+                public void run() {
+                    task.cancel(true);
+                }
+            }, timeout, unit));
+        }
+        if (inline) {
+            task.run();
+        } else {
+            getAsyncExecutor().execute(task);
+        }
+        return task;
+    }
+
+    private synchronized ExecutorService getAsyncExecutor() {
+        if (asyncExecutor == null) {
+            int threads = 1;
+            if (provider instanceof PooledLocalContextProvider) {
+                threads = ((PooledLocalContextProvider)provider).getMaxSize();
+            }
+            asyncExecutor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("async"));
+        }
+        return asyncExecutor;
+    }
+
+    private synchronized ScheduledExecutorService getTimeoutScheduler() {
+        if (timeoutScheduler == null) {
+            timeoutScheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("timeout"));
+        }
+        return timeoutScheduler;
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger(0);
+
+        private DaemonThreadFactory(String name) {
+            prefix = "ScriptingContainer-" + name + "-";
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * Boots Ruby runtimes, requires libraries and evaluates scriptlets given by
+     * a spec before the first request comes. When the scope is
+     * LocalContextScope.POOLED, as many runtimes as the spec's parallelism, up to
+     * the maximum size of the pool, are warmed up in parallel. Otherwise, the
+     * runtime used on the current thread is warmed up. Runtimes of other threads
+     * in LocalContextScope.THREADSAFE are not. When the spec has a timeout,
+     * runtimes not warmed up in time are left as they are and counted in the
+     * report.
+     *
+     * @param spec describes libraries and scriptlets
+     * @return timings of each phase
+     */
+    public WarmupReport warmUp(final WarmupSpec spec) {
+        final WarmupReport report = new WarmupReport();
+        if (spec == null) {
+            return report;
+        }
+        long start = System.nanoTime();
+        if (provider instanceof PooledLocalContextProvider) {
+            final PooledLocalContextProvider pool = (PooledLocalContextProvider)provider;
+            int parallelism = spec.getParallelism() > 0 ? spec.getParallelism() : Runtime.getRuntime().availableProcessors();
+            int count = Math.max(1, Math.min(parallelism, pool.getMaxSize()));
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(spec.getTimeout());
+            final CountDownLatch latch = new CountDownLatch(count);
+            ExecutorService executor = Executors.newFixedThreadPool(count);
+            List<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for (int i = 0; i < count; i++) {
+                futures.add(executor.submit(new Callable<Object>() {
+                    public Object call() throws Exception {
+                        long bootStart = System.nanoTime();
+                        boolean counted = false;
+                        try {
+                            pool.checkout(null);
+                            try {
+                                getRuntime();
+                                long boot = System.nanoTime() - bootStart;
+                                // holds the runtime until every thread has one
+                                // so that each thread warms up a different runtime
+                                latch.countDown();
+                                counted = true;
+                                if (spec.getTimeout() > 0) {
+                                    // warms up the runtime anyway when others are late
+                                    latch.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                                } else {
+                                    latch.await();
+                                }
+                                warmUp(spec, report, boot);
+                            } finally {
+                                pool.checkin();
+                            }
+                        } finally {
+                            if (!counted) {
+                                latch.countDown();
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            executor.shutdown();
+            try {
+                for (Future<Object> future : futures) {
+                    if (spec.getTimeout() <= 0) {
+                        future.get();
+                        continue;
+                    }
+                    try {
+                        future.get(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    } catch (TimeoutException e) {
+                        future.cancel(true);
+                        report.addUnfinished();
+                    }
+                }
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException)e.getCause();
+                }
+                throw new EvalFailedException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new EvalFailedException(e);
+            }
+        } else {
+            long bootStart = System.nanoTime();
+            getRuntime();
+            warmUp(spec, report, System.nanoTime() - bootStart);
+        }
+        report.setElapsedTime(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return report;
+    }
+
+    private void warmUp(WarmupSpec spec, WarmupReport report, long boot) {
+        Ruby runtime = getRuntime();
+        long start = System.nanoTime();
+        for (String name : spec.getRequires()) {
+            try {
+                runtime.getLoadService().require(name);
+            } catch (RaiseException e) {
+                runtime.printError(e.getException());
+                throw new EvalFailedException(e.getMessage(), e);
+            }
+        }
+        long require = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (String script : spec.getScriptlets()) {
+            EmbedEvalUnit unit = parse(script);
+            for (int i = 0; i < spec.getIterations(); i++) {
+                runUnit(unit);
+            }
+        }
+        long jit = System.nanoTime() - start;
+        report.add(TimeUnit.NANOSECONDS.toMillis(boot),
+                TimeUnit.NANOSECONDS.toMillis(require),
+                TimeUnit.NANOSECONDS.toMillis(jit));
+    }
+
+    private OutputRouter getOutputRouter() {
+        LocalContext context = provider.getLocalContext();
+        Ruby runtime = context.getRuntime();
+        OutputRouter router = context.getOutputRouter();
+        if (router == null || !router.isInstalled(runtime)) {
+            router = new OutputRouter(runtime.getOutputStream(), runtime.getErrorStream());
+            RubyIO out = installOutputStream(router.getOutputStream());
+            RubyIO err = installErrorStream(router.getErrorStream());
+            router.setInstalledIO(out, err);
+            context.setOutputRouter(router);
+        }
+        return router;
     }
 
     private Object runUnit(EmbedEvalUnit unit) {
+        return runUnit(unit, null);
+    }
+
+    private Object runUnit(EmbedEvalUnit unit, VariableSyncPolicy policy) {
         if (unit == null) {
             return null;
         }
-        IRubyObject ret = unit.run();
+        IRubyObject ret = unit.run(policy);
         return JavaEmbedUtils.rubyToJava(ret);
     }
 
+    private void checkout() {
+        if (provider instanceof PooledLocalContextProvider) {
+            ((PooledLocalContextProvider)provider).checkout(null);
+        }
+    }
+
+    private void checkin() {
+        if (provider instanceof PooledLocalContextProvider) {
+            ((PooledLocalContextProvider)provider).checkin();
+        }
+    }
+
     /**
      * Evaluates a script read from a reader under the current scope
      * (perhaps the top-level scope) and returns a result only if a script
@@ -469,8 +861,13 @@ public class ScriptingContainer {
      * @return an evaluated result converted to a Java object
      */
     public Object runScriptlet(Reader reader, String filename) {
-        EmbedEvalUnit unit = parse(reader, filename);
-        return runUnit(unit);
+        checkout();
+        try {
+            EmbedEvalUnit unit = parse(reader, filename);
+            return runUnit(unit);
+        } finally {
+            checkin();
+        }
     }
 
     /**
@@ -484,8 +881,13 @@ public class ScriptingContainer {
      * @return an evaluated result converted to a Java object
      */
     public Object runScriptlet(InputStream istream, String filename) {
-        EmbedEvalUnit unit = parse(istream, filename);
-        return runUnit(unit);
+        checkout();
+        try {
+            EmbedEvalUnit unit = parse(istream, filename);
+            return runUnit(unit);
+        } finally {
+            checkin();
+        }
     }
 
     /**
@@ -498,8 +900,13 @@ public class ScriptingContainer {
      * @return an evaluated result converted to a Java object
      */
     public Object runScriptlet(PathType type, String filename) {
-        EmbedEvalUnit unit = parse(type, filename);
-        return runUnit(unit);
+        checkout();
+        try {
+            EmbedEvalUnit unit = parse(type, filename);
+            return runUnit(unit);
+        } finally {
+            checkin();
+        }
     }
 
     /**
@@ -585,6 +992,64 @@ public class ScriptingContainer {
         return objectAdapter.callMethod(receiver, methodName, args, returnType);
     }
 
+    /**
+     * Executes a method defined in Ruby script on a worker thread of this
+     * container and returns a Future of the result. When the receiver is a Ruby
+     * object, the task runs on the runtime the receiver belongs to. With
+     * LocalContextScope.THREADSAFE, that runtime is used only by the thread that
+     * has it, so the task runs on the calling thread, and IllegalArgumentException
+     * is thrown if the runtime is another thread's. See
+     * {@link #runScriptletAsync(String)} about worker threads and cancellation.
+     *
+     * @param receiver is an instance that will receive this method call
+     * @param methodName is a method name to be called
+     * @param args is an array of method arguments
+     * @param returnType is the type we want it to convert to
+     * @return a Future of an instance of requested Java type
+     */
+    public <T> Future<T> callMethodAsync(Object receiver, String methodName, Object[] args, Class<T> returnType) {
+        return callMethodAsync(receiver, methodName, args, returnType, 0L, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Executes a method defined in Ruby script on a worker thread of this
+     * container and returns a Future of the result. The call is cancelled when
+     * it hasn't completed within the timeout counted from this method call.
+     *
+     * @param receiver is an instance that will receive this method call
+     * @param methodName is a method name to be called
+     * @param args is an array of method arguments
+     * @param returnType is the type we want it to convert to
+     * @param timeout is the maximum time to wait. Zero or a negative value means no timeout.
+     * @param unit is the time unit of the timeout
+     * @return a Future of an instance of requested Java type
+     */
+    public <T> Future<T> callMethodAsync(final Object receiver, final String methodName, final Object[] args,
+            final Class<T> returnType, long timeout, TimeUnit unit) {
+        Ruby runtime = receiver instanceof IRubyObject ? ((IRubyObject)receiver).getRuntime() : null;
+        return submit(runtime, new Callable<T>() {
+            public T call() {
+                return callMethod(receiver, methodName, args, returnType);
+            }
+        }, timeout, unit);
+    }
+
+    /**
+     * Executes a method defined in Ruby script. This method is used when a Ruby
+     * method have multiple arguments, and only variables chosen by a given policy
+     * should be injected and retrieved.
+     *
+     * @param receiver is an instance that will receive this method call
+     * @param methodName is a method name to be called
+     * @param args is an array of method arguments
+     * @param policy is a policy to choose types of variables to be synchronized
+     * @param returnType is the type we want it to convert to
+     * @return an instance of requested Java type
+     */
+    public <T> T callMethod(Object receiver, String methodName, Object[] args, VariableSyncPolicy policy, Class<T> returnType) {
+        return objectAdapter.callMethod(receiver, methodName, args, policy, returnType);
+    }
+
     /**
      * Executes a method defined in Ruby script. This method is used when a Ruby
      * method have multiple arguments, one of which is a block.
@@ -671,6 +1136,107 @@ public class ScriptingContainer {
         return objectAdapter.callSuper(receiver, args, block, returnType);
     }
 
+    /**
+     * Executes a method defined in Ruby script, which does not have any argument and
+     * returns a number. Arguments are passed as Ruby Fixnum and the returned
+     * value is converted to Java long without boxing.
+     *
+     * @param receiver is an instance that will receive this method call
+     * @param methodName is a method name to be called
+     * @return a returned value as long
+     */
+    public long callMethodForLong(Object receiver, String methodName) {
+        return objectAdapter.callMethodForLong(receiver, methodName);
+    }
+
+    /**
+     * Executes a method defined in Ruby script, which has only one argument and
+     * returns a number. Arguments are passed as Ruby Fixnum and the returned
+     * value is converted to Java long without boxing.
+     *
+     * @param receiver is an instance that will receive this method call
+     * @param methodName is a method name to be called
+     * @param arg is a method argument
+     * @return a returned value as long
+     */
+    public long callMethodForLong(Object receiver, String methodName, long arg) {
+        return objectAdapter.callMethodForLong(receiver, methodName, arg);
+    }
+
+    /**
+     * Executes a method defined in Ruby script, which has two arguments and
+     * returns a number. Arguments are passed as Ruby Fixnum and the returned
+     * value is converted to Java long without boxing.
+     *
+     * @param receiver is an instance that will receive this method call
+     * @param methodName is a method name to be called
+     * @param arg0 is the first method argument
+     * @param arg1 is the second method argument
+     * @return a returned value as long
+     */
+    public long callMethodForLong(Object receiver, String methodName, long arg0, long arg1) {
+        return objectAdapter.callMethodForLong(receiver, methodName, arg0, arg1);
+    }
+
+    /**
+     * Executes a method defined in Ruby script, which does not have any argument and
+     * returns a number. Arguments are passed as Ruby Float and the returned
+     * value is converted to Java double without boxing.
+     *
+     * @param receiver is an instance that will receive this method call
+     * @param methodName is a method name to be called
+     * @return a returned value as double
+     */
+    public double callMethodForDouble(Object receiver, String methodName) {
+        return objectAdapter.callMethodForDouble(receiver, methodName);
+    }
+
+    /**
+     * Executes a method defined in Ruby script, which has only one argument and
+     * returns a number. Arguments are passed as Ruby Float and the returned
+     * value is converted to Java double without boxing.
+     *
+     * @param receiver is an instance that will receive this method call
+     * @param methodName is a method name to be called
+     * @param arg is a method argument
+     * @return a returned value as double
+     */
+    public double callMethodForDouble(Object receiver, String methodName, double arg) {
+        return objectAdapter.callMethodForDouble(receiver, methodName, arg);
+    }
+
+    /**
+     * Executes a method defined in Ruby script, which has two arguments and
+     * returns a number. Arguments are passed as Ruby Float and the returned
+     * value is converted to Java double without boxing.
+     *
+     * @param receiver is an instance that will receive this method call
+     * @param methodName is a method name to be called
+     * @param arg0 is the first method argument
+     * @param arg1 is the second method argument
+     * @return a returned value as double
+     */
+    public double callMethodForDouble(Object receiver, String methodName, double arg0, double arg1) {
+        return objectAdapter.callMethodForDouble(receiver, methodName, arg0, arg1);
+    }
+
+    /**
+     * Returns a reference to a method defined in Ruby script. Use this method
+     * when the same method is called many times on the same receiver.
+     * <pre>Example
+     *         ScriptingContainer container = new ScriptingContainer();
+     *         Object receiver = container.runScriptlet("class Pricer; def compute(x); x * 2; end; end; Pricer.new");
+     *         RubyMethodRef ref = container.lookupMethod(receiver, "compute");
+     *         Long price = ref.call(new Object[]{100L}, Long.class);</pre>
+     *
+     * @param receiver is an instance that will receive method calls
+     * @param methodName is a method name to be called
+     * @return a reference to the method
+     */
+    public RubyMethodRef lookupMethod(Object receiver, String methodName) {
+        return objectAdapter.lookupMethod(receiver, methodName);
+    }
+
     /**
      * Returns an instance of a requested interface type. An implementation of
      * the requested interface is done by a Ruby script, which has been evaluated
@@ -740,6 +1306,14 @@ public class ScriptingContainer {
             }
         }
         map.put(AttributeName.READER, reader);
+        if (provider instanceof PooledLocalContextProvider) {
+            ((PooledLocalContextProvider)provider).configure();
+            return;
+        }
+        installReader(reader);
+    }
+
+    private void installReader(Reader reader) {
         InputStream istream = new ReaderInputStream(reader);
         Ruby runtime = getRuntime();
         RubyIO io = new RubyIO(runtime, istream);
@@ -788,14 +1362,53 @@ public class ScriptingContainer {
             }
         }
         map.put(AttributeName.WRITER, writer);
-        PrintStream pstream = new PrintStream(new WriterOutputStream(writer));
-        setOutputStream(pstream);
+        if (provider instanceof PooledLocalContextProvider) {
+            ((PooledLocalContextProvider)provider).configure();
+            return;
+        }
+        PrintStream pstream = new PrintStream(newWriterOutputStream(writer));
+        installOutputStream(pstream);
     }
 
-    private void setOutputStream(PrintStream pstream) {
-        if (pstream == null) {
+    /**
+     * Replaces a standard output by a specified output stream. Use this method
+     * to set a stream that is not a writer, for example, {@link AsyncOutputStream}
+     * so that scripts don't wait for a slow destination. A writer returned from
+     * getWriter() writes to this stream afterward.
+     *
+     * @param ostream is an output stream to be set
+     */
+    public void setOutputStream(OutputStream ostream) {
+        if (ostream == null) {
             return;
         }
+        PrintStream pstream = ostream instanceof PrintStream ? (PrintStream)ostream : new PrintStream(ostream);
+        getAttributeMap().put(AttributeName.WRITER, new PrintWriter(pstream, true));
+        if (provider instanceof PooledLocalContextProvider) {
+            ((PooledLocalContextProvider)provider).configure();
+            return;
+        }
+        installOutputStream(pstream);
+    }
+
+    private WriterOutputStream newWriterOutputStream(Writer writer) {
+        FlushPolicy flushPolicy = FlushPolicy.ALWAYS;
+        Object obj = getAttribute(AttributeName.FLUSH_POLICY);
+        if (obj != null && obj instanceof FlushPolicy) {
+            flushPolicy = (FlushPolicy)obj;
+        }
+        int threshold = 0;
+        obj = getAttribute(AttributeName.FLUSH_THRESHOLD);
+        if (obj != null && obj instanceof Integer) {
+            threshold = (Integer)obj;
+        }
+        return new WriterOutputStream(writer, null, flushPolicy, threshold);
+    }
+
+    private RubyIO installOutputStream(PrintStream pstream) {
+        if (pstream == null) {
+            return null;
+        }
         Ruby runtime = getRuntime();
         RubyIO io = new RubyIO(runtime, pstream);
         io.getOpenFile().getMainStream().setSync(true);
@@ -805,11 +1418,12 @@ public class ScriptingContainer {
         runtime.getGlobalVariables().alias("$>", "$stdout");
         runtime.getGlobalVariables().alias("$defout", "$stdout");
         revertWarning();
+        return io;
     }
 
     public void resetWriter() {
         PrintStream pstream = provider.getRubyInstanceConfig().getOutput();
-        setOutputStream(pstream);
+        installOutputStream(pstream);
     }
 
     /**
@@ -852,25 +1466,66 @@ public class ScriptingContainer {
             }
         }
         map.put(AttributeName.ERROR_WRITER, errorWriter);
-        PrintStream pstream = new PrintStream(new WriterOutputStream(errorWriter));
-        setErrorStream(pstream);
+        if (provider instanceof PooledLocalContextProvider) {
+            ((PooledLocalContextProvider)provider).configure();
+            return;
+        }
+        PrintStream pstream = new PrintStream(newWriterOutputStream(errorWriter));
+        installErrorStream(pstream);
     }
 
-    private void setErrorStream(PrintStream error) {
-        if (error == null) {
+    /**
+     * Replaces a standard error by a specified output stream. A writer returned
+     * from getErrorWriter() writes to this stream afterward.
+     *
+     * @param ostream is an output stream to be set
+     * @see #setOutputStream(OutputStream)
+     */
+    public void setErrorStream(OutputStream ostream) {
+        if (ostream == null) {
+            return;
+        }
+        PrintStream pstream = ostream instanceof PrintStream ? (PrintStream)ostream : new PrintStream(ostream);
+        getAttributeMap().put(AttributeName.ERROR_WRITER, new PrintWriter(pstream, true));
+        if (provider instanceof PooledLocalContextProvider) {
+            ((PooledLocalContextProvider)provider).configure();
             return;
         }
+        installErrorStream(pstream);
+    }
+
+    private RubyIO installErrorStream(PrintStream error) {
+        if (error == null) {
+            return null;
+        }
         Ruby runtime = getRuntime();
         RubyIO io = new RubyIO(runtime, error);
         io.getOpenFile().getMainStream().setSync(true);
         runtime.defineVariable(new OutputGlobalVariable(runtime, "$stderr", io));
         runtime.defineGlobalConstant("STDERR", io);
         runtime.getGlobalVariables().alias("$deferr", "$stderr");
+        return io;
+    }
+
+    /*
+     * Each runtime in the pool gets streams set to this container when it is
+     * checked out for the first time after they were set.
+     */
+    private class StreamConfigurator implements PooledLocalContextProvider.Configurator {
+        public void configure(Object key, Object value) {
+            if (key == AttributeName.READER) {
+                installReader((Reader)value);
+            } else if (key == AttributeName.WRITER) {
+                installOutputStream(new PrintStream(newWriterOutputStream((Writer)value)));
+            } else if (key == AttributeName.ERROR_WRITER) {
+                installErrorStream(new PrintStream(newWriterOutputStream((Writer)value)));
+            }
+        }
     }
 
     public void resetErrorWriter() {
         PrintStream error = provider.getRubyInstanceConfig().getError();
-        setErrorStream(error);
+        installErrorStream(error);
     }
 
     /**
@@ -925,7 +1580,7 @@ public class ScriptingContainer {
         if (map.containsKey(AttributeName.ERROR_WRITER)) {
             Writer errorWriter = (Writer) map.get(AttributeName.ERROR_WRITER);
             if (errorWriter != null) {
-                pstream = new PrintStream(new WriterOutputStream(errorWriter));
+                pstream = new PrintStream(newWriterOutputStream(errorWriter));
             }
         }
         if (pstream == null) {
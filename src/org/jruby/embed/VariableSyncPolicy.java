@@ -0,0 +1,211 @@
+/**
+ * **** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 Yoko Harada <yokolet@gmail.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ * **** END LICENSE BLOCK *****
+ */
+package org.jruby.embed;
+
+import org.jruby.embed.variable.BiVariable.Type;
+
+/**
+ * Specifies which types of variables are injected to Ruby before the evaluation
+ * and retrieved from Ruby after the evaluation. Each combination of a variable
+ * type and a direction is a bit of a mask, so skipping unnecessary scans,
+ * for example, retrieving constants of the receiver, is possible.
+ *
+ * <p>A policy is immutable. A default policy of a container is set by
+ * {@link AttributeName#VARIABLE_SYNC_POLICY}, and a policy for a single evaluation
+ * or method call can be given by methods of {@link ScriptingContainer} and
+ * {@link EmbedEvalUnit} that take this type.
+ * <pre>
+ *         ScriptingContainer container = new ScriptingContainer();
+ *         VariableSyncPolicy policy = VariableSyncPolicy.ALL
+ *                 .withRetrieval(BiVariable.Type.Constant, false)
+ *                 .withRetrieval(BiVariable.Type.ClassVariable, false);
+ *         container.setAttribute(AttributeName.VARIABLE_SYNC_POLICY, policy);
+ *         container.runScriptlet("puts 1 + 2", VariableSyncPolicy.INJECT_ONLY);</pre>
+ *
+ * @author Yoko Harada <yokolet@gmail.com>
+ */
+public final class VariableSyncPolicy {
+    private static final int ALL_BITS = (1 << (Type.values().length * 2)) - 1;
+
+    /**
+     * Injects and retrieves all types of variables. This is the default.
+     */
+    public static final VariableSyncPolicy ALL = new VariableSyncPolicy(ALL_BITS);
+
+    /**
+     * Injects all types of variables, but retrieves nothing. Only a returned
+     * value is available after the evaluation.
+     */
+    public static final VariableSyncPolicy INJECT_ONLY = new VariableSyncPolicy(injectionBits());
+
+    /**
+     * Neither injects nor retrieves variables.
+     */
+    public static final VariableSyncPolicy NONE = new VariableSyncPolicy(0);
+
+    private final int mask;
+
+    private VariableSyncPolicy(int mask) {
+        this.mask = mask & ALL_BITS;
+    }
+
+    private static int injectionBits() {
+        int bits = 0;
+        for (Type type : Type.values()) {
+            bits |= injectionBit(type);
+        }
+        return bits;
+    }
+
+    private static int injectionBit(Type type) {
+        return 1 << (type.ordinal() * 2);
+    }
+
+    private static int retrievalBit(Type type) {
+        return 1 << (type.ordinal() * 2 + 1);
+    }
+
+    /**
+     * Returns a policy of the given bit mask, which is a value returned from
+     * {@link #getMask()}.
+     *
+     * @param mask is a bit mask of a policy
+     * @return a policy of the mask
+     */
+    public static VariableSyncPolicy valueOf(int mask) {
+        mask &= ALL_BITS;
+        if (mask == ALL_BITS) {
+            return ALL;
+        } else if (mask == 0) {
+            return NONE;
+        } else if (mask == INJECT_ONLY.mask) {
+            return INJECT_ONLY;
+        }
+        return new VariableSyncPolicy(mask);
+    }
+
+    /**
+     * Returns a policy that is the same as this one except injection of
+     * the given type.
+     *
+     * @param type is a type of variables
+     * @param enabled is true to inject variables of the type
+     * @return a new policy
+     */
+    public VariableSyncPolicy withInjection(Type type, boolean enabled) {
+        int bit = injectionBit(type);
+        return valueOf(enabled ? mask | bit : mask & ~bit);
+    }
+
+    /**
+     * Returns a policy that is the same as this one except retrieval of
+     * the given type.
+     *
+     * @param type is a type of variables
+     * @param enabled is true to retrieve variables of the type
+     * @return a new policy
+     */
+    public VariableSyncPolicy withRetrieval(Type type, boolean enabled) {
+        int bit = retrievalBit(type);
+        return valueOf(enabled ? mask | bit : mask & ~bit);
+    }
+
+    /**
+     * Returns true if variables of the given type are injected to Ruby.
+     *
+     * @param type is a type of variables
+     * @return true if variables of the type are injected
+     */
+    public boolean isInjected(Type type) {
+        return (mask & injectionBit(type)) != 0;
+    }
+
+    /**
+     * Returns true if variables of the given type are retrieved from Ruby.
+     *
+     * @param type is a type of variables
+     * @return true if variables of the type are retrieved
+     */
+    public boolean isRetrieved(Type type) {
+        return (mask & retrievalBit(type)) != 0;
+    }
+
+    /**
+     * Returns true if no variable is retrieved from Ruby.
+     *
+     * @return true if nothing is retrieved
+     */
+    public boolean isRetrievingNothing() {
+        return (mask & ~INJECT_ONLY.mask) == 0;
+    }
+
+    /**
+     * Returns a bit mask of this policy.
+     *
+     * @return a bit mask
+     */
+    public int getMask() {
+        return mask;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof VariableSyncPolicy && ((VariableSyncPolicy)obj).mask == mask;
+    }
+
+    @Override
+    public int hashCode() {
+        return mask;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("VariableSyncPolicy[inject=");
+        appendTypes(sb, true);
+        sb.append(", retrieve=");
+        appendTypes(sb, false);
+        return sb.append("]").toString();
+    }
+
+    private void appendTypes(StringBuilder sb, boolean injection) {
+        sb.append("{");
+        boolean first = true;
+        for (Type type : Type.values()) {
+            if (injection ? isInjected(type) : isRetrieved(type)) {
+                if (!first) {
+                    sb.append(", ");
+                }
+                sb.append(type);
+                first = false;
+            }
+        }
+        sb.append("}");
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * **** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 Yoko Harada <yokolet@gmail.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ * **** END LICENSE BLOCK *****
+ */
+package org.jruby.embed;
+
+/**
+ * Timings of warmUp() method of {@link ScriptingContainer}. Times of each phase
+ * are summed up over all warmed runtimes, so they can be larger than the
+ * elapsed time when runtimes are warmed up in parallel.
+ *
+ * @author Yoko Harada <yokolet@gmail.com>
+ */
+public class WarmupReport {
+    private int runtimeCount = 0;
+    private int unfinishedCount = 0;
+    private long bootTime = 0L;
+    private long requireTime = 0L;
+    private long jitTime = 0L;
+    private long elapsedTime = 0L;
+
+    synchronized void add(long boot, long require, long jit) {
+        runtimeCount++;
+        bootTime += boot;
+        requireTime += require;
+        jitTime += jit;
+    }
+
+    synchronized void addUnfinished() {
+        unfinishedCount++;
+    }
+
+    synchronized void setElapsedTime(long elapsedTime) {
+        this.elapsedTime = elapsedTime;
+    }
+
+    /**
+     * Returns the number of warmed runtimes.
+     *
+     * @return the number of warmed runtimes
+     */
+    public synchronized int getRuntimeCount() {
+        return runtimeCount;
+    }
+
+    /**
+     * Returns the number of runtimes whose warm-up didn't complete within the
+     * timeout given by {@link WarmupSpec#setTimeout(long)}.
+     *
+     * @return the number of unfinished runtimes
+     */
+    public synchronized int getUnfinishedCount() {
+        return unfinishedCount;
+    }
+
+    /**
+     * Returns milliseconds spent to boot runtimes. Runtimes booted before warmUp()
+     * count as zero.
+     *
+     * @return milliseconds spent to boot runtimes
+     */
+    public synchronized long getBootTime() {
+        return bootTime;
+    }
+
+    /**
+     * Returns milliseconds spent to require libraries.
+     *
+     * @return milliseconds spent to require libraries
+     */
+    public synchronized long getRequireTime() {
+        return requireTime;
+    }
+
+    /**
+     * Returns milliseconds spent to evaluate warm-up scriptlets.
+     *
+     * @return milliseconds spent to evaluate warm-up scriptlets
+     */
+    public synchronized long getJitTime() {
+        return jitTime;
+    }
+
+    /**
+     * Returns milliseconds warmUp() took.
+     *
+     * @return elapsed milliseconds
+     */
+    public synchronized long getElapsedTime() {
+        return elapsedTime;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "runtimes: " + runtimeCount + ", unfinished: " + unfinishedCount + ", boot: " + bootTime +
+                "ms, require: " + requireTime +
+                "ms, jit: " + jitTime + "ms, elapsed: " + elapsedTime + "ms";
+    }
+}
@@ -0,0 +1,155 @@
+/**
+ * **** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 Yoko Harada <yokolet@gmail.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ * **** END LICENSE BLOCK *****
+ */
+package org.jruby.embed;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Describes what warmUp() method of {@link ScriptingContainer} does on each
+ * Ruby runtime: libraries to be required and scriptlets to be evaluated
+ * repeatedly so that frequently used methods get compiled before the first
+ * request comes.
+ *
+ * Usage example:
+ * <pre>
+ *     WarmupSpec spec = new WarmupSpec();
+ *     spec.addRequire("java");
+ *     spec.addRequire("pricing/rules");
+ *     spec.addScriptlet("Pricing.compute(100)");
+ *     spec.setIterations(100);
+ *     WarmupReport report = container.warmUp(spec);
+ *     System.out.println(report);</pre>
+ *
+ * @author Yoko Harada <yokolet@gmail.com>
+ */
+public class WarmupSpec {
+    private final List<String> requires = new ArrayList<String>();
+    private final List<String> scriptlets = new ArrayList<String>();
+    private int iterations = 1;
+    private int parallelism = 0;
+    private long timeout = 0L;
+
+    /**
+     * Adds a library name to be required on each runtime.
+     *
+     * @param name is a library name given to Ruby's require
+     */
+    public void addRequire(String name) {
+        if (name != null && name.length() > 0) {
+            requires.add(name);
+        }
+    }
+
+    /**
+     * Adds a scriptlet to be evaluated on each runtime after required libraries
+     * are loaded.
+     *
+     * @param script is a Ruby script
+     */
+    public void addScriptlet(String script) {
+        if (script != null && script.length() > 0) {
+            scriptlets.add(script);
+        }
+    }
+
+    public List<String> getRequires() {
+        return Collections.unmodifiableList(requires);
+    }
+
+    public List<String> getScriptlets() {
+        return Collections.unmodifiableList(scriptlets);
+    }
+
+    /**
+     * Returns how many times each scriptlet is evaluated. Default is 1.
+     *
+     * @return the number of evaluations of each scriptlet
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Sets how many times each scriptlet is evaluated. Ruby methods are compiled
+     * after they are called a number of times, so give a number greater than
+     * JRuby's JIT threshold to get them compiled.
+     *
+     * @param iterations the number of evaluations of each scriptlet
+     */
+    public void setIterations(int iterations) {
+        this.iterations = iterations > 0 ? iterations : 1;
+    }
+
+    /**
+     * Returns the number of runtimes warmed up in parallel. Default is 0, which
+     * means the number of available processors.
+     *
+     * @return the number of runtimes warmed up in parallel
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the number of runtimes warmed up in parallel. Used only when the
+     * container's scope is LocalContextScope.POOLED. The number is limited by
+     * the maximum size of the pool.
+     *
+     * @param parallelism the number of runtimes warmed up in parallel
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Returns milliseconds warmUp() waits for runtimes to be warmed up. Default
+     * is 0, which means no timeout.
+     *
+     * @return the timeout in milliseconds
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Sets milliseconds warmUp() waits for runtimes to be warmed up. Used only
+     * when the container's scope is LocalContextScope.POOLED. Runtimes whose
+     * warm-up hasn't completed in time are counted by
+     * {@link WarmupReport#getUnfinishedCount()}. Zero or a negative value means
+     * no timeout.
+     *
+     * @param timeout the timeout in milliseconds
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+}
@@ -29,17 +29,24 @@
  */
 package org.jruby.embed.internal;
 
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import org.jruby.Ruby;
+import org.jruby.embed.AttributeName;
 import org.jruby.embed.LocalVariableBehavior;
+import org.jruby.embed.VariableSyncPolicy;
 import org.jruby.embed.variable.BiVariable;
 import org.jruby.embed.variable.VariableInterceptor;
 import org.jruby.runtime.builtin.IRubyObject;
@@ -48,10 +55,10 @@ import org.jruby.runtime.scope.ManyVarsDynamicScope;
 /**
  * Ruby-Java bi-directional variable map implementation. Keys of this map
  * should be String, and values should be {@link BiVariable} type object.
- * This map does not permit null or empty key. Each operation of this class is not
- * synchronized; however, concurrent access to values are synchronized. When
- * {@link ScriptingContainer} is shared by multiple threads, specify thread safe
- * for a local context scope, which makes a map thread local.
+ * This map does not permit null or empty key. Lookups go to a concurrent hash index
+ * without locking, while insertions and removals are synchronized to keep the
+ * insertion order. When {@link ScriptingContainer} is shared by multiple threads,
+ * specify thread safe for a local context scope, which makes a map thread local.
  *
  * Usage example:
  * <pre>
@@ -67,9 +74,14 @@ import org.jruby.runtime.scope.ManyVarsDynamicScope;
  */
 public class BiVariableMap<K, V> implements Map<K, V> {
     private Ruby runtime;
-    private List<String> varNames;
-    private List<BiVariable> variables;
+    private final ConcurrentHashMap<String, BiVariable> index = new ConcurrentHashMap<String, BiVariable>();
+    private final LinkedHashMap<String, BiVariable> ordered = new LinkedHashMap<String, BiVariable>();
+    private final LinkedHashMap<String, BiVariable> localVariables = new LinkedHashMap<String, BiVariable>();
+    private volatile BiVariable[] snapshot = null;
+    private volatile BiVariable[] localSnapshot = null;
+    private volatile String[] localVarNames = null;
     private VariableInterceptor interceptor;
+    private Map attributes = null;
 
     /**
      * Constructs an empy map. Users do not instantiate this map. The map is created
@@ -86,32 +98,125 @@ public class BiVariableMap<K, V> implements Map<K, V> {
      * Constructs an empy map. Users do not instantiate this map. The map is created
      * internally.
      * 
-     * @param runtime is environment where variables are used to execute Ruby scripts.
+     * @param runtime is environment where variables are used to execute Ruby scripts,
+     *        or null for a map that only keeps Java objects.
      * @param behavior is one of variable behaviors defined in VariableBehavior.
      */
     public BiVariableMap(Ruby runtime, LocalVariableBehavior behavior) {
         this.runtime = runtime;
-        varNames = Collections.synchronizedList(new ArrayList<String>());
-        variables = Collections.synchronizedList(new ArrayList<BiVariable>());
         interceptor = new VariableInterceptor(behavior);
     }
 
+    void setAttributeMap(Map attributes) {
+        this.attributes = attributes;
+    }
+
+    private boolean isIncrementalGlobalRetrieval() {
+        if (attributes == null) {
+            return false;
+        }
+        Object obj = attributes.get(AttributeName.INCREMENTAL_GLOBAL_RETRIEVAL);
+        if (obj != null && obj instanceof Boolean) {
+            return (Boolean)obj;
+        }
+        return false;
+    }
+
     /**
-     * Returns a list of all names in this map.
+     * Returns a list of all names in this map. The list is a read-only snapshot
+     * in insertion order.
      *
      * @return a List of all names.
      */
     public List<String> getNames() {
-        return varNames;
+        BiVariable[] vars = getSnapshot();
+        List<String> names = new ArrayList<String>(vars.length);
+        for (BiVariable v : vars) {
+            names.add(v.getName());
+        }
+        return Collections.unmodifiableList(names);
     }
 
     /**
-     * Returns a list of all values in this map.
+     * Returns a list of all values in this map. The list is a read-only snapshot
+     * in insertion order.
      *
      * @return a List of all values.
      */
     public List<BiVariable> getVariables() {
-        return variables;
+        return Collections.unmodifiableList(Arrays.asList(getSnapshot()));
+    }
+
+    private BiVariable[] getSnapshot() {
+        BiVariable[] vars = snapshot;
+        if (vars == null) {
+            synchronized (ordered) {
+                if (snapshot == null) {
+                    snapshot = ordered.values().toArray(new BiVariable[ordered.size()]);
+                }
+                vars = snapshot;
+            }
+        }
+        return vars;
+    }
+
+    private BiVariable[] getLocalSnapshot() {
+        BiVariable[] vars = localSnapshot;
+        if (vars == null) {
+            synchronized (ordered) {
+                if (localSnapshot == null) {
+                    localSnapshot = localVariables.values().toArray(new BiVariable[localVariables.size()]);
+                    String[] names = new String[localSnapshot.length];
+                    for (int i = 0; i < names.length; i++) {
+                        names[i] = localSnapshot[i].getName();
+                    }
+                    localVarNames = names;
+                }
+                vars = localSnapshot;
+            }
+        }
+        return vars;
+    }
+
+    private void add(String name, BiVariable var) {
+        synchronized (ordered) {
+            BiVariable old = ordered.put(name, var);
+            index.put(name, var);
+            snapshot = null;
+            if (old != null && old.getType() == BiVariable.Type.LocalVariable) {
+                localVariables.remove(name);
+                localSnapshot = null;
+            }
+            if (var.getType() == BiVariable.Type.LocalVariable) {
+                localVariables.put(name, var);
+                localSnapshot = null;
+            }
+        }
+    }
+
+    private BiVariable drop(String name) {
+        synchronized (ordered) {
+            BiVariable old = ordered.remove(name);
+            if (old == null) {
+                return null;
+            }
+            index.remove(name);
+            if (localVariables.remove(name) != null) {
+                localSnapshot = null;
+            }
+            snapshot = null;
+            return old;
+        }
+    }
+
+    /**
+     * Removes a variable from this map, but leaves it in Ruby.
+     *
+     * @param name is a variable name
+     * @return the removed variable, or null if this map didn't have it
+     */
+    BiVariable forget(String name) {
+        return drop(name);
     }
 
     /**
@@ -130,7 +235,7 @@ public class BiVariableMap<K, V> implements Map<K, V> {
      */
     public Map getMap() {
         Map m = new HashMap();
-        for (BiVariable v : variables) {
+        for (BiVariable v : getSnapshot()) {
             m.put(v.getName(), v.getJavaObject());
         }
         return m;
@@ -142,7 +247,7 @@ public class BiVariableMap<K, V> implements Map<K, V> {
      * @return the number of key-value mappings in this map
      */
     public int size() {
-        return varNames.size();
+        return index.size();
     }
 
     /**
@@ -151,7 +256,7 @@ public class BiVariableMap<K, V> implements Map<K, V> {
      * @return <tt>true</tt> if this map contains no key-value mappings
      */
     public boolean isEmpty() {
-        return varNames.isEmpty();
+        return index.isEmpty();
     }
 
     private void checkKey(Object key) {
@@ -175,7 +280,7 @@ public class BiVariableMap<K, V> implements Map<K, V> {
      */
     public boolean containsKey(Object key) {
         checkKey(key);
-        return varNames.contains((String)key);
+        return index.containsKey((String)key);
     }
 
     /**
@@ -187,9 +292,7 @@ public class BiVariableMap<K, V> implements Map<K, V> {
      * specified value.
      */
     public boolean containsValue(Object value) {
-        Iterator itr = variables.iterator();
-        while (itr.hasNext()) {
-            BiVariable v = (BiVariable)itr.next();
+        for (BiVariable v : getSnapshot()) {
             if (value == v.getJavaObject()) {
                 return true;
             }
@@ -206,8 +309,10 @@ public class BiVariableMap<K, V> implements Map<K, V> {
      *         {@code null} if this map contains no mapping for the key
      */
     public V get(Object key) {
-        if (containsKey(key)) {
-            return (V)getVariable((String)key).getJavaObject();
+        checkKey(key);
+        BiVariable v = index.get((String)key);
+        if (v != null) {
+            return (V)v.getJavaObject();
         } else {
             return null;
         }
@@ -222,12 +327,8 @@ public class BiVariableMap<K, V> implements Map<K, V> {
      *         {@code null} if this map contains no mapping for the key
      */
     public BiVariable getVariable(String key) {
-        if (containsKey(key)) {
-            int index = varNames.indexOf(key);
-            return variables.get(index);
-        } else {
-            return null;
-        }
+        checkKey(key);
+        return index.get(key);
     }
 
     public void setVariable(BiVariable var) {
@@ -239,8 +340,7 @@ public class BiVariableMap<K, V> implements Map<K, V> {
         if (old != null) {
             old.setJavaObject(runtime, var.getJavaObject());
         } else {
-            varNames.add(key);
-            variables.add(var);
+            add(key, var);
         }
     }
 
@@ -264,8 +364,7 @@ public class BiVariableMap<K, V> implements Map<K, V> {
         } else {
             v = interceptor.getVariableInstance(runtime, name, value);
             if (v != null) {
-                varNames.add(name);
-                variables.add(v);
+                add(name, v);
             }
         }
         return (V)oldValue;
@@ -278,14 +377,13 @@ public class BiVariableMap<K, V> implements Map<K, V> {
      * @return String array of Ruby's local variable names
      */
     public String[] getLocalVarNames() {
-        List<String> localVarNames = new ArrayList<String>();
-        for (BiVariable v : variables) {
-            if (v.getType() == BiVariable.Type.LocalVariable) {
-                localVarNames.add(v.getName());
-            }
+        String[] names;
+        synchronized (ordered) {
+            getLocalSnapshot();
+            names = localVarNames;
         }
-        if (localVarNames.size() > 0) {
-            return localVarNames.toArray(new String[localVarNames.size()]);
+        if (names.length > 0) {
+            return names.clone();
         }
         return null;
     }
@@ -297,29 +395,69 @@ public class BiVariableMap<K, V> implements Map<K, V> {
      * @return IRubyObject array of Ruby's local variable names.
      */
     public IRubyObject[] getLocalVarValues() {
-        List<IRubyObject> localVarValues = new ArrayList<IRubyObject>();
-        for (BiVariable v : variables) {
-            if (v.getType() == BiVariable.Type.LocalVariable) {
-                localVarValues.add(v.getRubyObject());
+        BiVariable[] vars = getLocalSnapshot();
+        if (vars.length > 0) {
+            IRubyObject[] values = new IRubyObject[vars.length];
+            for (int i = 0; i < vars.length; i++) {
+                values[i] = vars[i].getRubyObject();
             }
-        }
-        if (localVarValues.size() > 0) {
-            return localVarValues.toArray(new IRubyObject[localVarValues.size()]);
+            return values;
         }
         return null;
     }
 
     void inject(ManyVarsDynamicScope scope, int depth, IRubyObject receiver) {
-        interceptor.inject(this, runtime, scope, depth, receiver);
+        inject(scope, depth, receiver, null);
+    }
+
+    void inject(ManyVarsDynamicScope scope, int depth, IRubyObject receiver, VariableSyncPolicy policy) {
+        interceptor.inject(this, runtime, scope, depth, receiver, getSyncPolicy(policy));
     }
 
     void retrieve(IRubyObject receiver) {
-        interceptor.retrieve(this, runtime, receiver);
+        retrieve(receiver, null);
+    }
+
+    void retrieve(IRubyObject receiver, VariableSyncPolicy policy) {
+        interceptor.retrieve(this, runtime, receiver, isIncrementalGlobalRetrieval(), getSyncPolicy(policy));
+    }
+
+    private VariableSyncPolicy getSyncPolicy(VariableSyncPolicy policy) {
+        if (policy != null) {
+            return policy;
+        }
+        if (attributes != null) {
+            Object obj = attributes.get(AttributeName.VARIABLE_SYNC_POLICY);
+            if (obj != null && obj instanceof VariableSyncPolicy) {
+                return (VariableSyncPolicy)obj;
+            }
+        }
+        return VariableSyncPolicy.ALL;
     }
 
     void terminate() {
-        interceptor.terminateGlobalVariables(variables, runtime);
-        interceptor.terminateLocalVariables(varNames, variables);
+        interceptor.terminateGlobalVariables(getVariables(), runtime);
+        interceptor.terminateLocalVariables(this);
+    }
+
+    /**
+     * Removes all local variables from this map without removing them from
+     * Ruby runtime. This method is used when transient local variables have gone
+     * after the evaluation.
+     */
+    public void clearLocalVariables() {
+        synchronized (ordered) {
+            if (localVariables.isEmpty()) {
+                return;
+            }
+            for (String name : localVariables.keySet()) {
+                ordered.remove(name);
+                index.remove(name);
+            }
+            localVariables.clear();
+            snapshot = null;
+            localSnapshot = null;
+        }
     }
 
     /**
@@ -333,11 +471,15 @@ public class BiVariableMap<K, V> implements Map<K, V> {
      *         <tt>null</tt> if there was no mapping for <tt>key</tt>.
      */
     public V remove(Object key) {
-        if (containsKey(key)) {
-            int index = varNames.indexOf(key);
-            varNames.remove(index);
-            BiVariable v = variables.remove(index);
-            v.remove(runtime);
+        checkKey(key);
+        BiVariable v = drop((String)key);
+        if (v != null) {
+            if (v.getType() == BiVariable.Type.GlobalVariable) {
+                interceptor.resetGlobalVariable(v.getName());
+            }
+            if (runtime != null) {
+                v.remove(runtime);
+            }
             return (V)v.getJavaObject();
         }
         return null;
@@ -376,67 +518,193 @@ public class BiVariableMap<K, V> implements Map<K, V> {
      * names with null value.
      */
     public void clear() {
-        varNames.clear();
-        for (BiVariable v : variables) {
+        BiVariable[] vars;
+        synchronized (ordered) {
+            vars = getSnapshot();
+            ordered.clear();
+            localVariables.clear();
+            index.clear();
+            snapshot = null;
+            localSnapshot = null;
+        }
+        interceptor.resetGlobalVariables();
+        if (runtime == null) {
+            return;
+        }
+        for (BiVariable v : vars) {
             if (v != null) {
                 v.remove(runtime);
             }
         }
-        variables.clear();
     }
 
     /**
      * Returns a {@link Set} view of the keys contained in this map.
-     * The set is backed by the map, so changes to the map should be
-     * reflected in the set, and vice-versa. However, the implementation
-     * does not reflect changes currently.
+     * The set is backed by the map, so changes to the map are reflected in
+     * the set. Removing a key from the set removes the variable from the map.
+     * For compatibility, null is returned when the map is empty.
      * 
      * @return a set view of the keys contained in this map
      */
     public Set keySet() {
-        if (varNames.isEmpty()) {
+        if (index.isEmpty()) {
             return null;
         }
-        Set s = new HashSet();
-        for (String name : varNames) {
-            s.add(name);
-        }
-        return s;
+        return new AbstractSet() {
+            public Iterator iterator() {
+                return new ViewIterator(ViewIterator.KEY);
+            }
+
+            public int size() {
+                return index.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof String && index.containsKey((String)o);
+            }
+
+            @Override
+            public boolean remove(Object o) {
+                if (!contains(o)) {
+                    return false;
+                }
+                BiVariableMap.this.remove(o);
+                return true;
+            }
+        };
     }
 
     /**
      * Returns a {@link Collection} view of the values contained in this map.
-     * The collection is backed by the map, so changes to the map should be
-     * reflected in the collection, and vice-versa. However, the implementation
-     * does not reflect changes currently.
+     * The collection is backed by the map, so changes to the map are reflected
+     * in the collection. For compatibility, null is returned when the map is
+     * empty.
      * 
      * @return a collection view of the values contained in this map
      */
     public Collection values() {
-        // should be vice-versa, but currently NOT
-        if (varNames.isEmpty()) {
+        if (index.isEmpty()) {
             return null;
         }
-        List l = new ArrayList();
-        for (BiVariable v : variables) {
-            l.add(v.getJavaObject());
-        }
-        return l;
+        return new AbstractCollection() {
+            public Iterator iterator() {
+                return new ViewIterator(ViewIterator.VALUE);
+            }
+
+            public int size() {
+                return index.size();
+            }
+        };
     }
 
     /**
      * Returns a {@link Set} view of the mappings contained in this map.
-     * The set is backed by the map, so changes to the map should be
-     * reflected in the set, and vice-versa. However, the implementation
-     * does not reflect changes currently.
+     * The set is backed by the map, so changes to the map are reflected in
+     * the set. Values of entries are simple Java objects, and setting a value
+     * to an entry is the same as {@link #put(Object, Object)}. For compatibility,
+     * null is returned when the map is empty.
      * 
      * @return an entry set of a map
      */
     public Set entrySet() {
-        if (varNames.isEmpty()) {
+        if (index.isEmpty()) {
             return null;
         }
-        return getMap().entrySet();
+        return new AbstractSet() {
+            public Iterator iterator() {
+                return new ViewIterator(ViewIterator.ENTRY);
+            }
+
+            public int size() {
+                return index.size();
+            }
+        };
+    }
+
+    /**
+     * Iterates over variables in insertion order at the time the iterator was
+     * created. No copy is made since the snapshot is shared until the map changes.
+     */
+    private class ViewIterator implements Iterator {
+        private static final int KEY = 0;
+        private static final int VALUE = 1;
+        private static final int ENTRY = 2;
+        private final int type;
+        private final BiVariable[] vars = getSnapshot();
+        private int cursor = 0;
+        private BiVariable last = null;
+
+        private ViewIterator(int type) {
+            this.type = type;
+        }
+
+        public boolean hasNext() {
+            return cursor < vars.length;
+        }
+
+        public Object next() {
+            if (cursor >= vars.length) {
+                throw new NoSuchElementException();
+            }
+            last = vars[cursor++];
+            if (type == KEY) {
+                return last.getName();
+            } else if (type == VALUE) {
+                return last.getJavaObject();
+            }
+            return new VariableEntry(last);
+        }
+
+        public void remove() {
+            if (last == null) {
+                throw new IllegalStateException();
+            }
+            BiVariableMap.this.remove(last.getName());
+            last = null;
+        }
+    }
+
+    private class VariableEntry implements Map.Entry {
+        private final BiVariable var;
+
+        private VariableEntry(BiVariable var) {
+            this.var = var;
+        }
+
+        public Object getKey() {
+            return var.getName();
+        }
+
+        public Object getValue() {
+            return var.getJavaObject();
+        }
+
+        public Object setValue(Object value) {
+            return put((K)var.getName(), (V)value);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry e = (Map.Entry)o;
+            Object value = getValue();
+            return getKey().equals(e.getKey()) &&
+                    (value == null ? e.getValue() == null : value.equals(e.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            Object value = getValue();
+            return getKey().hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
     }
 
     /**
@@ -446,7 +714,6 @@ public class BiVariableMap<K, V> implements Map<K, V> {
      * @param value is BiVariable type object corresponding to the name
      */
     public void update(String name, BiVariable value) {
-        this.varNames.add(name);
-        this.variables.add(value);
+        add(name, value);
     }
 }
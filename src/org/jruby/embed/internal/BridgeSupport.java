@@ -0,0 +1,202 @@
+/**
+ * **** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 Yoko Harada <yokolet@gmail.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ * **** END LICENSE BLOCK *****
+ */
+package org.jruby.embed.internal;
+
+import java.lang.reflect.Method;
+import org.jruby.Ruby;
+import org.jruby.RubyClass;
+import org.jruby.RubyFixnum;
+import org.jruby.RubyFloat;
+import org.jruby.RubyNumeric;
+import org.jruby.embed.InvokeFailedException;
+import org.jruby.embed.ScriptingContainer;
+import org.jruby.exceptions.RaiseException;
+import org.jruby.javasupport.JavaEmbedUtils;
+import org.jruby.javasupport.JavaUtil;
+import org.jruby.javasupport.util.RuntimeHelpers;
+import org.jruby.runtime.Block;
+import org.jruby.runtime.ThreadContext;
+import org.jruby.runtime.builtin.IRubyObject;
+import org.jruby.runtime.callsite.CacheEntry;
+
+/**
+ * Runtime support of a bridge class generated by {@link InterfaceBridgeGenerator}.
+ * A bridge method converts its arguments by toRuby methods and calls one of the
+ * call methods with the index of the interface method. Resolved Ruby methods are
+ * cached per index and looked up again when the receiver's class changes.
+ * Variables of the container are injected before and retrieved after each call
+ * like calls through a proxy.
+ *
+ * <p>This class is public only because generated classes live in another class
+ * loader. Users don't use it directly.
+ *
+ * @author Yoko Harada <yokolet@gmail.com>
+ */
+public final class BridgeSupport {
+    private final ScriptingContainer container;
+    private final IRubyObject receiver;
+    private final Ruby runtime;
+    private final String[] names;
+    private final Class<?>[] returnTypes;
+    private final CacheEntry[] entries;
+
+    BridgeSupport(ScriptingContainer container, IRubyObject receiver, Method[] methods) {
+        this.container = container;
+        this.receiver = receiver;
+        runtime = receiver.getRuntime();
+        names = new String[methods.length];
+        returnTypes = new Class<?>[methods.length];
+        entries = new CacheEntry[methods.length];
+        for (int i = 0; i < methods.length; i++) {
+            names[i] = InterfaceProxyHandler.getRubyName(receiver, methods[i].getName());
+            returnTypes[i] = methods[i].getReturnType();
+            entries[i] = CacheEntry.NULL_CACHE;
+        }
+    }
+
+    IRubyObject getReceiver() {
+        return receiver;
+    }
+
+    public IRubyObject toRuby(int value) {
+        return RubyFixnum.newFixnum(runtime, value);
+    }
+
+    public IRubyObject toRuby(long value) {
+        return RubyFixnum.newFixnum(runtime, value);
+    }
+
+    public IRubyObject toRuby(double value) {
+        return RubyFloat.newFloat(runtime, value);
+    }
+
+    public IRubyObject toRuby(boolean value) {
+        return runtime.newBoolean(value);
+    }
+
+    public IRubyObject toRuby(Object value) {
+        return JavaUtil.convertJavaToRuby(runtime, value);
+    }
+
+    public void callVoid(int index, IRubyObject[] args) {
+        call(index, args);
+    }
+
+    public long callLong(int index, IRubyObject[] args) {
+        IRubyObject result = call(index, args);
+        if (result instanceof RubyFixnum) {
+            return ((RubyFixnum)result).getLongValue();
+        }
+        if (result.isNil()) {
+            return 0L;
+        }
+        try {
+            return RubyNumeric.num2long(result);
+        } catch (RaiseException e) {
+            throw toInvokeFailedException(e);
+        }
+    }
+
+    public int callInt(int index, IRubyObject[] args) {
+        return (int)callLong(index, args);
+    }
+
+    public double callDouble(int index, IRubyObject[] args) {
+        IRubyObject result = call(index, args);
+        if (result instanceof RubyFloat) {
+            return ((RubyFloat)result).getDoubleValue();
+        }
+        if (result.isNil()) {
+            return 0.0;
+        }
+        try {
+            return RubyNumeric.num2dbl(result);
+        } catch (RaiseException e) {
+            throw toInvokeFailedException(e);
+        }
+    }
+
+    public boolean callBoolean(int index, IRubyObject[] args) {
+        return call(index, args).isTrue();
+    }
+
+    public Object callObject(int index, IRubyObject[] args) {
+        IRubyObject result = call(index, args);
+        if (result.isNil()) {
+            return null;
+        }
+        try {
+            return JavaEmbedUtils.rubyToJava(runtime, result, returnTypes[index]);
+        } catch (RaiseException e) {
+            throw toInvokeFailedException(e);
+        }
+    }
+
+    private IRubyObject call(int index, IRubyObject[] args) {
+        PooledLocalContextProvider pool = EmbedRubyObjectAdapterImpl.checkout(container, runtime);
+        try {
+            // variables are synchronized as a proxy does through callMethod
+            BiVariableMap vars = container.getVarMap();
+            vars.inject(null, 0, receiver);
+            IRubyObject result = invoke(index, args);
+            vars.retrieve(receiver);
+            return result;
+        } catch (RaiseException e) {
+            throw toInvokeFailedException(e);
+        } finally {
+            EmbedRubyObjectAdapterImpl.checkin(container, pool);
+        }
+    }
+
+    private IRubyObject invoke(int index, IRubyObject[] args) {
+        ThreadContext context = runtime.getCurrentContext();
+        RubyClass klass = receiver.getMetaClass();
+        CacheEntry cache = entries[index];
+        if (!cache.typeOk(klass)) {
+            cache = klass.searchWithCache(names[index]);
+            entries[index] = cache;
+        }
+        if (cache.method.isUndefined()) {
+            // lets method_missing handle it
+            return RuntimeHelpers.invoke(context, receiver, names[index], args, Block.NULL_BLOCK);
+        }
+        return cache.method.call(context, receiver, klass, names[index], args, Block.NULL_BLOCK);
+    }
+
+    private InvokeFailedException toInvokeFailedException(RaiseException e) {
+        runtime.printError(e.getException());
+        return new InvokeFailedException(e.getMessage(), e);
+    }
+
+    @Override
+    public String toString() {
+        return receiver.toString();
+    }
+}
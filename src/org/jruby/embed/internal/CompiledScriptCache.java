@@ -0,0 +1,311 @@
+/**
+ * **** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 Yoko Harada <yokolet@gmail.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ * **** END LICENSE BLOCK *****
+ */
+package org.jruby.embed.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import org.jruby.Ruby;
+import org.jruby.ast.Node;
+import org.jruby.ast.executable.Script;
+import org.jruby.compiler.ASTCompiler;
+import org.jruby.compiler.ASTInspector;
+import org.jruby.compiler.NotCompilableException;
+import org.jruby.compiler.impl.StandardASMCompiler;
+import org.jruby.runtime.Constants;
+import org.jruby.util.JRubyClassLoader;
+
+/**
+ * An on-disk cache of compiled scripts. Each compiled script is saved as a class
+ * file in a cache directory, and an index file in the same directory maps a
+ * digest of the script to the JRuby version that compiled it. The digest covers
+ * the script content, a file name, a line number, local variable names used to
+ * parse the script and Ruby's compat version. When a process starts, the index
+ * is read through a memory-mapped buffer, and scripts whose digest and JRuby
+ * version match are loaded from class files without parsing or compiling.
+ *
+ * <p>Users do not instantiate this class. The cache is used by parse(PathType, ...)
+ * of {@link org.jruby.embed.ScriptingContainer} in JIT or FORCE compile mode
+ * when a directory is set to
+ * {@link org.jruby.embed.AttributeName#COMPILED_SCRIPT_CACHE_DIR}.
+ * <pre>
+ *         ScriptingContainer container = new ScriptingContainer();
+ *         container.getProvider().getRubyInstanceConfig().setCompileMode(CompileMode.FORCE);
+ *         container.setAttribute(AttributeName.COMPILED_SCRIPT_CACHE_DIR, "/var/cache/rules");
+ *         container.parse(PathType.ABSOLUTE, "/opt/rules/discount.rb").run();</pre>
+ *
+ * @author Yoko Harada <yokolet@gmail.com>
+ */
+public class CompiledScriptCache {
+    private static final String INDEX_FILE = "index";
+    private static final String CLASS_PREFIX = "ruby/embed/Script_";
+    private static final Map<String, CompiledScriptCache> caches = new HashMap<String, CompiledScriptCache>();
+    private final File directory;
+    private final File indexFile;
+    private final String version;
+    private final Map<String, String> index = new HashMap<String, String>();
+    private final ReentrantLock fileLock = new ReentrantLock();
+    private long hits = 0L;
+    private long misses = 0L;
+
+    private CompiledScriptCache(File directory) throws IOException {
+        this.directory = directory;
+        indexFile = new File(directory, INDEX_FILE);
+        version = Constants.VERSION + "-" + Constants.REVISION;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory.getPath());
+        }
+        readIndex();
+    }
+
+    /**
+     * Returns a cache that uses the given directory. Containers which set the
+     * same directory share one cache.
+     *
+     * @param directory a cache directory
+     * @return a cache instance
+     * @throws IOException if the directory or its index can't be read
+     */
+    static CompiledScriptCache getInstance(File directory) throws IOException {
+        String path = directory.getCanonicalPath();
+        synchronized (caches) {
+            CompiledScriptCache cache = caches.get(path);
+            if (cache == null) {
+                cache = new CompiledScriptCache(new File(path));
+                caches.put(path, cache);
+            }
+            return cache;
+        }
+    }
+
+    private void readIndex() throws IOException {
+        if (!indexFile.isFile() || indexFile.length() == 0L) {
+            return;
+        }
+        RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+            StringBuilder line = new StringBuilder();
+            while (buffer.hasRemaining()) {
+                char c = (char) (buffer.get() & 0xff);
+                if (c == '\n') {
+                    addEntry(line.toString());
+                    line.setLength(0);
+                } else {
+                    line.append(c);
+                }
+            }
+            // an incomplete last line is ignored
+        } finally {
+            file.close();
+        }
+    }
+
+    private void addEntry(String line) {
+        int separator = line.indexOf(' ');
+        if (separator <= 0) {
+            return;
+        }
+        // later entries win
+        index.put(line.substring(0, separator), line.substring(separator + 1));
+    }
+
+    /**
+     * Reads the whole script from the given stream and closes it.
+     */
+    static byte[] readFully(InputStream istream) throws IOException {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int size;
+            while ((size = istream.read(buffer)) != -1) {
+                bytes.write(buffer, 0, size);
+            }
+            return bytes.toByteArray();
+        } finally {
+            istream.close();
+        }
+    }
+
+    static String digest(byte[] source, String filename, int line, String[] localVarNames, Object compatVersion) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            md.update(source);
+            StringBuilder sb = new StringBuilder();
+            sb.append('\0').append(filename).append('\0').append(line).append('\0').append(compatVersion);
+            if (localVarNames != null) {
+                for (String name : localVarNames) {
+                    sb.append('\0').append(name);
+                }
+            }
+            md.update(sb.toString().getBytes("UTF-8"));
+            byte[] hash = md.digest();
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+                hex.append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e.getMessage());
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+
+    /**
+     * Loads a compiled script saved by the same JRuby version.
+     *
+     * @return a script, or null when the script is not cached or can't be loaded
+     */
+    Script load(Ruby runtime, String digest) {
+        synchronized (this) {
+            if (!version.equals(index.get(digest))) {
+                misses++;
+                return null;
+            }
+        }
+        try {
+            byte[] bytes = readFully(new FileInputStream(getClassFile(digest)));
+            Script script = newScript(runtime, digest, bytes);
+            synchronized (this) {
+                hits++;
+            }
+            return script;
+        } catch (Throwable t) {
+            // a removed or broken class file; compiles the script again
+            synchronized (this) {
+                index.remove(digest);
+                misses++;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Compiles a parsed script and saves its class file.
+     *
+     * @return a compiled script, or null when the script is not compilable
+     */
+    Script compile(Ruby runtime, Node node, String filename, String digest) {
+        byte[] bytes;
+        try {
+            ASTInspector inspector = new ASTInspector();
+            inspector.inspect(node);
+            StandardASMCompiler asmCompiler = new StandardASMCompiler(CLASS_PREFIX + digest, filename);
+            ASTCompiler compiler = runtime.getInstanceConfig().newCompiler();
+            compiler.compileRoot(node, asmCompiler, inspector, true, false);
+            bytes = asmCompiler.getClassByteArray();
+        } catch (NotCompilableException e) {
+            return null;
+        }
+        Script script;
+        try {
+            script = newScript(runtime, digest, bytes);
+        } catch (Throwable t) {
+            return null;
+        }
+        try {
+            save(digest, bytes);
+        } catch (IOException e) {
+            // the script runs anyway; it is compiled again next time
+        }
+        return script;
+    }
+
+    private Script newScript(Ruby runtime, String digest, byte[] bytes) throws Exception {
+        JRubyClassLoader classLoader = new JRubyClassLoader(runtime.getJRubyClassLoader());
+        Class<?> klass = classLoader.defineClass((CLASS_PREFIX + digest).replace('/', '.'), bytes);
+        return (Script) klass.newInstance();
+    }
+
+    private void save(String digest, byte[] bytes) throws IOException {
+        // file I/O is not done holding this object's monitor
+        fileLock.lock();
+        try {
+            writeFiles(digest, bytes);
+        } finally {
+            fileLock.unlock();
+        }
+        synchronized (this) {
+            index.put(digest, version);
+        }
+    }
+
+    private void writeFiles(String digest, byte[] bytes) throws IOException {
+        File classFile = getClassFile(digest);
+        File temp = File.createTempFile(digest, ".tmp", directory);
+        FileOutputStream ostream = new FileOutputStream(temp);
+        try {
+            ostream.write(bytes);
+        } finally {
+            ostream.close();
+        }
+        if (classFile.exists() && !classFile.delete() || !temp.renameTo(classFile)) {
+            temp.delete();
+            throw new IOException("Can't save " + classFile.getPath());
+        }
+        ostream = new FileOutputStream(indexFile, true);
+        try {
+            ostream.write((digest + " " + version + "\n").getBytes("US-ASCII"));
+        } finally {
+            ostream.close();
+        }
+    }
+
+    private File getClassFile(String digest) {
+        return new File(directory, digest + ".class");
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+}
@@ -0,0 +1,241 @@
+/**
+ * **** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 Yoko Harada <yokolet@gmail.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ * **** END LICENSE BLOCK *****
+ */
+package org.jruby.embed.internal;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.jruby.Script;
+import org.jruby.ast.Node;
+import org.jruby.embed.EmbedEvalUnit;
+import org.jruby.embed.ScriptingContainer;
+import org.jruby.parser.StaticScope;
+import org.jruby.runtime.scope.ManyVarsDynamicScope;
+
+/**
+ * A bounded cache of parsed scripts. Each {@link LocalContext} has one cache,
+ * so that a unit is always reused on the same Ruby runtime that parsed it.
+ * Entries are keyed by the script content, a file name, a line number, a set of
+ * local variable names used to parse the script and whether unicode escape
+ * was applied or not. When the cache is full, the least recently used entry is
+ * evicted.
+ *
+ * <p>Only a parsed node, its static scope and a compiled script are kept. Every
+ * hit creates a new unit with a fresh dynamic scope, so local variables never
+ * leak from one evaluation to another, and units on different threads never
+ * share a scope.
+ *
+ * <p>Users do not instantiate this class. The cache is enabled by setting
+ * a positive size to {@link org.jruby.embed.AttributeName#PARSE_CACHE_SIZE}.
+ * <pre>
+ *         ScriptingContainer container = new ScriptingContainer();
+ *         container.setAttribute(AttributeName.PARSE_CACHE_SIZE, 256);
+ *         container.runScriptlet("puts 1 + 2");
+ *         container.runScriptlet("puts 1 + 2"); // not parsed again
+ *         System.out.println(container.getParseCache().getHitCount());</pre>
+ *
+ * @author Yoko Harada <yokolet@gmail.com>
+ */
+public class EmbedEvalUnitCache {
+    private final LinkedHashMap<Key, Parsed> units;
+    private int capacity = 0;
+    private long hits = 0L;
+    private long misses = 0L;
+    private long evictions = 0L;
+
+    EmbedEvalUnitCache() {
+        units = new LinkedHashMap<Key, Parsed>(16, 0.75f, true);
+    }
+
+    static Key newKey(String script, String filename, int line, String[] localVarNames, boolean unicodeEscape) {
+        return new Key(script, filename, line, localVarNames, unicodeEscape);
+    }
+
+    synchronized EmbedEvalUnit get(ScriptingContainer container, Key key) {
+        Parsed parsed = units.get(key);
+        if (parsed == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return parsed.newUnit(container);
+    }
+
+    synchronized void put(Key key, EmbedEvalUnit unit) {
+        if (capacity <= 0 || !(unit instanceof EmbedEvalUnitImpl)) {
+            return;
+        }
+        EmbedEvalUnitImpl impl = (EmbedEvalUnitImpl)unit;
+        units.put(key, new Parsed(impl.getNode(), impl.getScope().getStaticScope(), impl.getScript()));
+        evict();
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Key, Parsed>> itr = units.entrySet().iterator();
+        while (units.size() > capacity && itr.hasNext()) {
+            itr.next();
+            itr.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Sets the maximum number of parsed scripts this cache keeps. If the cache
+     * has more entries than the given size, the least recently used entries are
+     * evicted.
+     *
+     * @param capacity the maximum number of entries
+     */
+    public synchronized void setCapacity(int capacity) {
+        if (this.capacity == capacity) {
+            return;
+        }
+        this.capacity = capacity < 0 ? 0 : capacity;
+        evict();
+    }
+
+    /**
+     * Returns the maximum number of parsed scripts this cache keeps.
+     *
+     * @return the maximum number of entries
+     */
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of parsed scripts currently cached.
+     *
+     * @return the number of entries
+     */
+    public synchronized int size() {
+        return units.size();
+    }
+
+    /**
+     * Removes all cached scripts. Counters are not reset.
+     */
+    public synchronized void clear() {
+        units.clear();
+    }
+
+    /**
+     * Returns how many times a parsed script was found in this cache.
+     *
+     * @return the number of cache hits
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Returns how many times a script was not found in this cache and had to be
+     * parsed.
+     *
+     * @return the number of cache misses
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Returns how many parsed scripts were evicted because the cache was full.
+     *
+     * @return the number of evictions
+     */
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    private static class Parsed {
+        private final Node node;
+        private final StaticScope staticScope;
+        private final Script script;
+
+        private Parsed(Node node, StaticScope staticScope, Script script) {
+            this.node = node;
+            this.staticScope = staticScope;
+            this.script = script;
+        }
+
+        private EmbedEvalUnit newUnit(ScriptingContainer container) {
+            ManyVarsDynamicScope scope = new ManyVarsDynamicScope(staticScope,
+                    container.getRuntime().getCurrentContext().getCurrentScope());
+            return new EmbedEvalUnitImpl(container, node, scope, script);
+        }
+    }
+
+    static class Key {
+        private final String script;
+        private final String filename;
+        private final int line;
+        private final String[] localVarNames;
+        private final boolean unicodeEscape;
+        private final int hash;
+
+        private Key(String script, String filename, int line, String[] localVarNames, boolean unicodeEscape) {
+            this.script = script;
+            this.filename = filename;
+            this.line = line;
+            this.localVarNames = localVarNames;
+            this.unicodeEscape = unicodeEscape;
+            int h = script.hashCode();
+            h = 31 * h + (filename == null ? 0 : filename.hashCode());
+            h = 31 * h + line;
+            h = 31 * h + Arrays.hashCode(localVarNames);
+            h = 31 * h + (unicodeEscape ? 1 : 0);
+            hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            if (hash != other.hash || line != other.line || unicodeEscape != other.unicodeEscape) {
+                return false;
+            }
+            if (filename == null ? other.filename != null : !filename.equals(other.filename)) {
+                return false;
+            }
+            return Arrays.equals(localVarNames, other.localVarNames) && script.equals(other.script);
+        }
+    }
+}
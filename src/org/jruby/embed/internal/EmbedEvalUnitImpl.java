@@ -29,15 +29,23 @@
  */
 package org.jruby.embed.internal;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Writer;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.jruby.Ruby;
 import org.jruby.RubyInstanceConfig.CompileMode;
 import org.jruby.ast.Node;
 import org.jruby.ast.executable.Script;
 import org.jruby.embed.EmbedEvalUnit;
 import org.jruby.embed.EvalFailedException;
 import org.jruby.embed.ScriptingContainer;
+import org.jruby.embed.VariableSyncPolicy;
+import org.jruby.embed.variable.BiVariable;
 import org.jruby.exceptions.RaiseException;
 import org.jruby.javasupport.JavaEmbedUtils;
 import org.jruby.runtime.builtin.IRubyObject;
@@ -55,9 +63,13 @@ import org.jruby.runtime.scope.ManyVarsDynamicScope;
  */
 public class EmbedEvalUnitImpl implements EmbedEvalUnit {
     private ScriptingContainer container;
+    private Ruby runtime;
     private Node node;
     private ManyVarsDynamicScope scope;
     private Script script;
+    private byte[] source = null;
+    private String filename = null;
+    private int line = 0;
 
     public EmbedEvalUnitImpl(ScriptingContainer container, Node node, ManyVarsDynamicScope scope) {
         this(container, node, scope, null);
@@ -65,17 +77,35 @@ public class EmbedEvalUnitImpl implements EmbedEvalUnit {
 
     public EmbedEvalUnitImpl(ScriptingContainer container, Node node, ManyVarsDynamicScope scope, Script script) {
         this.container = container;
+        this.runtime = container.getRuntime();
         this.node = node;
         this.scope = scope;
         this.script = script;
     }
 
+    /**
+     * Creates a unit of a script loaded from a compiled script cache. The source
+     * is parsed only when the script needs to be interpreted, for example, the
+     * compile mode has been changed to OFF.
+     */
+    EmbedEvalUnitImpl(ScriptingContainer container, ManyVarsDynamicScope scope, Script script,
+            byte[] source, String filename, int line) {
+        this(container, null, scope, script);
+        this.source = source;
+        this.filename = filename;
+        this.line = line;
+    }
+
     /**
      * Returns a root node of parsed Ruby script.
      *
      * @return a root node of parsed Ruby script
      */
-    public Node getNode() {
+    public synchronized Node getNode() {
+        if (node == null && source != null) {
+            node = runtime.parseFile(new ByteArrayInputStream(source), filename, scope, line);
+            source = null;
+        }
         return node;
     }
 
@@ -89,45 +119,69 @@ public class EmbedEvalUnitImpl implements EmbedEvalUnit {
         return scope;
     }
 
+    Ruby getRuntime() {
+        return runtime;
+    }
+
+    Script getScript() {
+        return script;
+    }
+
     /**
      * Evaluates a Ruby script, which has been parsed before.
      * 
      * @return results of executing this evaluation unit
      */
     public IRubyObject run() {
+        return run(null);
+    }
+
+    /**
+     * Evaluates a Ruby script, which has been parsed before. Variables are
+     * synchronized following the given policy.
+     *
+     * @param policy is a policy to choose types of variables, or null to use the
+     *        container's default
+     * @return results of executing this evaluation unit
+     */
+    public IRubyObject run(VariableSyncPolicy policy) {
         if (node == null && script == null) {
             return null;
         }
+        checkout();
+        try {
+            return doRun(policy);
+        } finally {
+            checkin();
+        }
+    }
+
+    private void checkout() {
+        if (container.getProvider() instanceof PooledLocalContextProvider) {
+            ((PooledLocalContextProvider)container.getProvider()).checkout(runtime);
+        } else if (container.getProvider() instanceof ThreadSafeLocalContextProvider) {
+            ((ThreadSafeLocalContextProvider)container.getProvider()).checkout();
+        }
+    }
+
+    private void checkin() {
+        if (container.getProvider() instanceof PooledLocalContextProvider) {
+            ((PooledLocalContextProvider)container.getProvider()).checkin();
+        } else if (container.getProvider() instanceof ThreadSafeLocalContextProvider) {
+            ((ThreadSafeLocalContextProvider)container.getProvider()).checkin();
+        }
+    }
+
+    private IRubyObject doRun(VariableSyncPolicy policy) {
         BiVariableMap vars = container.getVarMap();
         try {
-            vars.inject(scope, 0, null);
+            vars.inject(scope, 0, null, policy);
             container.getRuntime().getCurrentContext().pushScope(scope);
-            IRubyObject ret;
-            CompileMode mode = container.getRuntime().getInstanceConfig().getCompileMode();
-            if (mode == CompileMode.FORCE || mode == CompileMode.JIT) {
-                ret = container.getRuntime().runScript(script);
-            } else {
-                ret = container.getRuntime().runInterpreter(node);
-            }
-            vars.retrieve(ret);
+            IRubyObject ret = evaluate();
+            vars.retrieve(ret, policy);
             return ret;
-        } catch (RaiseException e) {
-            container.getRuntime().printError(e.getException());
-            throw new EvalFailedException(e.getMessage(), e);
-        } catch (StackOverflowError soe) {
-            throw container.getRuntime().newSystemStackError("stack level too deep", soe);
         } catch (Throwable e) {
-            Writer w = container.getErrorWriter();
-            if (w instanceof PrintWriter) {
-                e.printStackTrace((PrintWriter)w);
-            } else {
-                try {
-                    w.write(e.getMessage());
-                } catch (IOException ex) {
-                    throw new EvalFailedException(ex);
-                }
-            }
-            throw new EvalFailedException(e);
+            throw toEvalFailedException(e);
         } finally {
             container.getRuntime().getCurrentContext().popScope();
             JavaEmbedUtils.terminate(container.getRuntime());
@@ -138,4 +192,236 @@ public class EmbedEvalUnitImpl implements EmbedEvalUnit {
             */
         }
     }
+
+    private IRubyObject evaluate() {
+        CompileMode mode = container.getRuntime().getInstanceConfig().getCompileMode();
+        if ((mode == CompileMode.FORCE || mode == CompileMode.JIT) && script != null) {
+            return container.getRuntime().runScript(script);
+        } else {
+            return container.getRuntime().runInterpreter(getNode());
+        }
+    }
+
+    private RuntimeException toEvalFailedException(Throwable e) {
+        if (e instanceof RaiseException) {
+            container.getRuntime().printError(((RaiseException)e).getException());
+            return new EvalFailedException(e.getMessage(), e);
+        }
+        if (e instanceof StackOverflowError) {
+            return container.getRuntime().newSystemStackError("stack level too deep", (StackOverflowError)e);
+        }
+        Writer w = container.getErrorWriter();
+        if (w instanceof PrintWriter) {
+            e.printStackTrace((PrintWriter)w);
+        } else {
+            try {
+                w.write(e.getMessage());
+            } catch (IOException ex) {
+                return new EvalFailedException(ex);
+            }
+        }
+        return new EvalFailedException(e);
+    }
+
+    /**
+     * Evaluates a Ruby script once for each row of variables. Variables in the
+     * container are injected and retrieved only once for the batch, and the scope
+     * is pushed only once. Before each evaluation, local variables the script
+     * itself introduced get back the values they had before the batch, and a
+     * batch variable is injected unless the runtime already holds an equal value,
+     * so changes the script made to the variable don't leak into the next row.
+     *
+     * @param rows is a list of maps from variable names to values
+     * @return results of evaluations in the order of the rows
+     */
+    public IRubyObject[] runBatch(List<Map<String, Object>> rows) {
+        if (rows == null || rows.isEmpty()) {
+            return new IRubyObject[0];
+        }
+        Set<String> keys = new LinkedHashSet<String>();
+        for (Map<String, Object> row : rows) {
+            keys.addAll(row.keySet());
+        }
+        String[] names = keys.toArray(new String[keys.size()]);
+        Object[][] columns = new Object[names.length][rows.size()];
+        for (int r = 0; r < rows.size(); r++) {
+            Map<String, Object> row = rows.get(r);
+            for (int i = 0; i < names.length; i++) {
+                columns[i][r] = row.get(names[i]);
+            }
+        }
+        return runBatch(names, columns);
+    }
+
+    /**
+     * Evaluates a Ruby script once for each row of columnar variables. The i-th
+     * column has values of the i-th variable name, and all columns should have
+     * the same length, which is the number of evaluations. Local variables
+     * should have been put into the container before the script was parsed.
+     * Values of the columns are not added to the container; after the batch, the
+     * variables get back the values the container has, and the ones the
+     * container doesn't have are removed.
+     *
+     * @param names are variable names
+     * @param columns are values of variables; columns[i][row] is a value of names[i]
+     * @return results of evaluations in the order of the rows
+     */
+    public IRubyObject[] runBatch(String[] names, Object[][] columns) {
+        if (names == null || columns == null || names.length != columns.length) {
+            throw new IllegalArgumentException("each variable name needs a column of values");
+        }
+        int size = columns.length > 0 ? columns[0].length : 0;
+        for (int i = 1; i < columns.length; i++) {
+            if (columns[i].length != size) {
+                throw new IllegalArgumentException("columns have different lengths");
+            }
+        }
+        IRubyObject[] results = new IRubyObject[size];
+        if (size == 0 || (node == null && script == null)) {
+            return results;
+        }
+        checkout();
+        try {
+            doRunBatch(names, columns, results);
+            return results;
+        } finally {
+            checkin();
+        }
+    }
+
+    private void doRunBatch(String[] names, Object[][] columns, IRubyObject[] results) {
+        BiVariableMap vars = container.getVarMap();
+        Ruby current = container.getRuntime();
+        IRubyObject self = current.getTopSelf();
+        // batch variables are kept out of the container's map
+        BiVariable[] variables = new BiVariable[names.length];
+        BiVariable[] originals = new BiVariable[names.length];
+        int[] localIndices = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            variables[i] = vars.getVariableInterceptor().getVariableInstance(current, names[i], columns[i][0]);
+            originals[i] = vars.getVariable(names[i]);
+            localIndices[i] = getLocalIndex(vars, variables[i], names[i]);
+        }
+        IRubyObject ret = null;
+        try {
+            vars.inject(scope, 0, null, null);
+            IRubyObject[] initials = getInitialValues(current, localIndices);
+            current.getCurrentContext().pushScope(scope);
+            for (int r = 0; r < results.length; r++) {
+                if (r > 0) {
+                    // locals like "sum ||= 0; sum += x" shouldn't accumulate over rows
+                    for (int j = 0; j < initials.length; j++) {
+                        if (initials[j] != null) {
+                            scope.setValue(j, initials[j], 0);
+                        }
+                    }
+                }
+                for (int i = 0; i < names.length; i++) {
+                    Object value = columns[i][r];
+                    IRubyObject rubyValue = JavaEmbedUtils.javaToRuby(current, value);
+                    if (r > 0 && isHeld(getHeldValue(variables[i], localIndices[i], current, self), rubyValue)) {
+                        continue;
+                    }
+                    if (localIndices[i] >= 0) {
+                        scope.setValue(localIndices[i], rubyValue, 0);
+                    } else {
+                        if (r > 0) {
+                            variables[i].setJavaObject(current, value);
+                        }
+                        variables[i].inject(current, self);
+                    }
+                }
+                ret = evaluate();
+                results[r] = ret;
+            }
+            restore(vars, variables, originals, localIndices, current, self);
+            vars.retrieve(ret, null);
+            for (int i = 0; i < names.length; i++) {
+                if (localIndices[i] < 0 && originals[i] == null) {
+                    // the batch variable was picked up by the retrieval
+                    vars.forget(names[i]);
+                }
+            }
+        } catch (Throwable e) {
+            throw toEvalFailedException(e);
+        } finally {
+            current.getCurrentContext().popScope();
+            JavaEmbedUtils.terminate(current);
+            vars.terminate();
+        }
+    }
+
+    // values of the scope's local variables right after the injection; slots of
+    // batch variables are left null since those are set by rows
+    private IRubyObject[] getInitialValues(Ruby current, int[] localIndices) {
+        IRubyObject[] initials = new IRubyObject[scope.getStaticScope().getVariables().length];
+        for (int j = 0; j < initials.length; j++) {
+            IRubyObject value = scope.getValue(j, 0);
+            initials[j] = value != null ? value : current.getNil();
+        }
+        for (int i = 0; i < localIndices.length; i++) {
+            if (localIndices[i] >= 0) {
+                initials[localIndices[i]] = null;
+            }
+        }
+        return initials;
+    }
+
+    // a value the runtime currently holds for the variable, which the script might
+    // have changed, or null when it isn't looked up
+    private IRubyObject getHeldValue(BiVariable variable, int localIndex, Ruby current, IRubyObject self) {
+        if (localIndex >= 0) {
+            return scope.getValue(localIndex, 0);
+        }
+        switch (variable.getType()) {
+            case GlobalVariable:
+                return current.getGlobalVariables().get(variable.getName());
+            case InstanceVariable:
+                return self.getInstanceVariables().getInstanceVariable(variable.getName());
+            default:
+                return null;
+        }
+    }
+
+    private boolean isHeld(IRubyObject held, IRubyObject value) {
+        return held != null && (held == value || held.equals(value));
+    }
+
+    // puts back values the container has for the names, or removes batch variables
+    // the container doesn't have
+    private void restore(BiVariableMap vars, BiVariable[] variables, BiVariable[] originals, int[] localIndices,
+            Ruby current, IRubyObject self) {
+        IRubyObject[] localValues = vars.getLocalVarValues();
+        for (int i = 0; i < variables.length; i++) {
+            if (localIndices[i] >= 0) {
+                scope.setValue(localIndices[i], localValues[localIndices[i]], 0);
+                continue;
+            }
+            if (originals[i] != null) {
+                originals[i].inject(current, self);
+            } else {
+                variables[i].remove(current);
+            }
+        }
+    }
+
+    private int getLocalIndex(BiVariableMap vars, BiVariable variable, String name) {
+        if (variable == null) {
+            throw new IllegalArgumentException(name + " is not a variable name");
+        }
+        if (variable.getType() == BiVariable.Type.Constant) {
+            throw new IllegalArgumentException(name + " is a constant, which can't change by rows");
+        }
+        if (variable.getType() != BiVariable.Type.LocalVariable) {
+            return -1;
+        }
+        String[] localNames = vars.getLocalVarNames();
+        int length = scope.getStaticScope().getVariables().length;
+        for (int i = 0; localNames != null && i < localNames.length && i < length; i++) {
+            if (name.equals(localNames[i])) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException(name + " was not a local variable when the script was parsed");
+    }
 }
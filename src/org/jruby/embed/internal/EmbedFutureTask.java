@@ -0,0 +1,189 @@
+/**
+ * **** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 Yoko Harada <yokolet@gmail.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ * **** END LICENSE BLOCK *****
+ */
+package org.jruby.embed.internal;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import org.jruby.Ruby;
+import org.jruby.RubyThread;
+import org.jruby.embed.LocalContextProvider;
+import org.jruby.exceptions.RaiseException;
+import org.jruby.runtime.Block;
+import org.jruby.runtime.ThreadContext;
+import org.jruby.runtime.builtin.IRubyObject;
+
+/**
+ * A task that evaluates a script or calls a method on a worker thread. The task
+ * holds a local context of the worker thread while it runs, and remembers the
+ * Ruby thread so that {@link #cancel(boolean)} can stop the evaluation by raising
+ * an exception in Ruby instead of interrupting the Java thread.
+ *
+ * @author Yoko Harada <yokolet@gmail.com>
+ */
+public class EmbedFutureTask<T> extends FutureTask<T> {
+    private final Object lock = new Object();
+    private RubyThread rubyThread = null;
+    private volatile Future<?> timeout = null;
+
+    private EmbedFutureTask(Body<T> body) {
+        super(body);
+    }
+
+    /**
+     * Creates a task that runs a given callable on a local context of the provider.
+     *
+     * @param provider gives a local context to the worker thread
+     * @param runtime is a runtime the task needs, for example, the runtime of a
+     *        receiver of a method call, or null for any
+     * @param callable evaluates a script or calls a method
+     * @return a task to be executed by an executor
+     */
+    public static <T> EmbedFutureTask<T> newTask(LocalContextProvider provider, Ruby runtime, Callable<T> callable) {
+        Body<T> body = new Body<T>(provider, runtime, callable);
+        EmbedFutureTask<T> task = new EmbedFutureTask<T>(body);
+        body.task = task;
+        return task;
+    }
+
+    /**
+     * Sets a scheduled cancellation of this task, which is cancelled in turn when
+     * this task completes before the timeout.
+     *
+     * @param timeout a scheduled cancellation
+     */
+    public void setTimeout(Future<?> timeout) {
+        this.timeout = timeout;
+        if (isDone()) {
+            timeout.cancel(false);
+        }
+    }
+
+    /**
+     * Cancels this task. When mayInterruptIfRunning is true and the task is
+     * running, RuntimeError is raised in the Ruby thread that evaluates the
+     * script, so ensure clauses of the script run. The Java thread is never
+     * interrupted.
+     *
+     * @param mayInterruptIfRunning true to stop a running evaluation
+     * @return false if the task could not be cancelled
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (!super.cancel(false)) {
+            return false;
+        }
+        if (mayInterruptIfRunning) {
+            synchronized (lock) {
+                if (rubyThread != null) {
+                    raise(rubyThread);
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    protected void done() {
+        Future<?> t = timeout;
+        if (t != null) {
+            t.cancel(false);
+        }
+    }
+
+    private boolean attach(Ruby runtime) {
+        ThreadContext context = runtime.getCurrentContext();
+        synchronized (lock) {
+            if (isCancelled()) {
+                return false;
+            }
+            rubyThread = context.getThread();
+            return true;
+        }
+    }
+
+    private void detach(Ruby runtime) {
+        synchronized (lock) {
+            rubyThread = null;
+        }
+        try {
+            // a cancellation that arrived after the evaluation had finished
+            // should not surface in the next task on this thread
+            runtime.getCurrentContext().pollThreadEvents();
+        } catch (RaiseException e) {
+        }
+    }
+
+    private static void raise(RubyThread thread) {
+        Ruby runtime = thread.getRuntime();
+        IRubyObject[] args = {runtime.getRuntimeError(), runtime.newString("evaluation was cancelled")};
+        thread.raise(args, Block.NULL_BLOCK);
+    }
+
+    private static class Body<T> implements Callable<T> {
+        private final LocalContextProvider provider;
+        private final Ruby runtime;
+        private final Callable<T> callable;
+        private EmbedFutureTask<T> task = null;
+
+        private Body(LocalContextProvider provider, Ruby runtime, Callable<T> callable) {
+            this.provider = provider;
+            this.runtime = runtime;
+            this.callable = callable;
+        }
+
+        public T call() throws Exception {
+            PooledLocalContextProvider pool = null;
+            if (provider instanceof PooledLocalContextProvider) {
+                pool = (PooledLocalContextProvider)provider;
+                pool.checkout(runtime);
+            }
+            try {
+                Ruby current = provider.getRuntime();
+                if (runtime != null && runtime != current) {
+                    throw new IllegalStateException("runtime of the receiver is not available on this thread");
+                }
+                if (!task.attach(current)) {
+                    throw new CancellationException();
+                }
+                try {
+                    return callable.call();
+                } finally {
+                    task.detach(current);
+                }
+            } finally {
+                if (pool != null) {
+                    pool.checkin();
+                }
+            }
+        }
+    }
+}
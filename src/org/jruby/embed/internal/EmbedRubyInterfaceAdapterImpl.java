@@ -37,6 +37,7 @@ import org.jruby.RubyNil;
 import org.jruby.embed.EmbedRubyInterfaceAdapter;
 import org.jruby.embed.InvokeFailedException;
 import org.jruby.embed.ScriptingContainer;
+import org.jruby.java.proxies.JavaProxy;
 import org.jruby.javasupport.JavaEmbedUtils;
 import org.jruby.javasupport.JavaUtil;
 import org.jruby.runtime.builtin.IRubyObject;
@@ -56,6 +57,8 @@ public class EmbedRubyInterfaceAdapterImpl implements EmbedRubyInterfaceAdapter
 
     /**
      * Returns a instance of a requested interface type from a previously evaluated script.
+     * When the receiver is a Ruby object, the instance is a proxy cached on the
+     * receiver, so asking for the same interface again is cheap.
      * 
      * @param receiver a reveiver of the previously evaluated script.
      * @param clazz an interface type of the returning instance.
@@ -65,15 +68,18 @@ public class EmbedRubyInterfaceAdapterImpl implements EmbedRubyInterfaceAdapter
         if (clazz == null || !clazz.isInterface()) {
             return null;
         }
+        if (receiver instanceof IRubyObject && !(receiver instanceof RubyNil) && !(receiver instanceof JavaProxy)) {
+            return InterfaceProxyHandler.getProxy(container, (IRubyObject) receiver, clazz);
+        }
         Ruby runtime = container.getRuntime();
-        Object o;
         if (receiver == null || receiver instanceof RubyNil) {
-            o = JavaEmbedUtils.rubyToJava(runtime, runtime.getTopSelf(), clazz);
-        } else if (receiver instanceof IRubyObject) {
-            o = JavaEmbedUtils.rubyToJava(runtime, (IRubyObject) receiver, clazz);
-        } else {
-            IRubyObject rubyReceiver = JavaUtil.convertJavaToRuby(runtime, receiver);
-            o = JavaEmbedUtils.rubyToJava(runtime, rubyReceiver, clazz);
+            return InterfaceProxyHandler.getProxy(container, runtime.getTopSelf(), clazz);
+        }
+        IRubyObject rubyReceiver = receiver instanceof IRubyObject ?
+            (IRubyObject) receiver : JavaUtil.convertJavaToRuby(runtime, receiver);
+        Object o = JavaEmbedUtils.rubyToJava(runtime, rubyReceiver, clazz);
+        if (clazz.isInstance(o)) {
+            return clazz.cast(o);
         }
         String name = clazz.getName();
         try {
@@ -32,18 +32,22 @@ package org.jruby.embed.internal;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Writer;
-import java.lang.reflect.Method;
 import org.jruby.Ruby;
+import org.jruby.RubyFixnum;
+import org.jruby.RubyFloat;
 import org.jruby.RubyInteger;
 import org.jruby.RubyModule;
 import org.jruby.RubyNil;
+import org.jruby.RubyNumeric;
 import org.jruby.RubyObjectAdapter;
 import org.jruby.RubyString;
 import org.jruby.embed.variable.BiVariable;
 import org.jruby.embed.EmbedEvalUnit;
 import org.jruby.embed.EmbedRubyObjectAdapter;
 import org.jruby.embed.InvokeFailedException;
+import org.jruby.embed.RubyMethodRef;
 import org.jruby.embed.ScriptingContainer;
+import org.jruby.embed.VariableSyncPolicy;
 import org.jruby.embed.variable.InstanceVariable;
 import org.jruby.exceptions.RaiseException;
 import org.jruby.javasupport.Java;
@@ -87,24 +91,34 @@ public class EmbedRubyObjectAdapterImpl implements EmbedRubyObjectAdapter {
     }
 
     public synchronized IRubyObject setInstanceVariable(IRubyObject obj, String variableName, IRubyObject value) {
-        BiVariableMap map = container.getVarMap();
-        if (map.containsKey(variableName)) {
-            BiVariable bv = map.getVariable(variableName);
-            bv.setRubyObject(obj);
-        } else {
-            InstanceVariable iv = new InstanceVariable(variableName, value);
-            map.update(variableName, iv);
+        PooledLocalContextProvider pool = checkout(obj, null);
+        try {
+            BiVariableMap map = container.getVarMap();
+            if (map.containsKey(variableName)) {
+                BiVariable bv = map.getVariable(variableName);
+                bv.setRubyObject(obj);
+            } else {
+                InstanceVariable iv = new InstanceVariable(variableName, value);
+                map.update(variableName, iv);
+            }
+            return obj.getInstanceVariables().setInstanceVariable(variableName, value);
+        } finally {
+            checkin(pool);
         }
-        return obj.getInstanceVariables().setInstanceVariable(variableName, value);
     }
 
     public IRubyObject getInstanceVariable(IRubyObject obj, String variableName) {
-        BiVariableMap map = container.getVarMap();
-        if (map.containsKey(variableName)) {
-            BiVariable bv = map.getVariable(variableName);
-            return bv.getRubyObject();
+        PooledLocalContextProvider pool = checkout(obj, null);
+        try {
+            BiVariableMap map = container.getVarMap();
+            if (map.containsKey(variableName)) {
+                BiVariable bv = map.getVariable(variableName);
+                return bv.getRubyObject();
+            }
+            return null;
+        } finally {
+            checkin(pool);
         }
-        return null;
     }
 
     public IRubyObject callMethod(IRubyObject receiver, String methodName) {
@@ -131,264 +145,249 @@ public class EmbedRubyObjectAdapterImpl implements EmbedRubyObjectAdapter {
         return adapter.callSuper(receiver, args, block);
     }
 
-    @CallMethodType(methodType=0)
     public <T> T callMethod(Object receiver, String methodName, Class<T> returnType) {
-        Class[] params = {Object.class, String.class, Class.class};
-        Method method;
-        try {
-            method = getClass().getMethod("callMethod", params);
-            return call(returnType, method, receiver, methodName, null, null, new Object[]{});
-        } catch (InvokeFailedException e) {
-            throw e;
-        } catch (Throwable e) {
-            Writer w = container.getErrorWriter();
-            if (w instanceof PrintWriter) {
-                e.printStackTrace((PrintWriter)w);
-            } else {
-                try {
-                    w.write(e.getMessage());
-                } catch (IOException ex) {
-                    throw new InvokeFailedException(ex);
-                }
-            }
-            throw new InvokeFailedException(e);
-        }
+        return call(MethodType.CALLMETHOD_NOARG, null, returnType, receiver, methodName, null, null, null);
     }
 
-    @CallMethodType(methodType=1)
     public <T> T callMethod(Object receiver, String methodName, Object singleArg, Class<T> returnType) {
-        Class[] params = {Object.class, String.class, Object.class, Class.class};
-        Method method;
-        try {
-            method = getClass().getMethod("callMethod", params);
-            return call(returnType, method, receiver, methodName, null, null, singleArg);
-        } catch (InvokeFailedException e) {
-            throw e;
-        } catch (Throwable e) {
-            Writer w = container.getErrorWriter();
-            if (w instanceof PrintWriter) {
-                e.printStackTrace((PrintWriter)w);
-            } else {
-                try {
-                    w.write(e.getMessage());
-                } catch (IOException ex) {
-                    throw new InvokeFailedException(ex);
-                }
-            }
-            throw new InvokeFailedException(e);
-        }
+        return call(MethodType.CALLMETHOD, null, returnType, receiver, methodName, null, null, null, singleArg);
     }
 
-    @CallMethodType(methodType=2)
     public <T> T callMethod(Object receiver, String methodName, Object[] args, Class<T> returnType) {
-        Class[] params = {Object.class, String.class, Object[].class, Class.class};
-        Method method;
-        try {
-            method = getClass().getMethod("callMethod", params);
-            return call(returnType, method, receiver, methodName, null, null, args);
-        } catch (InvokeFailedException e) {
-            throw e;
-        } catch (Throwable e) {
-            Writer w = container.getErrorWriter();
-            if (w instanceof PrintWriter) {
-                e.printStackTrace((PrintWriter)w);
-            } else {
-                try {
-                    w.write(e.getMessage());
-                } catch (IOException ex) {
-                    throw new InvokeFailedException(ex);
-                }
-            }
-            throw new InvokeFailedException(e);
-        }
+        return call(MethodType.CALLMETHOD, null, returnType, receiver, methodName, null, null, null, args);
+    }
+
+    public <T> T callMethod(Object receiver, String methodName, Object[] args, VariableSyncPolicy policy, Class<T> returnType) {
+        return call(MethodType.CALLMETHOD, null, returnType, receiver, methodName, null, null, policy, args);
     }
 
-    @CallMethodType(methodType=3)
     public <T> T callMethod(Object receiver, String methodName, Object[] args, Block block, Class<T> returnType) {
-        Class[] params = {Object.class, String.class,Object[].class, Block.class, Class.class};
-        Method method;
-        try {
-            method = getClass().getMethod("callMethod", params);
-            return call(returnType, method, receiver, methodName, block, null, args);
-        } catch (InvokeFailedException e) {
-            throw e;
-        } catch (Throwable e) {
-            Writer w = container.getErrorWriter();
-            if (w instanceof PrintWriter) {
-                e.printStackTrace((PrintWriter)w);
-            } else {
-                try {
-                    w.write(e.getMessage());
-                } catch (IOException ex) {
-                    throw new InvokeFailedException(ex);
-                }
-            }
-            throw new InvokeFailedException(e);
-        }
+        return call(MethodType.CALLMETHOD_WITH_BLOCK, null, returnType, receiver, methodName, block, null, null, args);
     }
 
-    @CallMethodType(methodType=4)
     public <T> T callMethod(Object receiver, String methodName, Class<T> returnType, EmbedEvalUnit unit) {
-        Class[] params = {Object.class, String.class, Class.class, EmbedEvalUnit.class};
-        Method method;
-        try {
-            method = getClass().getMethod("callMethod", params);
-            return call(returnType, method, receiver, methodName, null, unit, new Object[]{});
-        } catch (InvokeFailedException e) {
-            throw e;
-        } catch (Throwable e) {
-            Writer w = container.getErrorWriter();
-            if (w instanceof PrintWriter) {
-                e.printStackTrace((PrintWriter)w);
-            } else {
-                try {
-                    w.write(e.getMessage());
-                } catch (IOException ex) {
-                    throw new InvokeFailedException(ex);
-                }
-            }
-            throw new InvokeFailedException(e);
-        }
+        return call(MethodType.CALLMETHOD_NOARG, null, returnType, receiver, methodName, null, unit, null);
     }
-    
-    @CallMethodType(methodType=5)
+
     public <T> T callMethod(Object receiver, String methodName, Object[] args, Class<T> returnType, EmbedEvalUnit unit) {
-        Class[] params = {Object.class, String.class,Object[].class, Class.class, EmbedEvalUnit.class};
-        Method method;
-        try {
-            method = getClass().getMethod("callMethod", params);
-            return call(returnType, method, receiver, methodName, null, unit, args);
-        } catch (InvokeFailedException e) {
-            throw e;
-        } catch (Throwable e) {
-            Writer w = container.getErrorWriter();
-            if (w instanceof PrintWriter) {
-                e.printStackTrace((PrintWriter)w);
-            } else {
-                try {
-                    w.write(e.getMessage());
-                } catch (IOException ex) {
-                    throw new InvokeFailedException(ex);
-                }
-            }
-            throw new InvokeFailedException(e);
-        }
+        return call(MethodType.CALLMETHOD, null, returnType, receiver, methodName, null, unit, null, args);
     }
 
-    @CallMethodType(methodType=6)
     public <T> T callMethod(Object receiver, String methodName, Object[] args, Block block, Class<T> returnType, EmbedEvalUnit unit) {
-        Class[] params = {Object.class, String.class,Object[].class, Block.class, Class.class, EmbedEvalUnit.class};
-        Method method;
+        return call(MethodType.CALLMETHOD_WITH_BLOCK, null, returnType, receiver, methodName, block, unit, null, args);
+    }
+
+    public <T> T callSuper(Object receiver, Object[] args, Class<T> returnType) {
+        return call(MethodType.CALLSUPER, null, returnType, receiver, null, null, null, null, args);
+    }
+
+    public <T> T callSuper(Object receiver, Object[] args, Block block, Class<T> returnType) {
+        return call(MethodType.CALLSUPER_WITH_BLOCK, null, returnType, receiver, null, block, null, null, args);
+    }
+
+    public long callMethodForLong(Object receiver, String methodName) {
+        return callForLong(receiver, methodName, 0, 0, 0);
+    }
+
+    public long callMethodForLong(Object receiver, String methodName, long arg) {
+        return callForLong(receiver, methodName, 1, arg, 0);
+    }
+
+    public long callMethodForLong(Object receiver, String methodName, long arg0, long arg1) {
+        return callForLong(receiver, methodName, 2, arg0, arg1);
+    }
+
+    public double callMethodForDouble(Object receiver, String methodName) {
+        return callForDouble(receiver, methodName, 0, 0, 0);
+    }
+
+    public double callMethodForDouble(Object receiver, String methodName, double arg) {
+        return callForDouble(receiver, methodName, 1, arg, 0);
+    }
+
+    public double callMethodForDouble(Object receiver, String methodName, double arg0, double arg1) {
+        return callForDouble(receiver, methodName, 2, arg0, arg1);
+    }
+
+    public RubyMethodRef lookupMethod(Object receiver, String methodName) {
+        checkMethodName(methodName);
+        return new RubyMethodRefImpl(this, receiver, methodName);
+    }
+
+    <T> T call(RubyMethodRefImpl ref, Object[] args, Block block, Class<T> returnType) {
+        return call(MethodType.CALLMETHOD_REF, ref, returnType, ref.getReceiver(), ref.getName(), block, null, null, args);
+    }
+
+    private <T> T call(MethodType type, RubyMethodRefImpl ref, Class<T> returnType, Object receiver, String methodName, Block block, EmbedEvalUnit unit, VariableSyncPolicy policy, Object... args) {
+        if (!type.isSuper() && (methodName == null || methodName.length()==0)) {
+            return null;
+        }
+        PooledLocalContextProvider pool = checkout(receiver, unit);
         try {
-            method = getClass().getMethod("callMethod", params);
-            return call(returnType, method, receiver, methodName, block, unit, args);
-        } catch (InvokeFailedException e) {
-            throw e;
-        } catch (Throwable e) {
-            Writer w = container.getErrorWriter();
-            if (w instanceof PrintWriter) {
-                e.printStackTrace((PrintWriter)w);
-            } else {
+            IRubyObject result = doCall(type, ref, receiver, methodName, block, unit, policy, args);
+            if (!(result instanceof RubyNil) && returnType != null) {
+                Ruby runtime = container.getRuntime();
                 try {
-                    w.write(e.getMessage());
-                } catch (IOException ex) {
-                    throw new InvokeFailedException(ex);
+                    Object ret = JavaEmbedUtils.rubyToJava(runtime, result, returnType);
+                    return ret != null ? returnType.cast(ret) : null;
+                } catch (Throwable e) {
+                    throw toInvokeFailedException(runtime, e);
                 }
             }
-            throw new InvokeFailedException(e);
+            return null;
+        } finally {
+            checkin(pool);
         }
     }
 
-    @CallMethodType(methodType=7)
-    public <T> T callSuper(Object receiver, Object[] args, Class<T> returnType) {
-        Class[] params = {Object.class, Object[].class, Class.class};
-        Method method;
+    private long callForLong(Object receiver, String methodName, int arity, long arg0, long arg1) {
+        checkMethodName(methodName);
+        PooledLocalContextProvider pool = checkout(receiver, null);
         try {
-            method = getClass().getMethod("callSuper", params);
-            return call(returnType, method, receiver, null, null, null, args);
-        } catch (InvokeFailedException e) {
-            throw e;
-        } catch (Throwable e) {
-            Writer w = container.getErrorWriter();
-            if (w instanceof PrintWriter) {
-                e.printStackTrace((PrintWriter)w);
-            } else {
-                try {
-                    w.write(e.getMessage());
-                } catch (IOException ex) {
-                    throw new InvokeFailedException(ex);
-                }
+            Ruby runtime = container.getRuntime();
+            IRubyObject[] rubyArgs;
+            switch (arity) {
+                case 0:
+                    rubyArgs = IRubyObject.NULL_ARRAY;
+                    break;
+                case 1:
+                    rubyArgs = new IRubyObject[]{RubyFixnum.newFixnum(runtime, arg0)};
+                    break;
+                default:
+                    rubyArgs = new IRubyObject[]{RubyFixnum.newFixnum(runtime, arg0), RubyFixnum.newFixnum(runtime, arg1)};
+                    break;
+            }
+            IRubyObject result = doCall(MethodType.CALLMETHOD_RUBY_ARGS, null, receiver, methodName, null, null, null, (Object[])rubyArgs);
+            if (result instanceof RubyFixnum) {
+                return ((RubyFixnum)result).getLongValue();
             }
-            throw new InvokeFailedException(e);
+            try {
+                return RubyNumeric.num2long(result);
+            } catch (Throwable e) {
+                throw toInvokeFailedException(runtime, e);
+            }
+        } finally {
+            checkin(pool);
         }
     }
 
-    @CallMethodType(methodType=8)
-    public <T> T callSuper(Object receiver, Object[] args, Block block, Class<T> returnType) {
-        Class[] params = {Object.class, Object[].class, Block.class, Class.class};
-        Method method;
+    private double callForDouble(Object receiver, String methodName, int arity, double arg0, double arg1) {
+        checkMethodName(methodName);
+        PooledLocalContextProvider pool = checkout(receiver, null);
         try {
-            method = getClass().getMethod("callSuper", params);
-            return call(returnType, method, receiver, null, block, null, args);
-        } catch (InvokeFailedException e) {
-            throw e;
-        } catch (Throwable e) {
-            Writer w = container.getErrorWriter();
-            if (w instanceof PrintWriter) {
-                e.printStackTrace((PrintWriter)w);
-            } else {
-                try {
-                    w.write(e.getMessage());
-                } catch (IOException ex) {
-                    throw new InvokeFailedException(ex);
-                }
+            Ruby runtime = container.getRuntime();
+            IRubyObject[] rubyArgs;
+            switch (arity) {
+                case 0:
+                    rubyArgs = IRubyObject.NULL_ARRAY;
+                    break;
+                case 1:
+                    rubyArgs = new IRubyObject[]{RubyFloat.newFloat(runtime, arg0)};
+                    break;
+                default:
+                    rubyArgs = new IRubyObject[]{RubyFloat.newFloat(runtime, arg0), RubyFloat.newFloat(runtime, arg1)};
+                    break;
+            }
+            IRubyObject result = doCall(MethodType.CALLMETHOD_RUBY_ARGS, null, receiver, methodName, null, null, null, (Object[])rubyArgs);
+            if (result instanceof RubyFloat) {
+                return ((RubyFloat)result).getDoubleValue();
+            }
+            try {
+                return RubyNumeric.num2dbl(result);
+            } catch (Throwable e) {
+                throw toInvokeFailedException(runtime, e);
             }
-            throw new InvokeFailedException(e);
+        } finally {
+            checkin(pool);
         }
     }
 
-    private <T> T call(Class<T> returnType, Method method, Object receiver, String methodName, Block block, EmbedEvalUnit unit, Object... args) {
+    private void checkMethodName(String methodName) {
         if (methodName == null || methodName.length()==0) {
-            return null;
+            throw new IllegalArgumentException("method name should not be empty");
+        }
+    }
+
+    private PooledLocalContextProvider checkout(Object receiver, EmbedEvalUnit unit) {
+        return checkout(container, getOwnerRuntime(receiver, unit));
+    }
+
+    private void checkin(PooledLocalContextProvider pool) {
+        checkin(container, pool);
+    }
+
+    // also used by bridges, which call Ruby methods without this adapter
+    static PooledLocalContextProvider checkout(ScriptingContainer container, Ruby runtime) {
+        if (container.getProvider() instanceof PooledLocalContextProvider) {
+            PooledLocalContextProvider pool = (PooledLocalContextProvider)container.getProvider();
+            pool.checkout(runtime);
+            return pool;
+        } else if (container.getProvider() instanceof ThreadSafeLocalContextProvider) {
+            ((ThreadSafeLocalContextProvider)container.getProvider()).checkout();
+        }
+        return null;
+    }
+
+    static void checkin(ScriptingContainer container, PooledLocalContextProvider pool) {
+        if (pool != null) {
+            pool.checkin();
+        } else if (container.getProvider() instanceof ThreadSafeLocalContextProvider) {
+            ((ThreadSafeLocalContextProvider)container.getProvider()).checkin();
+        }
+    }
+
+    private Ruby getOwnerRuntime(Object receiver, EmbedEvalUnit unit) {
+        if (receiver instanceof IRubyObject) {
+            return ((IRubyObject)receiver).getRuntime();
+        }
+        if (unit instanceof EmbedEvalUnitImpl) {
+            return ((EmbedEvalUnitImpl)unit).getRuntime();
         }
+        return null;
+    }
+
+    private IRubyObject doCall(MethodType type, RubyMethodRefImpl ref, Object receiver, String methodName, Block block, EmbedEvalUnit unit, VariableSyncPolicy policy, Object... args) {
         Ruby runtime = container.getRuntime();
         IRubyObject rubyReceiver = receiver != null ? JavaUtil.convertJavaToRuby(runtime, receiver) : runtime.getTopSelf();
         try {
             ManyVarsDynamicScope scope = unit != null ? unit.getScope() : null;
-            container.getVarMap().inject(scope, 0, rubyReceiver);
+            container.getVarMap().inject(scope, 0, rubyReceiver, policy);
             runtime.getCurrentContext().pushScope(scope);
-            IRubyObject result = callEachType(method, rubyReceiver, methodName, block, args);
-            container.getVarMap().retrieve(rubyReceiver);
-            if (!(result instanceof RubyNil) && returnType != null) {
-                Object ret = JavaEmbedUtils.rubyToJava(runtime, result, returnType);
-                return ret != null ? returnType.cast(ret) : null;
-            }
-            return null;
-        } catch (RaiseException e) {
-            runtime.printError(e.getException());
-            throw new InvokeFailedException(e.getMessage(), e);
+            IRubyObject result = callEachType(type, ref, rubyReceiver, methodName, block, args);
+            container.getVarMap().retrieve(rubyReceiver, policy);
+            return result;
         } catch (Throwable e) {
-            Writer w = container.getErrorWriter();
-            if (w instanceof PrintWriter) {
-                e.printStackTrace((PrintWriter)w);
-            } else {
-                try {
-                    w.write(e.getMessage());
-                } catch (IOException ex) {
-                    throw new InvokeFailedException(ex);
-                }
-            }
-            throw new InvokeFailedException(e);
+            throw toInvokeFailedException(runtime, e);
         } finally {
             runtime.getCurrentContext().popScope();
             JavaEmbedUtils.terminate(runtime);
         }
     }
 
-    private IRubyObject callEachType(Method method, IRubyObject rubyReceiver, String methodName, Block block, Object... args) {
+    private InvokeFailedException toInvokeFailedException(Ruby runtime, Throwable e) {
+        if (e instanceof RaiseException) {
+            runtime.printError(((RaiseException)e).getException());
+            return new InvokeFailedException(e.getMessage(), e);
+        }
+        Writer w = container.getErrorWriter();
+        if (w instanceof PrintWriter) {
+            e.printStackTrace((PrintWriter)w);
+        } else {
+            try {
+                w.write(e.getMessage());
+            } catch (IOException ex) {
+                return new InvokeFailedException(ex);
+            }
+        }
+        return new InvokeFailedException(e);
+    }
+
+    private IRubyObject callEachType(MethodType type, RubyMethodRefImpl ref, IRubyObject rubyReceiver, String methodName, Block block, Object... args) {
         Ruby runtime = container.getRuntime();
         IRubyObject[] rubyArgs = null;
-        if (args != null && args.length > 0) {
+        if (type == MethodType.CALLMETHOD_RUBY_ARGS) {
+            rubyArgs = (IRubyObject[])args;
+        } else if (args != null && args.length > 0) {
             rubyArgs = JavaUtil.convertJavaArrayToRuby(runtime, args);
             for (int i = 0; i < rubyArgs.length; i++) {
                 IRubyObject obj = rubyArgs[i];
@@ -398,27 +397,44 @@ public class EmbedRubyObjectAdapterImpl implements EmbedRubyObjectAdapter {
             }
         }
         ThreadContext context = runtime.getCurrentContext();
-        CallMethodType type = method.getAnnotation(CallMethodType.class);
-        if (type != null) {
-            switch (type.methodType()) {
-                case 0:
-                case 4:
+        switch (type) {
+            case CALLMETHOD_NOARG:
+                return RuntimeHelpers.invoke(context, rubyReceiver, methodName);
+            case CALLMETHOD:
+            case CALLMETHOD_RUBY_ARGS:
+                if (rubyArgs == null || rubyArgs.length == 0) {
                     return RuntimeHelpers.invoke(context, rubyReceiver, methodName);
-                case 1:
-                case 2:
-                case 5:
-                    return RuntimeHelpers.invoke(context, rubyReceiver, methodName, rubyArgs);
-                case 3:
-                case 6:
-                    return RuntimeHelpers.invoke(context, rubyReceiver, methodName, rubyArgs, block);
-                case 7:
-                    return RuntimeHelpers.invokeSuper(context, rubyReceiver, rubyArgs, Block.NULL_BLOCK);
-                case 9:
-                    return RuntimeHelpers.invokeSuper(context, rubyReceiver, rubyArgs, block);
-                default:
-                    break;
-            }
+                } else if (rubyArgs.length == 1) {
+                    return RuntimeHelpers.invoke(context, rubyReceiver, methodName, rubyArgs[0]);
+                } else if (rubyArgs.length == 2) {
+                    return RuntimeHelpers.invoke(context, rubyReceiver, methodName, rubyArgs[0], rubyArgs[1]);
+                }
+                return RuntimeHelpers.invoke(context, rubyReceiver, methodName, rubyArgs);
+            case CALLMETHOD_WITH_BLOCK:
+                return RuntimeHelpers.invoke(context, rubyReceiver, methodName, rubyArgs, block);
+            case CALLMETHOD_REF:
+                return ref.invoke(context, rubyReceiver, rubyArgs != null ? rubyArgs : IRubyObject.NULL_ARRAY, block != null ? block : Block.NULL_BLOCK);
+            case CALLSUPER:
+                return RuntimeHelpers.invokeSuper(context, rubyReceiver, rubyArgs, Block.NULL_BLOCK);
+            case CALLSUPER_WITH_BLOCK:
+                return RuntimeHelpers.invokeSuper(context, rubyReceiver, rubyArgs, block);
+            default:
+                break;
         }
         return null;
     }
+
+    private enum MethodType {
+        CALLMETHOD_NOARG,
+        CALLMETHOD,
+        CALLMETHOD_RUBY_ARGS,
+        CALLMETHOD_WITH_BLOCK,
+        CALLMETHOD_REF,
+        CALLSUPER,
+        CALLSUPER_WITH_BLOCK;
+
+        private boolean isSuper() {
+            return this == CALLSUPER || this == CALLSUPER_WITH_BLOCK;
+        }
+    }
 }
@@ -29,9 +29,9 @@
  */
 package org.jruby.embed.internal;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
@@ -81,6 +81,22 @@ public class EmbedRubyRuntimeAdapterImpl implements EmbedRubyRuntimeAdapter {
         if (obj != null && obj instanceof Boolean) {
             unicode_escape = (Boolean)obj;
         }
+        EmbedEvalUnitCache cache = getParseCache();
+        if (cache == null) {
+            return parseScript(script, unicode_escape, lines);
+        }
+        String[] names = container.getVarMap().getLocalVarNames();
+        EmbedEvalUnitCache.Key key =
+            EmbedEvalUnitCache.newKey(script, null, getLineNumber(lines), names, unicode_escape);
+        EmbedEvalUnit unit = cache.get(container, key);
+        if (unit == null) {
+            unit = parseScript(script, unicode_escape, lines);
+            cache.put(key, unit);
+        }
+        return unit;
+    }
+
+    private EmbedEvalUnit parseScript(String script, boolean unicode_escape, int... lines) {
         if (unicode_escape) {
             InputStream istream = new ReaderInputStream(new StringReader(script));
             return runParser(istream, null, lines);
@@ -89,6 +105,27 @@ public class EmbedRubyRuntimeAdapterImpl implements EmbedRubyRuntimeAdapter {
         }
     }
 
+    private EmbedEvalUnitCache getParseCache() {
+        int size = 0;
+        Object obj = container.getAttribute(AttributeName.PARSE_CACHE_SIZE);
+        if (obj != null && obj instanceof Integer) {
+            size = (Integer)obj;
+        }
+        EmbedEvalUnitCache cache = container.getProvider().getLocalContext().getParseCache();
+        cache.setCapacity(size);
+        if (size <= 0) {
+            return null;
+        }
+        return cache;
+    }
+
+    private int getLineNumber(int... lines) {
+        if (lines != null && lines.length > 0) {
+            return lines[0];
+        }
+        return 0;
+    }
+
     public EmbedEvalUnit parse(Reader reader, String filename, int... lines) {
         if (reader != null) {
             InputStream istream = new ReaderInputStream(reader);
@@ -123,8 +160,12 @@ public class EmbedRubyRuntimeAdapterImpl implements EmbedRubyRuntimeAdapter {
                     istream = container.getRuntime().getJRubyClassLoader().getResourceAsStream(filename);
                     break;
             }
+            CompiledScriptCache cache = getCompiledScriptCache();
+            if (cache != null && istream != null) {
+                return parseCompiled(cache, istream, filename, lines);
+            }
             return parse(istream, filename, lines);
-        } catch (FileNotFoundException e) {
+        } catch (IOException e) {
             Writer w = container.getErrorWriter();
             if (w instanceof PrintWriter) {
                 e.printStackTrace((PrintWriter)w);
@@ -139,6 +180,38 @@ public class EmbedRubyRuntimeAdapterImpl implements EmbedRubyRuntimeAdapter {
         }
     }
 
+    private CompiledScriptCache getCompiledScriptCache() throws IOException {
+        CompileMode compileMode = container.getRuntime().getInstanceConfig().getCompileMode();
+        if (compileMode != CompileMode.JIT && compileMode != CompileMode.FORCE) {
+            return null;
+        }
+        Object obj = container.getAttribute(AttributeName.COMPILED_SCRIPT_CACHE_DIR);
+        if (obj != null && obj instanceof File) {
+            return CompiledScriptCache.getInstance((File)obj);
+        } else if (obj != null && obj instanceof String) {
+            return CompiledScriptCache.getInstance(new File((String)obj));
+        }
+        return null;
+    }
+
+    private EmbedEvalUnit parseCompiled(CompiledScriptCache cache, InputStream istream, String filename, int... lines) throws IOException {
+        byte[] source = CompiledScriptCache.readFully(istream);
+        Ruby runtime = container.getRuntime();
+        String[] names = container.getVarMap().getLocalVarNames();
+        String digest =
+            CompiledScriptCache.digest(source, filename, getLineNumber(lines), names, runtime.getInstanceConfig().getCompatVersion());
+        Script script = cache.load(runtime, digest);
+        if (script != null) {
+            ManyVarsDynamicScope scope = getManyVarsDynamicScope(runtime, 0);
+            if (filename == null || filename.length() == 0) {
+                filename = "<script>";
+            }
+            // the source is kept in case the script is interpreted
+            return new EmbedEvalUnitImpl(container, scope, script, source, filename, getLineNumber(lines));
+        }
+        return runParser(new ByteArrayInputStream(source), filename, cache, digest, lines);
+    }
+
     public EmbedEvalUnit parse(InputStream istream, String filename, int... lines) {
         if (istream != null) {
             return runParser(istream, filename, lines);
@@ -148,16 +221,17 @@ public class EmbedRubyRuntimeAdapterImpl implements EmbedRubyRuntimeAdapter {
     }
 
     private EmbedEvalUnit runParser(Object input, String filename, int... lines) {
+        return runParser(input, filename, null, null, lines);
+    }
+
+    private EmbedEvalUnit runParser(Object input, String filename, CompiledScriptCache cache, String digest, int... lines) {
         if (input == null) {
             return null;
         }
         if (filename == null || filename.length() == 0) {
             filename = "<script>";
         }
-        int line = 0;
-        if (lines != null && lines.length > 0) {
-            line = lines[0];
-        }
+        int line = getLineNumber(lines);
         try {
             Ruby runtime = container.getRuntime();
             ManyVarsDynamicScope scope = getManyVarsDynamicScope(runtime, 0);
@@ -169,7 +243,13 @@ public class EmbedRubyRuntimeAdapterImpl implements EmbedRubyRuntimeAdapter {
             }
             CompileMode compileMode = runtime.getInstanceConfig().getCompileMode();
             if (compileMode == CompileMode.JIT || compileMode == CompileMode.FORCE) {
-                Script script = runtime.tryCompile(node);
+                Script script = null;
+                if (cache != null) {
+                    script = cache.compile(runtime, node, filename, digest);
+                }
+                if (script == null) {
+                    script = runtime.tryCompile(node);
+                }
                 return new EmbedEvalUnitImpl(container, node, scope, script);
             }
             return new EmbedEvalUnitImpl(container, node, scope);
@@ -0,0 +1,307 @@
+/**
+ * **** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 Yoko Harada <yokolet@gmail.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ * **** END LICENSE BLOCK *****
+ */
+package org.jruby.embed.internal;
+
+import java.lang.ref.SoftReference;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import org.jruby.embed.InvokeFailedException;
+import org.jruby.embed.ScriptingContainer;
+import org.jruby.runtime.builtin.IRubyObject;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * Generates a class that implements a Java interface by calling Ruby methods.
+ * Each interface method becomes a real method that converts int, long, double
+ * and boolean arguments and return values without boxing and calls the Ruby
+ * method through {@link BridgeSupport} by an index, so no lookup by name or
+ * reflection happens on a call. Generated classes are cached per class loader
+ * of the interface.
+ *
+ * @author Yoko Harada <yokolet@gmail.com>
+ */
+public class InterfaceBridgeGenerator implements Opcodes {
+    private static final String PACKAGE = "org/jruby/embed/gen/";
+    private static final String SUPPORT = Type.getInternalName(BridgeSupport.class);
+    private static final String SUPPORT_DESC = Type.getDescriptor(BridgeSupport.class);
+    private static final String IRUBYOBJECT = Type.getInternalName(IRubyObject.class);
+    private static final String IRUBYOBJECT_DESC = Type.getDescriptor(IRubyObject.class);
+    private static final String CALL_ARGS = "(I[" + IRUBYOBJECT_DESC + ")";
+    private static final Map<ClassLoader, Map<Class<?>, SoftReference<Class<?>>>> classes =
+            new WeakHashMap<ClassLoader, Map<Class<?>, SoftReference<Class<?>>>>();
+    private static int counter = 0;
+
+    private InterfaceBridgeGenerator() {
+    }
+
+    /**
+     * Returns true if a bridge class can be generated for the interface. Only
+     * public interfaces can be implemented from the package of bridge classes.
+     *
+     * @param clazz an interface type
+     * @return true if a bridge class can be generated
+     */
+    public static boolean isBridgeable(Class<?> clazz) {
+        return clazz.isInterface() && Modifier.isPublic(clazz.getModifiers());
+    }
+
+    /**
+     * Creates an instance of a bridge class that implements the interface with
+     * methods of the receiver.
+     *
+     * @param container is a container the receiver belongs to
+     * @param receiver is a Ruby object that implements the interface
+     * @param clazz is an interface type
+     * @return an instance of the interface
+     */
+    public static <T> T newBridge(ScriptingContainer container, IRubyObject receiver, Class<T> clazz) {
+        Method[] methods = getMethods(clazz);
+        Class<?> bridgeClass = getBridgeClass(clazz, methods);
+        BridgeSupport support = new BridgeSupport(container, receiver, methods);
+        try {
+            return clazz.cast(bridgeClass.getConstructor(BridgeSupport.class).newInstance(support));
+        } catch (Exception e) {
+            throw new InvokeFailedException(e);
+        }
+    }
+
+    // abstract methods in a fixed order, which decides indexes of methods
+    private static Method[] getMethods(Class<?> clazz) {
+        List<Method> list = new ArrayList<Method>();
+        Set<String> signatures = new HashSet<String>();
+        for (Method method : clazz.getMethods()) {
+            if (Modifier.isStatic(method.getModifiers()) || isObjectMethod(method)) {
+                continue;
+            }
+            if (signatures.add(method.getName() + Type.getMethodDescriptor(method))) {
+                list.add(method);
+            }
+        }
+        Method[] methods = list.toArray(new Method[list.size()]);
+        Arrays.sort(methods, new Comparator<Method>() {
+            public int compare(Method m1, Method m2) {
+                int c = m1.getName().compareTo(m2.getName());
+                return c != 0 ? c : Type.getMethodDescriptor(m1).compareTo(Type.getMethodDescriptor(m2));
+            }
+        });
+        return methods;
+    }
+
+    private static boolean isObjectMethod(Method method) {
+        try {
+            Object.class.getMethod(method.getName(), method.getParameterTypes());
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static Class<?> getBridgeClass(Class<?> clazz, Method[] methods) {
+        synchronized (classes) {
+            ClassLoader loader = clazz.getClassLoader();
+            Map<Class<?>, SoftReference<Class<?>>> bridges = classes.get(loader);
+            if (bridges == null) {
+                bridges = new WeakHashMap<Class<?>, SoftReference<Class<?>>>();
+                classes.put(loader, bridges);
+            }
+            SoftReference<Class<?>> ref = bridges.get(clazz);
+            Class<?> bridgeClass = ref != null ? ref.get() : null;
+            if (bridgeClass == null) {
+                String name = PACKAGE + clazz.getName().replace('.', '_') + "$Bridge" + (++counter);
+                byte[] bytes = generate(name, clazz, methods);
+                bridgeClass = new BridgeClassLoader(loader).define(name.replace('/', '.'), bytes);
+                bridges.put(clazz, new SoftReference<Class<?>>(bridgeClass));
+            }
+            return bridgeClass;
+        }
+    }
+
+    private static byte[] generate(String name, Class<?> clazz, Method[] methods) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_5, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, name, null, "java/lang/Object",
+                new String[]{Type.getInternalName(clazz)});
+        cw.visitField(ACC_PRIVATE | ACC_FINAL, "support", SUPPORT_DESC, null, null).visitEnd();
+
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "(" + SUPPORT_DESC + ")V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitFieldInsn(PUTFIELD, name, "support", SUPPORT_DESC);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(ACC_PUBLIC, "toString", "()Ljava/lang/String;", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitFieldInsn(GETFIELD, name, "support", SUPPORT_DESC);
+        mv.visitMethodInsn(INVOKEVIRTUAL, SUPPORT, "toString", "()Ljava/lang/String;");
+        mv.visitInsn(ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        for (int i = 0; i < methods.length; i++) {
+            generateMethod(cw, name, i, methods[i]);
+        }
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static void generateMethod(ClassWriter cw, String name, int index, Method method) {
+        Class<?>[] params = method.getParameterTypes();
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, method.getName(), Type.getMethodDescriptor(method), null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitFieldInsn(GETFIELD, name, "support", SUPPORT_DESC);
+        pushInt(mv, index);
+        pushInt(mv, params.length);
+        mv.visitTypeInsn(ANEWARRAY, IRUBYOBJECT);
+        int slot = 1;
+        for (int i = 0; i < params.length; i++) {
+            mv.visitInsn(DUP);
+            pushInt(mv, i);
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitFieldInsn(GETFIELD, name, "support", SUPPORT_DESC);
+            slot = loadArgument(mv, params[i], slot);
+            mv.visitInsn(AASTORE);
+        }
+        Class<?> type = method.getReturnType();
+        if (type == void.class) {
+            mv.visitMethodInsn(INVOKEVIRTUAL, SUPPORT, "callVoid", CALL_ARGS + "V");
+            mv.visitInsn(RETURN);
+        } else if (type == long.class) {
+            mv.visitMethodInsn(INVOKEVIRTUAL, SUPPORT, "callLong", CALL_ARGS + "J");
+            mv.visitInsn(LRETURN);
+        } else if (type == double.class || type == float.class) {
+            mv.visitMethodInsn(INVOKEVIRTUAL, SUPPORT, "callDouble", CALL_ARGS + "D");
+            if (type == float.class) {
+                mv.visitInsn(D2F);
+                mv.visitInsn(FRETURN);
+            } else {
+                mv.visitInsn(DRETURN);
+            }
+        } else if (type == boolean.class) {
+            mv.visitMethodInsn(INVOKEVIRTUAL, SUPPORT, "callBoolean", CALL_ARGS + "Z");
+            mv.visitInsn(IRETURN);
+        } else if (type.isPrimitive()) {
+            mv.visitMethodInsn(INVOKEVIRTUAL, SUPPORT, "callInt", CALL_ARGS + "I");
+            if (type == short.class) {
+                mv.visitInsn(I2S);
+            } else if (type == byte.class) {
+                mv.visitInsn(I2B);
+            } else if (type == char.class) {
+                mv.visitInsn(I2C);
+            }
+            mv.visitInsn(IRETURN);
+        } else {
+            mv.visitMethodInsn(INVOKEVIRTUAL, SUPPORT, "callObject", CALL_ARGS + "Ljava/lang/Object;");
+            mv.visitTypeInsn(CHECKCAST, Type.getInternalName(type));
+            mv.visitInsn(ARETURN);
+        }
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    private static int loadArgument(MethodVisitor mv, Class<?> type, int slot) {
+        String toRuby = "toRuby";
+        if (type == long.class) {
+            mv.visitVarInsn(LLOAD, slot);
+            mv.visitMethodInsn(INVOKEVIRTUAL, SUPPORT, toRuby, "(J)" + IRUBYOBJECT_DESC);
+            return slot + 2;
+        } else if (type == double.class) {
+            mv.visitVarInsn(DLOAD, slot);
+            mv.visitMethodInsn(INVOKEVIRTUAL, SUPPORT, toRuby, "(D)" + IRUBYOBJECT_DESC);
+            return slot + 2;
+        } else if (type == float.class) {
+            mv.visitVarInsn(FLOAD, slot);
+            mv.visitInsn(F2D);
+            mv.visitMethodInsn(INVOKEVIRTUAL, SUPPORT, toRuby, "(D)" + IRUBYOBJECT_DESC);
+        } else if (type == boolean.class) {
+            mv.visitVarInsn(ILOAD, slot);
+            mv.visitMethodInsn(INVOKEVIRTUAL, SUPPORT, toRuby, "(Z)" + IRUBYOBJECT_DESC);
+        } else if (type.isPrimitive()) {
+            // int, short, byte and char
+            mv.visitVarInsn(ILOAD, slot);
+            mv.visitMethodInsn(INVOKEVIRTUAL, SUPPORT, toRuby, "(I)" + IRUBYOBJECT_DESC);
+        } else {
+            mv.visitVarInsn(ALOAD, slot);
+            mv.visitMethodInsn(INVOKEVIRTUAL, SUPPORT, toRuby, "(Ljava/lang/Object;)" + IRUBYOBJECT_DESC);
+        }
+        return slot + 1;
+    }
+
+    private static void pushInt(MethodVisitor mv, int value) {
+        if (value >= -1 && value <= 5) {
+            mv.visitInsn(ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            mv.visitIntInsn(BIPUSH, value);
+        } else {
+            mv.visitIntInsn(SIPUSH, value);
+        }
+    }
+
+    /**
+     * Defines bridge classes. Classes of JRuby are loaded from the loader of this
+     * class, and the interface is loaded from the loader of the interface.
+     */
+    private static class BridgeClassLoader extends ClassLoader {
+        private final ClassLoader interfaceLoader;
+
+        private BridgeClassLoader(ClassLoader interfaceLoader) {
+            super(BridgeSupport.class.getClassLoader());
+            this.interfaceLoader = interfaceLoader;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            if (interfaceLoader == null) {
+                throw new ClassNotFoundException(name);
+            }
+            return interfaceLoader.loadClass(name);
+        }
+
+        private Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
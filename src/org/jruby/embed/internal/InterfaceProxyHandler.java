@@ -0,0 +1,225 @@
+/**
+ * **** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 Yoko Harada <yokolet@gmail.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ * **** END LICENSE BLOCK *****
+ */
+package org.jruby.embed.internal;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jruby.embed.AttributeName;
+import org.jruby.embed.RubyMethodRef;
+import org.jruby.embed.ScriptingContainer;
+import org.jruby.runtime.builtin.IRubyObject;
+
+/**
+ * An invocation handler of an interface proxy whose methods are implemented in
+ * Ruby. Each interface method is bound to a {@link RubyMethodRef}, so a call
+ * goes to the resolved Ruby method without a lookup by name. When the receiver's
+ * class is reopened, the method is resolved again on the next call.
+ *
+ * <p>Proxies are cached in an internal variable of the receiver by interface,
+ * so that the same proxy is returned as long as the receiver is alive. When
+ * {@link AttributeName#INTERFACE_BRIDGE} is true, a generated bridge class is
+ * used for public interfaces instead of a dynamic proxy.
+ *
+ * @author Yoko Harada <yokolet@gmail.com>
+ */
+public class InterfaceProxyHandler implements InvocationHandler {
+    private static final String PROXIES = "__jruby_embed_proxies__";
+    private static final AtomicLong creationCount = new AtomicLong(0L);
+    private final ScriptingContainer container;
+    private final IRubyObject receiver;
+    private final Map<Method, RubyMethodRef> methods = new ConcurrentHashMap<Method, RubyMethodRef>();
+
+    private InterfaceProxyHandler(ScriptingContainer container, IRubyObject receiver) {
+        this.container = container;
+        this.receiver = receiver;
+    }
+
+    /**
+     * Returns a proxy of a given interface whose methods are implemented by the
+     * receiver. A proxy created before for the same receiver, interface and
+     * container is reused as long as {@link AttributeName#INTERFACE_BRIDGE} has
+     * not changed.
+     *
+     * @param container is a container to call methods through
+     * @param receiver is a Ruby object that implements the interface
+     * @param clazz is an interface type
+     * @return an instance of the interface
+     */
+    public static <T> T getProxy(ScriptingContainer container, IRubyObject receiver, Class<T> clazz) {
+        Map<Class<?>, Entry> proxies = getProxies(receiver);
+        boolean bridge = Boolean.TRUE.equals(container.getAttribute(AttributeName.INTERFACE_BRIDGE));
+        Entry entry = proxies.get(clazz);
+        if (entry != null && entry.container == container && entry.bridge == bridge) {
+            return clazz.cast(entry.instance);
+        }
+        Object proxy;
+        if (bridge && InterfaceBridgeGenerator.isBridgeable(clazz)) {
+            proxy = InterfaceBridgeGenerator.newBridge(container, receiver, clazz);
+        } else {
+            proxy = Proxy.newProxyInstance(clazz.getClassLoader(), new Class[]{clazz},
+                    new InterfaceProxyHandler(container, receiver));
+        }
+        proxies.put(clazz, new Entry(container, bridge, proxy));
+        creationCount.incrementAndGet();
+        return clazz.cast(proxy);
+    }
+
+    private static Map<Class<?>, Entry> getProxies(IRubyObject receiver) {
+        Map<Class<?>, Entry> proxies =
+                (Map<Class<?>, Entry>)receiver.getInternalVariables().getInternalVariable(PROXIES);
+        if (proxies == null) {
+            // only the receiver is locked, and only when its map has to be created
+            synchronized (receiver) {
+                proxies = (Map<Class<?>, Entry>)receiver.getInternalVariables().getInternalVariable(PROXIES);
+                if (proxies == null) {
+                    proxies = new ConcurrentHashMap<Class<?>, Entry>();
+                    receiver.getInternalVariables().setInternalVariable(PROXIES, proxies);
+                }
+            }
+        }
+        return proxies;
+    }
+
+    /**
+     * Returns how many interface proxies and bridges have been created in this JVM.
+     *
+     * @return the number of created proxies
+     */
+    public static long getCreationCount() {
+        return creationCount.get();
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            String name = method.getName();
+            if ("equals".equals(name)) {
+                return proxy == args[0];
+            } else if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            } else {
+                return receiver.toString();
+            }
+        }
+        RubyMethodRef ref = methods.get(method);
+        if (ref == null) {
+            ref = container.lookupMethod(receiver, getRubyName(receiver, method.getName()));
+            methods.put(method, ref);
+        }
+        Class<?> returnType = method.getReturnType();
+        if (returnType == void.class) {
+            ref.call(args != null ? args : new Object[0], null);
+            return null;
+        }
+        Object ret = ref.call(args != null ? args : new Object[0], toWrapperType(returnType));
+        if (ret == null && returnType.isPrimitive()) {
+            return getDefaultValue(returnType);
+        }
+        return ret;
+    }
+
+    // a camelCase Java name falls back to a snake_case Ruby method
+    static String getRubyName(IRubyObject receiver, String name) {
+        if (receiver.respondsTo(name)) {
+            return name;
+        }
+        StringBuilder sb = new StringBuilder(name.length() + 4);
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.isUpperCase(c)) {
+                if (i > 0) {
+                    sb.append('_');
+                }
+                sb.append(Character.toLowerCase(c));
+            } else {
+                sb.append(c);
+            }
+        }
+        String rubyName = sb.toString();
+        return receiver.respondsTo(rubyName) ? rubyName : name;
+    }
+
+    private static Class<?> toWrapperType(Class<?> type) {
+        if (!type.isPrimitive()) {
+            return type;
+        } else if (type == int.class) {
+            return Integer.class;
+        } else if (type == long.class) {
+            return Long.class;
+        } else if (type == double.class) {
+            return Double.class;
+        } else if (type == boolean.class) {
+            return Boolean.class;
+        } else if (type == float.class) {
+            return Float.class;
+        } else if (type == short.class) {
+            return Short.class;
+        } else if (type == byte.class) {
+            return Byte.class;
+        } else {
+            return Character.class;
+        }
+    }
+
+    private static Object getDefaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return Boolean.FALSE;
+        } else if (type == char.class) {
+            return Character.valueOf((char)0);
+        } else if (type == double.class) {
+            return Double.valueOf(0.0);
+        } else if (type == float.class) {
+            return Float.valueOf(0.0f);
+        } else if (type == long.class) {
+            return Long.valueOf(0L);
+        } else if (type == int.class) {
+            return Integer.valueOf(0);
+        } else if (type == short.class) {
+            return Short.valueOf((short)0);
+        } else {
+            return Byte.valueOf((byte)0);
+        }
+    }
+
+    private static class Entry {
+        private final ScriptingContainer container;
+        private final boolean bridge;
+        private final Object instance;
+
+        private Entry(ScriptingContainer container, boolean bridge, Object instance) {
+            this.container = container;
+            this.bridge = bridge;
+            this.instance = instance;
+        }
+    }
+}
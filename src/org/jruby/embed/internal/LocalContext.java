@@ -32,9 +32,13 @@ package org.jruby.embed.internal;
 import java.io.File;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
 import org.jruby.Ruby;
 import org.jruby.RubyInstanceConfig;
 import org.jruby.embed.AttributeName;
@@ -50,9 +54,13 @@ public class LocalContext {
     private List loadPaths;
     private RubyInstanceConfig config;
     private LocalVariableBehavior behavior;
-    private Ruby runtime = null;
-    private BiVariableMap varMap = null;
+    private volatile Ruby runtime = null;
+    private volatile BiVariableMap varMap = null;
     private HashMap attribute;
+    private EmbedEvalUnitCache parseCache = null;
+    private OutputRouter outputRouter = null;
+    private volatile long footprint = 0L;
+    private final ReentrantLock bootLock = new ReentrantLock();
 
     public LocalContext() {
         String loadPath = System.getProperty("org.jruby.embed.class.path");
@@ -89,20 +97,125 @@ public class LocalContext {
     }
 
     public Ruby getRuntime() {
-        if (runtime == null) {
-            runtime = JavaEmbedUtils.initialize(loadPaths, config);
+        Ruby r = runtime;
+        if (r == null) {
+            // terminate() may run on another thread, so booting is done under a lock,
+            // not the monitor, to let a virtual thread unmount while it boots
+            bootLock.lock();
+            try {
+                r = runtime;
+                if (r == null) {
+                    long before = getAllocatedBytes();
+                    r = JavaEmbedUtils.initialize(loadPaths, config);
+                    footprint = Math.max(0L, getAllocatedBytes() - before);
+                    runtime = r;
+                }
+            } finally {
+                bootLock.unlock();
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Returns true if a Ruby runtime of this local context has been initialized
+     * and not terminated yet.
+     *
+     * @return true if the runtime is up
+     */
+    public boolean isRuntimeInitialized() {
+        return runtime != null;
+    }
+
+    /**
+     * Returns approximate bytes a Ruby runtime of this local context took to boot.
+     * The value is measured by bytes allocated on the booting thread when the JVM
+     * supports it, otherwise by the growth of the used heap. Zero is returned if
+     * the runtime is not initialized.
+     *
+     * @return approximate heap size of the runtime in bytes
+     */
+    public long getFootprint() {
+        return isRuntimeInitialized() ? footprint : 0L;
+    }
+
+    // com.sun.management.ThreadMXBean is not available on every JVM
+    private static long getAllocatedBytes() {
+        try {
+            ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            Method method = bean.getClass().getMethod("getThreadAllocatedBytes", long.class);
+            method.setAccessible(true);
+            return (Long)method.invoke(bean, Thread.currentThread().getId());
+        } catch (Exception e) {
+            Runtime jvm = Runtime.getRuntime();
+            return jvm.totalMemory() - jvm.freeMemory();
         }
-        return runtime;
     }
 
     public BiVariableMap getVarMap() {
-        if (varMap == null) {
-            varMap = new BiVariableMap(getRuntime(), behavior);
+        BiVariableMap map = varMap;
+        if (map == null) {
+            Ruby r = getRuntime();
+            bootLock.lock();
+            try {
+                map = varMap;
+                if (map == null) {
+                    map = new BiVariableMap(r, behavior);
+                    map.setAttributeMap(attribute);
+                    varMap = map;
+                }
+            } finally {
+                bootLock.unlock();
+            }
         }
-        return varMap;
+        return map;
     }
 
     public HashMap getAttributeMap() {
         return attribute;
     }
+
+    public synchronized EmbedEvalUnitCache getParseCache() {
+        if (parseCache == null) {
+            parseCache = new EmbedEvalUnitCache();
+        }
+        return parseCache;
+    }
+
+    public synchronized OutputRouter getOutputRouter() {
+        return outputRouter;
+    }
+
+    public synchronized void setOutputRouter(OutputRouter outputRouter) {
+        this.outputRouter = outputRouter;
+    }
+
+    /**
+     * Tears down a Ruby runtime of this local context. The runtime is initialized
+     * again when it is requested next time.
+     */
+    public void terminate() {
+        Ruby terminated;
+        EmbedEvalUnitCache cache;
+        bootLock.lock();
+        try {
+            terminated = runtime;
+            runtime = null;
+            footprint = 0L;
+            varMap = null;
+        } finally {
+            bootLock.unlock();
+        }
+        synchronized (this) {
+            outputRouter = null;
+            cache = parseCache;
+        }
+        // at_exit blocks may run long, so the runtime is torn down outside the monitor
+        if (terminated != null) {
+            JavaEmbedUtils.terminate(terminated);
+        }
+        if (cache != null) {
+            cache.clear();
+        }
+    }
 }
@@ -0,0 +1,148 @@
+/**
+ * **** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 Yoko Harada <yokolet@gmail.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ * **** END LICENSE BLOCK *****
+ */
+package org.jruby.embed.internal;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import org.jruby.Ruby;
+import org.jruby.RubyIO;
+
+/**
+ * Standard output and error streams installed as $stdout and $stderr once
+ * per runtime. Each stream writes to a stream bound to the current thread, or
+ * to the stream that had been installed before when no stream is bound. This
+ * lets output of a single evaluation be captured without redefining global
+ * variables every time.
+ *
+ * @author Yoko Harada <yokolet@gmail.com>
+ */
+public class OutputRouter {
+    private final Route out;
+    private final Route err;
+    private final PrintStream outStream;
+    private final PrintStream errStream;
+    private RubyIO outIO = null;
+    private RubyIO errIO = null;
+
+    public OutputRouter(OutputStream defaultOut, OutputStream defaultErr) {
+        out = new Route(defaultOut);
+        err = new Route(defaultErr);
+        outStream = new PrintStream(out);
+        errStream = new PrintStream(err);
+    }
+
+    public PrintStream getOutputStream() {
+        return outStream;
+    }
+
+    public PrintStream getErrorStream() {
+        return errStream;
+    }
+
+    /**
+     * Remembers RubyIO objects that have been set to $stdout and $stderr.
+     */
+    public synchronized void setInstalledIO(RubyIO outIO, RubyIO errIO) {
+        this.outIO = outIO;
+        this.errIO = errIO;
+    }
+
+    /**
+     * Tests whether $stdout and $stderr of the given runtime are still this
+     * router's streams.
+     */
+    public synchronized boolean isInstalled(Ruby runtime) {
+        if (outIO == null || errIO == null || outIO.getRuntime() != runtime) {
+            return false;
+        }
+        return runtime.getGlobalVariables().get("$stdout") == outIO &&
+                runtime.getGlobalVariables().get("$stderr") == errIO;
+    }
+
+    /**
+     * Binds a standard output stream to the current thread.
+     *
+     * @param target a stream to be bound, or null to unbind
+     * @return a stream that was bound before
+     */
+    public OutputStream routeOutput(OutputStream target) {
+        return out.bind(target);
+    }
+
+    /**
+     * Binds a standard error stream to the current thread.
+     *
+     * @param target a stream to be bound, or null to unbind
+     * @return a stream that was bound before
+     */
+    public OutputStream routeError(OutputStream target) {
+        return err.bind(target);
+    }
+
+    private static class Route extends OutputStream {
+        private final OutputStream fallback;
+        private final ThreadLocal<OutputStream> target = new ThreadLocal<OutputStream>();
+
+        private Route(OutputStream fallback) {
+            this.fallback = fallback;
+        }
+
+        private OutputStream bind(OutputStream stream) {
+            OutputStream previous = target.get();
+            if (stream == null) {
+                target.remove();
+            } else {
+                target.set(stream);
+            }
+            return previous;
+        }
+
+        private OutputStream current() {
+            OutputStream stream = target.get();
+            return stream != null ? stream : fallback;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            current().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            current().write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            current().flush();
+        }
+    }
+}
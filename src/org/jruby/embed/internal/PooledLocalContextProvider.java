@@ -0,0 +1,875 @@
+/**
+ * **** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 Yoko Harada <yokolet@gmail.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ * **** END LICENSE BLOCK *****
+ */
+package org.jruby.embed.internal;
+
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.jruby.Ruby;
+import org.jruby.RubyInstanceConfig.CompileMode;
+import org.jruby.embed.AttributeName;
+import org.jruby.embed.LocalVariableBehavior;
+import org.jruby.embed.PropertyName;
+import org.jruby.embed.variable.BiVariable;
+import org.jruby.runtime.builtin.IRubyObject;
+
+/**
+ * A pool of {@link LocalContext}s shared by many threads. Each thread checks
+ * out a local context for the length of an evaluation or a method call and
+ * returns it to the pool afterwards, so that the number of Ruby runtimes is
+ * bounded by the maximum pool size instead of the number of threads.
+ *
+ * <p>Pool size and timeouts can be given by System properties,
+ * {@link PropertyName#POOL_MIN_SIZE}, {@link PropertyName#POOL_MAX_SIZE},
+ * {@link PropertyName#POOL_IDLE_TIMEOUT} and {@link PropertyName#POOL_BORROW_TIMEOUT},
+ * or setters of this class before the first use. Local contexts beyond the
+ * minimum size are terminated when they have been idle longer than the idle
+ * timeout.
+ *
+ * <p>Variables and attributes belong to the container, not to a pooled local
+ * context. Outside of an evaluation, they are kept by this provider without
+ * any runtime. When a local context is checked out, variables changed since
+ * it was used last time are put to its variable map, and streams set by
+ * {@link org.jruby.embed.ScriptingContainer#setWriter(java.io.Writer)} and the
+ * like are installed by a {@link Configurator}. When the local context is
+ * checked in, variables the evaluation changed are converted to Java objects
+ * and written back, so that any thread sees them.
+ * <pre>
+ *         ScriptingContainer container = new ScriptingContainer(LocalContextScope.POOLED);
+ *         PooledLocalContextProvider pool = (PooledLocalContextProvider) container.getProvider();
+ *         pool.setMaxSize(8);
+ *         pool.prestart();
+ *         container.put("x", 12345); // no local context is checked out here
+ *         container.runScriptlet("puts x.to_s(2)");</pre>
+ *
+ * <p>A fair pool, which is created for {@link org.jruby.embed.LocalContextScope#CONCURRENT},
+ * hands local contexts to waiting threads in arrival order. A returned local context
+ * goes to the longest waiting thread that can use it, and only that thread is woken
+ * up, so that many lightweight threads such as virtual threads can queue on a small
+ * number of runtimes without a thundering herd. No monitor is held while a thread
+ * waits, so waiting virtual threads don't pin their carrier threads.
+ *
+ * @author Yoko Harada <yokolet@gmail.com>
+ */
+public class PooledLocalContextProvider extends AbstractLocalContextProvider {
+    private final boolean fair;
+    private final ReentrantLock lock;
+    private final Condition available;
+    private final LinkedList<Waiter> waiters = new LinkedList<Waiter>();
+    private final List<PooledContext> contexts = new ArrayList<PooledContext>();
+    private final LinkedList<PooledContext> idle = new LinkedList<PooledContext>();
+    private final ThreadLocal<Binding> bindings = new ThreadLocal<Binding>();
+    private final Map attributes = Collections.synchronizedMap(new HashMap());
+    private final Map<Object, Object> defaultConfiguration = new HashMap<Object, Object>();
+    private final BiVariableMap varMap;
+    private volatile Configurator configurator = null;
+    private volatile int minSize;
+    private volatile int maxSize;
+    private volatile long idleTimeout;
+    private volatile long borrowTimeout;
+    private long borrowCount = 0L;
+    private long timeoutCount = 0L;
+    private long evictionCount = 0L;
+    private long totalWaitTime = 0L;
+    private long maxWaitTime = 0L;
+
+    public PooledLocalContextProvider(LocalVariableBehavior behavior) {
+        this(behavior, false);
+    }
+
+    /**
+     * Creates a pool. When fair is true, threads waiting for local contexts are
+     * served in arrival order.
+     *
+     * @param behavior a local variable behavior
+     * @param fair true to serve waiting threads in arrival order
+     */
+    public PooledLocalContextProvider(LocalVariableBehavior behavior, boolean fair) {
+        this.behavior = behavior;
+        this.fair = fair;
+        lock = new ReentrantLock(fair);
+        available = lock.newCondition();
+        config.setCompileMode(CompileMode.OFF);
+        minSize = getProperty(PropertyName.POOL_MIN_SIZE, 1);
+        maxSize = getProperty(PropertyName.POOL_MAX_SIZE, Runtime.getRuntime().availableProcessors());
+        idleTimeout = getProperty(PropertyName.POOL_IDLE_TIMEOUT, 300000);
+        borrowTimeout = getProperty(PropertyName.POOL_BORROW_TIMEOUT, 30000);
+        if (maxSize < minSize) {
+            maxSize = minSize;
+        }
+        attributes.put(AttributeName.READER, new InputStreamReader(System.in));
+        attributes.put(AttributeName.WRITER, new PrintWriter(System.out, true));
+        attributes.put(AttributeName.ERROR_WRITER, new PrintWriter(System.err, true));
+        // runtimes already use the standard streams
+        defaultConfiguration.putAll(attributes);
+        varMap = new BiVariableMap(null, behavior);
+        varMap.setAttributeMap(attributes);
+    }
+
+    private int getProperty(PropertyName name, int defaultValue) {
+        String s = System.getProperty(name.toString());
+        if (s == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(s.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Checks out a local context and binds it to the current thread until
+     * {@link #checkin()} is called the same number of times. If the thread already
+     * has a local context, the same one is used. When a runtime is given, the local
+     * context that owns the runtime is checked out, so that a unit parsed before
+     * runs on the same runtime.
+     *
+     * @param runtime is a runtime the local context should have, or null for any
+     */
+    public void checkout(Ruby runtime) {
+        checkout(runtime, null);
+    }
+
+    /**
+     * Checks out a local context like {@link #checkout(Ruby)}, but the local
+     * context gets variables of a given map instead of the container's, and
+     * variables the evaluation changed are written back to the given map. A
+     * JSR 223 engine uses this to have its own engine scope bindings.
+     *
+     * @param runtime is a runtime the local context should have, or null for any
+     * @param variables is a variable map without runtime, or null for the container's
+     */
+    public void checkout(Ruby runtime, BiVariableMap variables) {
+        Binding binding = bindings.get();
+        if (binding != null) {
+            if (runtime != null && binding.pooled.runtime != runtime) {
+                throw new IllegalStateException("another runtime is in use on this thread");
+            }
+            if (variables != null && binding.source != variables) {
+                throw new IllegalStateException("another variable map is in use on this thread");
+            }
+            binding.depth++;
+            return;
+        }
+        binding = new Binding(borrow(runtime), variables != null ? variables : varMap);
+        binding.depth = 1;
+        bindings.set(binding);
+        try {
+            apply(binding.pooled, binding.source);
+        } catch (RuntimeException e) {
+            bindings.remove();
+            giveBack(binding.pooled);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a local context checked out by {@link #checkout(Ruby)} to the pool
+     * when the outermost evaluation on the current thread has completed.
+     */
+    public void checkin() {
+        Binding binding = bindings.get();
+        if (binding == null) {
+            return;
+        }
+        if (--binding.depth <= 0) {
+            bindings.remove();
+            try {
+                collect(binding.pooled, binding.source);
+            } finally {
+                giveBack(binding.pooled);
+            }
+        }
+    }
+
+    /**
+     * Returns true if the current thread has checked out a local context.
+     *
+     * @return true if a local context is bound to the current thread
+     */
+    public boolean isCheckedOut() {
+        return bindings.get() != null;
+    }
+
+    /**
+     * Sets a configurator that installs container level configuration on runtimes
+     * of this pool.
+     *
+     * @param configurator a configurator, or null to install nothing
+     */
+    public void setConfigurator(Configurator configurator) {
+        this.configurator = configurator;
+    }
+
+    /**
+     * Installs configuration changed in the attribute map on a local context
+     * checked out by the current thread. Other local contexts get it when they
+     * are checked out next time.
+     */
+    public void configure() {
+        Binding binding = bindings.get();
+        if (binding != null) {
+            configure(binding.pooled);
+        }
+    }
+
+    // the applied map remembers what the local context got from the last source,
+    // so switching sources puts only values that differ and removes the rest
+    private void apply(PooledContext pooled, BiVariableMap source) {
+        BiVariableMap vars = pooled.context.getVarMap();
+        vars.setAttributeMap(attributes);
+        configure(pooled);
+        for (BiVariable var : source.getVariables()) {
+            String name = var.getName();
+            Object value = var.getJavaObject();
+            if (!isSame(value, pooled.applied.get(name)) || !vars.containsKey(name)) {
+                if (value instanceof IRubyObject && ((IRubyObject)value).getRuntime() != pooled.runtime) {
+                    // Ruby objects can't move to another runtime
+                    continue;
+                }
+                vars.put(name, value);
+                pooled.applied.put(name, value);
+            }
+        }
+        Iterator<String> itr = pooled.applied.keySet().iterator();
+        while (itr.hasNext()) {
+            String name = itr.next();
+            if (!source.containsKey(name)) {
+                itr.remove();
+                vars.remove(name);
+            }
+        }
+    }
+
+    private void configure(PooledContext pooled) {
+        Configurator c = configurator;
+        if (c == null) {
+            return;
+        }
+        for (Object key : defaultConfiguration.keySet()) {
+            Object value = attributes.get(key);
+            if (value != null && value != pooled.configuration.get(key)) {
+                pooled.configuration.put(key, value);
+                c.configure(key, value);
+            }
+        }
+    }
+
+    private void collect(PooledContext pooled, BiVariableMap source) {
+        BiVariableMap vars = pooled.context.getVarMap();
+        for (BiVariable var : vars.getVariables()) {
+            String name = var.getName();
+            Object value = var.getJavaObject();
+            if (!pooled.applied.containsKey(name) || !isSame(value, pooled.applied.get(name))) {
+                source.put(name, value);
+                pooled.applied.put(name, value);
+            }
+        }
+        // transient local variables have gone after the evaluation
+        Iterator<Map.Entry<String, Object>> itr = pooled.applied.entrySet().iterator();
+        while (itr.hasNext()) {
+            Map.Entry<String, Object> entry = itr.next();
+            if (!vars.containsKey(entry.getKey())) {
+                itr.remove();
+                BiVariable var = source.getVariable(entry.getKey());
+                if (var != null && isSame(var.getJavaObject(), entry.getValue())) {
+                    source.remove(entry.getKey());
+                }
+            }
+        }
+    }
+
+    private static boolean isSame(Object value, Object other) {
+        return value == other || (value != null && value.equals(other));
+    }
+
+    /**
+     * Returns a local context checked out by the current thread. When the thread
+     * has nothing checked out, a local context in the pool is returned without
+     * checking it out, so its runtime may be used by another thread at the same
+     * time.
+     *
+     * @return a local context
+     */
+    public LocalContext getLocalContext() {
+        Binding binding = bindings.get();
+        if (binding != null) {
+            return binding.pooled.context;
+        }
+        return peek().context;
+    }
+
+    private PooledContext peek() {
+        PooledContext pooled = null;
+        boolean created = false;
+        lock.lock();
+        try {
+            if (!idle.isEmpty()) {
+                pooled = idle.getFirst();
+            } else if (contexts.size() < maxSize) {
+                pooled = newPooledContext();
+                created = true;
+            } else {
+                pooled = contexts.get(0);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (created) {
+            giveBack(boot(pooled));
+        }
+        return pooled;
+    }
+
+    private PooledContext newPooledContext() {
+        PooledContext pooled = new PooledContext(getInstance());
+        pooled.configuration.putAll(defaultConfiguration);
+        contexts.add(pooled);
+        return pooled;
+    }
+
+    public Ruby getRuntime() {
+        return getLocalContext().getRuntime();
+    }
+
+    /**
+     * Returns a variable map of a local context checked out by the current
+     * thread, or the container level variable map when nothing is checked out.
+     *
+     * @return a variable map
+     */
+    public BiVariableMap getVarMap() {
+        Binding binding = bindings.get();
+        if (binding != null) {
+            return binding.pooled.context.getVarMap();
+        }
+        return varMap;
+    }
+
+    public Map getAttributeMap() {
+        return attributes;
+    }
+
+    /**
+     * Creates and initializes local contexts until the pool has the minimum
+     * number of them. Ruby runtimes are booted in the calling thread.
+     */
+    public void prestart() {
+        List<PooledContext> created = new ArrayList<PooledContext>();
+        lock.lock();
+        try {
+            while (contexts.size() < minSize) {
+                created.add(newPooledContext());
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (PooledContext pooled : created) {
+            giveBack(boot(pooled));
+        }
+    }
+
+    /**
+     * Terminates local contexts that have been idle longer than the idle timeout
+     * while the pool has more than the minimum number of local contexts.
+     */
+    public void evictIdle() {
+        List<PooledContext> evicted;
+        lock.lock();
+        try {
+            evicted = evictIdle(System.currentTimeMillis());
+        } finally {
+            lock.unlock();
+        }
+        terminate(evicted);
+    }
+
+    private PooledContext borrow(Ruby runtime) {
+        evictIdle();
+        long start = System.nanoTime();
+        long remaining = TimeUnit.MILLISECONDS.toNanos(borrowTimeout);
+        PooledContext pooled = null;
+        Waiter waiter = null;
+        boolean created = false;
+        lock.lock();
+        try {
+            while (pooled == null) {
+                if (!fair || (waiter == null && waiters.isEmpty()) || (waiter != null && nextWaiter() == waiter)) {
+                    pooled = takeIdle(runtime);
+                    if (pooled != null) {
+                        break;
+                    }
+                    if (runtime == null && contexts.size() < maxSize) {
+                        pooled = newPooledContext();
+                        created = true;
+                        break;
+                    }
+                }
+                if (runtime != null && !owns(runtime)) {
+                    throw new IllegalStateException("runtime does not belong to this pool");
+                }
+                if (fair && waiter == null) {
+                    // queues up behind threads that came earlier
+                    waiter = new Waiter(runtime, lock.newCondition());
+                    waiters.addLast(waiter);
+                    continue;
+                }
+                Condition condition = fair ? waiter.condition : available;
+                if (borrowTimeout <= 0) {
+                    condition.await();
+                } else if (remaining > 0) {
+                    remaining = condition.awaitNanos(remaining);
+                } else {
+                    timeoutCount++;
+                    throw new IllegalStateException("no local context was available in " + borrowTimeout + "ms");
+                }
+            }
+            borrowCount++;
+            long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            totalWaitTime += waited;
+            if (waited > maxWaitTime) {
+                maxWaitTime = waited;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for a local context", e);
+        } finally {
+            if (waiter != null) {
+                waiters.remove(waiter);
+                // passes the turn on when more local contexts are available
+                signalWaiters();
+            }
+            lock.unlock();
+        }
+        return created ? boot(pooled) : pooled;
+    }
+
+    private PooledContext boot(PooledContext pooled) {
+        try {
+            pooled.runtime = pooled.context.getRuntime();
+            return pooled;
+        } catch (RuntimeException e) {
+            discard(pooled);
+            throw e;
+        } catch (Error e) {
+            discard(pooled);
+            throw e;
+        }
+    }
+
+    private void discard(PooledContext pooled) {
+        lock.lock();
+        try {
+            contexts.remove(pooled);
+            signalWaiters();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void signalWaiters() {
+        if (!fair) {
+            available.signalAll();
+            return;
+        }
+        Waiter waiter = nextWaiter();
+        if (waiter != null) {
+            waiter.condition.signal();
+        }
+    }
+
+    // the longest waiting thread that can get a local context now
+    private Waiter nextWaiter() {
+        for (Waiter waiter : waiters) {
+            if (waiter.runtime == null) {
+                if (!idle.isEmpty() || contexts.size() < maxSize) {
+                    return waiter;
+                }
+            } else {
+                for (PooledContext pooled : idle) {
+                    if (pooled.runtime == waiter.runtime) {
+                        return waiter;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private PooledContext takeIdle(Ruby runtime) {
+        Iterator<PooledContext> itr = idle.iterator();
+        while (itr.hasNext()) {
+            PooledContext pooled = itr.next();
+            if (runtime == null || pooled.runtime == runtime) {
+                itr.remove();
+                return pooled;
+            }
+        }
+        return null;
+    }
+
+    private boolean owns(Ruby runtime) {
+        for (PooledContext pooled : contexts) {
+            if (pooled.runtime == runtime) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void giveBack(PooledContext pooled) {
+        List<PooledContext> evicted;
+        lock.lock();
+        try {
+            if (!contexts.contains(pooled)) {
+                // terminated while it was checked out
+                return;
+            }
+            long now = System.currentTimeMillis();
+            pooled.idleSince = now;
+            idle.addFirst(pooled);
+            signalWaiters();
+            evicted = evictIdle(now);
+        } finally {
+            lock.unlock();
+        }
+        terminate(evicted);
+    }
+
+    /**
+     * Terminates all local contexts in the pool. Local contexts checked out by
+     * other threads are terminated as well and are not returned to the pool.
+     */
+    public void terminate() {
+        List<PooledContext> terminated;
+        bindings.remove();
+        lock.lock();
+        try {
+            terminated = new ArrayList<PooledContext>(contexts);
+            contexts.clear();
+            idle.clear();
+            signalWaiters();
+        } finally {
+            lock.unlock();
+        }
+        varMap.clear();
+        terminate(terminated);
+    }
+
+    private List<PooledContext> evictIdle(long now) {
+        List<PooledContext> evicted = new ArrayList<PooledContext>();
+        if (idleTimeout <= 0) {
+            return evicted;
+        }
+        while (!idle.isEmpty() && contexts.size() > minSize &&
+                now - idle.getLast().idleSince >= idleTimeout) {
+            PooledContext pooled = idle.removeLast();
+            contexts.remove(pooled);
+            evictionCount++;
+            evicted.add(pooled);
+        }
+        return evicted;
+    }
+
+    private void terminate(List<PooledContext> evicted) {
+        for (PooledContext pooled : evicted) {
+            pooled.context.terminate();
+        }
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    /**
+     * Sets the number of local contexts the pool keeps even when they are idle.
+     *
+     * @param minSize the minimum number of local contexts
+     */
+    public void setMinSize(int minSize) {
+        lock.lock();
+        try {
+            this.minSize = minSize < 0 ? 0 : minSize;
+            if (maxSize < this.minSize) {
+                maxSize = this.minSize;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the maximum number of local contexts, which is the maximum number of
+     * Ruby runtimes this provider creates.
+     *
+     * @param maxSize the maximum number of local contexts
+     */
+    public void setMaxSize(int maxSize) {
+        lock.lock();
+        try {
+            this.maxSize = maxSize < 1 ? 1 : maxSize;
+            if (minSize > this.maxSize) {
+                minSize = this.maxSize;
+            }
+            signalWaiters();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Sets milliseconds after which an idle local context is terminated. Zero or
+     * a negative value disables the idle eviction.
+     *
+     * @param idleTimeout the idle timeout in milliseconds
+     */
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    public long getBorrowTimeout() {
+        return borrowTimeout;
+    }
+
+    /**
+     * Sets milliseconds a thread waits for a local context when all of them are
+     * in use. Zero or a negative value makes threads wait indefinitely.
+     *
+     * @param borrowTimeout the borrow timeout in milliseconds
+     */
+    public void setBorrowTimeout(long borrowTimeout) {
+        this.borrowTimeout = borrowTimeout;
+    }
+
+    /**
+     * Returns the number of local contexts currently in the pool, both in use
+     * and idle.
+     *
+     * @return the number of local contexts
+     */
+    public int getSize() {
+        lock.lock();
+        try {
+            return contexts.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of local contexts waiting to be checked out.
+     *
+     * @return the number of idle local contexts
+     */
+    public int getIdleCount() {
+        lock.lock();
+        try {
+            return idle.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of local contexts bound to threads.
+     *
+     * @return the number of local contexts in use
+     */
+    public int getActiveCount() {
+        lock.lock();
+        try {
+            return contexts.size() - idle.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns how many times local contexts were checked out from the pool.
+     *
+     * @return the number of checkouts
+     */
+    public long getBorrowCount() {
+        lock.lock();
+        try {
+            return borrowCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns how many times threads gave up waiting for a local context.
+     *
+     * @return the number of borrow timeouts
+     */
+    public long getTimeoutCount() {
+        lock.lock();
+        try {
+            return timeoutCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns how many local contexts were terminated by the idle eviction.
+     *
+     * @return the number of evicted local contexts
+     */
+    public long getEvictionCount() {
+        lock.lock();
+        try {
+            return evictionCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the total milliseconds threads waited to check out local contexts.
+     *
+     * @return the total wait time in milliseconds
+     */
+    public long getTotalWaitTime() {
+        lock.lock();
+        try {
+            return totalWaitTime;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the longest milliseconds a thread waited to check out a local context.
+     *
+     * @return the maximum wait time in milliseconds
+     */
+    public long getMaxWaitTime() {
+        lock.lock();
+        try {
+            return maxWaitTime;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Installs container level configuration, such as standard streams, on a
+     * runtime checked out from the pool. Users don't implement this interface;
+     * {@link org.jruby.embed.ScriptingContainer} sets its own.
+     */
+    public interface Configurator {
+        /**
+         * Installs a value of an attribute on the runtime checked out by the
+         * current thread.
+         *
+         * @param key one of {@link AttributeName#READER}, {@link AttributeName#WRITER}
+         *        or {@link AttributeName#ERROR_WRITER}
+         * @param value a value of the attribute
+         */
+        void configure(Object key, Object value);
+    }
+
+    private static class PooledContext {
+        private final LocalContext context;
+        private final Map<String, Object> applied = new HashMap<String, Object>();
+        private final Map<Object, Object> configuration = new HashMap<Object, Object>();
+        private Ruby runtime = null;
+        private long idleSince = 0L;
+
+        private PooledContext(LocalContext context) {
+            this.context = context;
+        }
+    }
+
+    /**
+     * Returns true if threads waiting for local contexts are served in arrival order.
+     *
+     * @return true if this pool is fair
+     */
+    public boolean isFair() {
+        return fair;
+    }
+
+    /**
+     * Returns the number of threads waiting for local contexts. Only a fair pool
+     * counts them; zero is returned otherwise.
+     *
+     * @return the number of waiting threads
+     */
+    public int getWaitingCount() {
+        lock.lock();
+        try {
+            return waiters.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static class Waiter {
+        private final Ruby runtime;
+        private final Condition condition;
+
+        private Waiter(Ruby runtime, Condition condition) {
+            this.runtime = runtime;
+            this.condition = condition;
+        }
+    }
+
+    private static class Binding {
+        private final PooledContext pooled;
+        private final BiVariableMap source;
+        private int depth = 0;
+
+        private Binding(PooledContext pooled, BiVariableMap source) {
+            this.pooled = pooled;
+            this.source = source;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * **** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 Yoko Harada <yokolet@gmail.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ * **** END LICENSE BLOCK *****
+ */
+package org.jruby.embed.internal;
+
+import org.jruby.RubyClass;
+import org.jruby.embed.RubyMethodRef;
+import org.jruby.internal.runtime.methods.DynamicMethod;
+import org.jruby.javasupport.util.RuntimeHelpers;
+import org.jruby.runtime.Block;
+import org.jruby.runtime.ThreadContext;
+import org.jruby.runtime.builtin.IRubyObject;
+import org.jruby.runtime.callsite.CacheEntry;
+
+/**
+ * Implementation of {@link RubyMethodRef}. Holds a cached method entry, which
+ * is looked up again when the receiver's class or its token changes, for example,
+ * by a method definition or a module inclusion.
+ *
+ * @author Yoko Harada <yokolet@gmail.com>
+ */
+public class RubyMethodRefImpl implements RubyMethodRef {
+    private final EmbedRubyObjectAdapterImpl adapter;
+    private final Object receiver;
+    private final String name;
+    private volatile CacheEntry entry = CacheEntry.NULL_CACHE;
+
+    RubyMethodRefImpl(EmbedRubyObjectAdapterImpl adapter, Object receiver, String name) {
+        this.adapter = adapter;
+        this.receiver = receiver;
+        this.name = name;
+    }
+
+    public Object getReceiver() {
+        return receiver;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public <T> T call(Class<T> returnType) {
+        return adapter.call(this, null, null, returnType);
+    }
+
+    public <T> T call(Object[] args, Class<T> returnType) {
+        return adapter.call(this, args, null, returnType);
+    }
+
+    public <T> T call(Object[] args, Block block, Class<T> returnType) {
+        return adapter.call(this, args, block, returnType);
+    }
+
+    IRubyObject invoke(ThreadContext context, IRubyObject self, IRubyObject[] args, Block block) {
+        RubyClass klass = self.getMetaClass();
+        CacheEntry cache = entry;
+        if (!cache.typeOk(klass)) {
+            cache = klass.searchWithCache(name);
+            entry = cache;
+        }
+        DynamicMethod method = cache.method;
+        if (method.isUndefined()) {
+            // lets method_missing handle it
+            return RuntimeHelpers.invoke(context, self, name, args, block);
+        }
+        return method.call(context, self, klass, name, args, block);
+    }
+}
@@ -47,24 +47,29 @@ public class SingleThreadLocalContextProvider extends AbstractLocalContextProvid
         config.setCompileMode(CompileMode.OFF);
     }
 
-    public Ruby getRuntime() {
+    public LocalContext getLocalContext() {
         if (localContext == null) {
             localContext = getInstance();
         }
-        return localContext.getRuntime();
+        return localContext;
+    }
+
+    public Ruby getRuntime() {
+        return getLocalContext().getRuntime();
     }
 
     public BiVariableMap getVarMap() {
-        if (localContext == null) {
-            localContext = getInstance();
-        }
-        return localContext.getVarMap();
+        return getLocalContext().getVarMap();
     }
 
     public Map getAttributeMap() {
-        if (localContext == null) {
-            localContext = getInstance();
+        return getLocalContext().getAttributeMap();
+    }
+
+    public void terminate() {
+        if (localContext != null) {
+            localContext.terminate();
+            localContext = null;
         }
-        return localContext.getAttributeMap();
     }
 }
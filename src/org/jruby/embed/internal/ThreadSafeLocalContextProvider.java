@@ -29,37 +29,318 @@
  */
 package org.jruby.embed.internal;
 
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
 import org.jruby.Ruby;
 import org.jruby.RubyInstanceConfig.CompileMode;
 import org.jruby.embed.LocalVariableBehavior;
+import org.jruby.embed.PropertyName;
 
 /**
+ * A provider that gives each thread its own {@link LocalContext}. Local contexts
+ * are kept in a registry as well as in a thread local, so that Ruby runtimes of
+ * threads which have died, or have not used them longer than the idle timeout,
+ * are terminated instead of lingering until garbage collection. The registry is
+ * swept when a thread gets its first local context, at most once a second on
+ * other accesses, and by {@link #evictIdle()}.
+ *
+ * <p>The maximum number of runtimes and the idle timeout can be given by System
+ * properties, {@link PropertyName#THREADSAFE_MAX_RUNTIMES} and
+ * {@link PropertyName#THREADSAFE_IDLE_TIMEOUT}, or setters of this class. A local
+ * context is in use between {@link #checkout()} and {@link #checkin()}, which
+ * surround evaluations and method calls, and is never evicted for idleness
+ * while it is in use.
  *
  * @author Yoko Harada <yokolet@gmail.com>
  */
 public class ThreadSafeLocalContextProvider extends AbstractLocalContextProvider {
-    private ThreadLocal<LocalContext> contextHolder =
-            new ThreadLocal<LocalContext>() {
-                public LocalContext initialValue() {
-                    return getInstance();
-                }
-            };
+    private static final long SWEEP_INTERVAL = 1000L;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final List<Entry> entries = new ArrayList<Entry>();
+    private final ThreadLocal<Entry> contextHolder = new ThreadLocal<Entry>();
+    private volatile int maxRuntimes;
+    private volatile long idleTimeout;
+    private volatile long lastSweep = 0L;
+    private long evictionCount = 0L;
 
     public ThreadSafeLocalContextProvider(LocalVariableBehavior behavior) {
         this.behavior = behavior;
         config.setCompileMode(CompileMode.OFF);
+        maxRuntimes = getProperty(PropertyName.THREADSAFE_MAX_RUNTIMES, 0);
+        idleTimeout = getProperty(PropertyName.THREADSAFE_IDLE_TIMEOUT, 0);
+    }
+
+    private int getProperty(PropertyName name, int defaultValue) {
+        String s = System.getProperty(name.toString());
+        if (s == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(s.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    public LocalContext getLocalContext() {
+        long now = System.currentTimeMillis();
+        Entry entry = contextHolder.get();
+        if (entry != null) {
+            entry.lastAccess = now;
+        }
+        if (now - lastSweep >= SWEEP_INTERVAL && lock.tryLock()) {
+            List<Entry> evicted;
+            try {
+                evicted = sweep(now);
+            } finally {
+                lock.unlock();
+            }
+            terminate(evicted);
+        }
+        if (entry == null || entry.terminated) {
+            entry = register(now);
+            contextHolder.set(entry);
+        }
+        return entry.context;
+    }
+
+    /**
+     * Marks a local context of the current thread in use until {@link #checkin()}
+     * is called the same number of times, so that the idle eviction doesn't
+     * terminate the runtime while Ruby code is running on it.
+     */
+    public void checkout() {
+        getLocalContext();
+        Entry entry = contextHolder.get();
+        // only the owner thread updates the depth
+        entry.depth++;
+    }
+
+    /**
+     * Ends the use of a local context started by {@link #checkout()}.
+     */
+    public void checkin() {
+        Entry entry = contextHolder.get();
+        if (entry != null && entry.depth > 0) {
+            entry.lastAccess = System.currentTimeMillis();
+            entry.depth--;
+        }
+    }
+
+    /**
+     * Tests whether a given runtime is the one the current thread has. This
+     * method doesn't create a runtime for the current thread.
+     *
+     * @param runtime is a runtime to test
+     * @return true if the runtime belongs to the current thread
+     */
+    public boolean isCurrentRuntime(Ruby runtime) {
+        Entry entry = contextHolder.get();
+        return entry != null && !entry.terminated && entry.context.isRuntimeInitialized() &&
+                entry.context.getRuntime() == runtime;
     }
 
     public Ruby getRuntime() {
-        return contextHolder.get().getRuntime();
+        return getLocalContext().getRuntime();
     }
 
     public BiVariableMap getVarMap() {
-        return contextHolder.get().getVarMap();
+        return getLocalContext().getVarMap();
     }
 
     public Map getAttributeMap() {
-        return contextHolder.get().getAttributeMap();
+        return getLocalContext().getAttributeMap();
+    }
+
+    private Entry register(long now) {
+        Entry entry;
+        List<Entry> evicted;
+        lock.lock();
+        try {
+            evicted = sweep(now);
+            if (maxRuntimes > 0 && entries.size() >= maxRuntimes) {
+                throw new IllegalStateException("the number of runtimes reached the maximum, " + maxRuntimes);
+            }
+            entry = new Entry(Thread.currentThread(), getInstance());
+            entry.lastAccess = now;
+            entries.add(entry);
+        } finally {
+            lock.unlock();
+        }
+        terminate(evicted);
+        return entry;
+    }
+
+    /**
+     * Terminates Ruby runtimes of threads that have died, and of threads that have
+     * not used their local contexts longer than the idle timeout. Local contexts
+     * in use are not terminated.
+     */
+    public void evictIdle() {
+        List<Entry> evicted;
+        lock.lock();
+        try {
+            evicted = sweep(System.currentTimeMillis());
+        } finally {
+            lock.unlock();
+        }
+        terminate(evicted);
+    }
+
+    private List<Entry> sweep(long now) {
+        lastSweep = now;
+        List<Entry> evicted = new ArrayList<Entry>();
+        Iterator<Entry> itr = entries.iterator();
+        while (itr.hasNext()) {
+            Entry entry = itr.next();
+            Thread owner = entry.owner.get();
+            if (owner == null || !owner.isAlive() ||
+                    (idleTimeout > 0 && entry.depth == 0 && now - entry.lastAccess >= idleTimeout)) {
+                itr.remove();
+                entry.terminated = true;
+                evictionCount++;
+                evicted.add(entry);
+            }
+        }
+        return evicted;
+    }
+
+    private void terminate(List<Entry> evicted) {
+        for (Entry entry : evicted) {
+            entry.context.terminate();
+        }
+    }
+
+    /**
+     * Terminates Ruby runtimes of all threads. Each thread gets a new local
+     * context when it uses this provider next time.
+     */
+    public void terminate() {
+        List<Entry> terminated;
+        lock.lock();
+        try {
+            terminated = new ArrayList<Entry>(entries);
+            entries.clear();
+            for (Entry entry : terminated) {
+                entry.terminated = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+        terminate(terminated);
+    }
+
+    public int getMaxRuntimes() {
+        return maxRuntimes;
+    }
+
+    /**
+     * Sets the maximum number of Ruby runtimes, which is the maximum number of
+     * threads that can use this provider at the same time. Zero or a negative
+     * value means no limit.
+     *
+     * @param maxRuntimes the maximum number of runtimes
+     */
+    public void setMaxRuntimes(int maxRuntimes) {
+        this.maxRuntimes = maxRuntimes;
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Sets milliseconds after which a Ruby runtime of a thread that has not used
+     * it is terminated. Zero or a negative value terminates runtimes of dead
+     * threads only.
+     *
+     * @param idleTimeout the idle timeout in milliseconds
+     */
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Returns the number of local contexts registered to threads.
+     *
+     * @return the number of local contexts
+     */
+    public int getSize() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of Ruby runtimes that have been booted and not terminated.
+     *
+     * @return the number of live runtimes
+     */
+    public int getLiveRuntimeCount() {
+        int count = 0;
+        lock.lock();
+        try {
+            for (Entry entry : entries) {
+                if (entry.context.isRuntimeInitialized()) {
+                    count++;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return count;
+    }
+
+    /**
+     * Returns approximate bytes the live Ruby runtimes took to boot. See
+     * {@link LocalContext#getFootprint()}.
+     *
+     * @return approximate heap size of live runtimes in bytes
+     */
+    public long getApproximateHeapSize() {
+        long size = 0L;
+        lock.lock();
+        try {
+            for (Entry entry : entries) {
+                size += entry.context.getFootprint();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return size;
+    }
+
+    /**
+     * Returns how many local contexts were terminated by the eviction.
+     *
+     * @return the number of evicted local contexts
+     */
+    public long getEvictionCount() {
+        lock.lock();
+        try {
+            return evictionCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static class Entry {
+        private final WeakReference<Thread> owner;
+        private final LocalContext context;
+        private volatile long lastAccess = 0L;
+        private volatile int depth = 0;
+        private volatile boolean terminated = false;
+
+        private Entry(Thread owner, LocalContext context) {
+            this.owner = new WeakReference<Thread>(owner);
+            this.context = context;
+        }
     }
 }
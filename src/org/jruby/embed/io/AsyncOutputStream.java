@@ -0,0 +1,347 @@
+/**
+ * **** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 Yoko Harada <yokolet@gmail.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ * **** END LICENSE BLOCK *****
+ */
+package org.jruby.embed.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An AsyncOutputStream hands written bytes to a background thread, which writes
+ * them to a given OutputStream. Writers don't wait for the given stream, so
+ * a slow destination doesn't slow down Ruby scripts. Written chunks are kept in
+ * a lock-free ring buffer, and {@link OverflowPolicy} decides what happens when
+ * the buffer is full.
+ *
+ * Usage example:
+ * <pre>
+ *     ScriptingContainer container = new ScriptingContainer();
+ *     AsyncOutputStream ostream =
+ *         new AsyncOutputStream(new WriterOutputStream(writer), OverflowPolicy.DROP, 1024);
+ *     container.setOutputStream(ostream);</pre>
+ *
+ * @author Yoko Harada <yokolet@gmail.com>
+ */
+public class AsyncOutputStream extends OutputStream {
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final long PARK_NANOS = 1000000L;
+    private final OutputStream out;
+    private final OverflowPolicy overflowPolicy;
+    private final int mask;
+    private final AtomicReferenceArray<byte[]> ring;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong(0L);
+    private volatile long head = 0L;
+    private final ConcurrentLinkedQueue<byte[]> queue;
+    private final AtomicLong queuedChunks = new AtomicLong(0L);
+    private final AtomicLong queuedBytes = new AtomicLong(0L);
+    private final AtomicLong writtenBytes = new AtomicLong(0L);
+    private final AtomicLong droppedBytes = new AtomicLong(0L);
+    private final Thread drainer;
+    private volatile boolean drainerWaiting = false;
+    private volatile boolean flushRequested = false;
+    private volatile boolean isOpen = true;
+    private volatile IOException failure = null;
+
+    /**
+     * Creates AsyncOutputStream with a default policy, BLOCK, and a default capacity.
+     *
+     * @param out an output stream that receives written bytes.
+     */
+    public AsyncOutputStream(OutputStream out) {
+        this(out, OverflowPolicy.BLOCK, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates AsyncOutputStream with a given policy and capacity.
+     *
+     * @param out an output stream that receives written bytes.
+     * @param overflowPolicy decides what happens when the buffer is full.
+     * @param capacity the number of chunks, each of which is a single write call,
+     *        the buffer holds. Rounded up to a power of two. Ignored when the policy
+     *        is GROW.
+     */
+    public AsyncOutputStream(OutputStream out, OverflowPolicy overflowPolicy, int capacity) {
+        if (out == null) {
+            throw new IllegalArgumentException("output stream should not be null");
+        }
+        this.out = out;
+        this.overflowPolicy = overflowPolicy != null ? overflowPolicy : OverflowPolicy.BLOCK;
+        if (this.overflowPolicy == OverflowPolicy.GROW) {
+            mask = 0;
+            ring = null;
+            sequences = null;
+            queue = new ConcurrentLinkedQueue<byte[]>();
+        } else {
+            int size = 1;
+            while (size < capacity) {
+                size <<= 1;
+            }
+            mask = size - 1;
+            ring = new AtomicReferenceArray<byte[]>(size);
+            sequences = new AtomicLongArray(size);
+            for (int i = 0; i < size; i++) {
+                sequences.set(i, i);
+            }
+            queue = null;
+        }
+        drainer = new Thread(new Drainer(), "AsyncOutputStream-" + System.identityHashCode(this));
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    /**
+     * Returns the number of chunks waiting to be written.
+     *
+     * @return the number of queued chunks
+     */
+    public long getQueueDepth() {
+        return queuedChunks.get();
+    }
+
+    /**
+     * Returns the number of bytes waiting to be written.
+     *
+     * @return the number of queued bytes
+     */
+    public long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    /**
+     * Returns the number of bytes written to the given output stream.
+     *
+     * @return the number of written bytes
+     */
+    public long getWrittenBytes() {
+        return writtenBytes.get();
+    }
+
+    /**
+     * Returns the number of bytes discarded under OverflowPolicy.DROP.
+     *
+     * @return the number of dropped bytes
+     */
+    public long getDroppedBytes() {
+        return droppedBytes.get();
+    }
+
+    /**
+     * Returns the policy applied when the buffer is full.
+     *
+     * @return an overflow policy
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        enqueue(new byte[]{(byte) b});
+    }
+
+    @Override
+    public void write(byte[] b) throws IOException {
+        write(b, 0, b.length);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || (off + len) > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return;
+        }
+        byte[] chunk = new byte[len];
+        System.arraycopy(b, off, chunk, 0, len);
+        enqueue(chunk);
+    }
+
+    /**
+     * Asks the background thread to flush the given output stream after queued
+     * bytes are written. This method doesn't wait for it.
+     *
+     * @exception  IOException  if the background thread failed to write.
+     */
+    @Override
+    public void flush() throws IOException {
+        confirmOpen();
+        flushRequested = true;
+        wakeUp();
+    }
+
+    /**
+     * Writes all queued bytes, then flushes and closes the given output stream.
+     * This method waits for the background thread to finish.
+     *
+     * @exception  IOException  if an I/O error occurs.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!isOpen) {
+            return;
+        }
+        isOpen = false;
+        LockSupport.unpark(drainer);
+        boolean interrupted = false;
+        while (drainer.isAlive()) {
+            try {
+                drainer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        out.close();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void confirmOpen() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        if (!isOpen) {
+            throw new IOException("This stream has been closed.");
+        }
+    }
+
+    private void enqueue(byte[] chunk) throws IOException {
+        confirmOpen();
+        queuedBytes.addAndGet(chunk.length);
+        queuedChunks.incrementAndGet();
+        if (queue != null) {
+            queue.offer(chunk);
+        } else {
+            while (!offer(chunk)) {
+                if (overflowPolicy == OverflowPolicy.DROP || !isOpen || failure != null) {
+                    queuedBytes.addAndGet(-chunk.length);
+                    queuedChunks.decrementAndGet();
+                    if (overflowPolicy == OverflowPolicy.DROP) {
+                        droppedBytes.addAndGet(chunk.length);
+                        return;
+                    }
+                    confirmOpen();
+                }
+                wakeUp();
+                LockSupport.parkNanos(PARK_NANOS / 10);
+            }
+        }
+        wakeUp();
+    }
+
+    private void wakeUp() {
+        if (drainerWaiting) {
+            LockSupport.unpark(drainer);
+        }
+    }
+
+    private boolean offer(byte[] chunk) {
+        while (true) {
+            long t = tail.get();
+            int index = (int) (t & mask);
+            long diff = sequences.get(index) - t;
+            if (diff == 0L) {
+                if (tail.compareAndSet(t, t + 1)) {
+                    ring.set(index, chunk);
+                    sequences.set(index, t + 1);
+                    return true;
+                }
+            } else if (diff < 0L) {
+                // full
+                return false;
+            }
+        }
+    }
+
+    private byte[] poll() {
+        if (queue != null) {
+            return queue.poll();
+        }
+        long h = head;
+        int index = (int) (h & mask);
+        if (sequences.get(index) != h + 1) {
+            return null;
+        }
+        byte[] chunk = ring.get(index);
+        ring.set(index, null);
+        sequences.set(index, h + mask + 1);
+        head = h + 1;
+        return chunk;
+    }
+
+    private class Drainer implements Runnable {
+        public void run() {
+            boolean dirty = false;
+            while (true) {
+                byte[] chunk = poll();
+                if (chunk != null) {
+                    queuedChunks.decrementAndGet();
+                    queuedBytes.addAndGet(-chunk.length);
+                    if (failure == null) {
+                        try {
+                            out.write(chunk);
+                            writtenBytes.addAndGet(chunk.length);
+                            dirty = true;
+                        } catch (IOException e) {
+                            failure = e;
+                        }
+                    }
+                    continue;
+                }
+                if ((dirty || flushRequested) && failure == null) {
+                    flushRequested = false;
+                    dirty = false;
+                    try {
+                        out.flush();
+                    } catch (IOException e) {
+                        failure = e;
+                    }
+                }
+                if (!isOpen && queuedChunks.get() == 0L) {
+                    return;
+                }
+                drainerWaiting = true;
+                if (queuedChunks.get() == 0L && !flushRequested) {
+                    LockSupport.parkNanos(PARK_NANOS);
+                }
+                drainerWaiting = false;
+            }
+        }
+    }
+}
@@ -39,14 +39,14 @@ import java.nio.charset.Charset;
 import java.nio.charset.CharsetEncoder;
 import java.nio.charset.CoderResult;
 import java.nio.charset.CodingErrorAction;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * A ReaderInputStream converts java.io.Reader to java.io.InputStream. The
- * ReaderInputStream reads data in a given Reader object into its internal buffer
- * so that users of this class can access the file that Reader read by using methods
- * defined in java.io.InputStream.
+ * ReaderInputStream reads data in a given Reader object and encodes it on demand,
+ * a fixed size chunk at a time, so that users of this class can access the file
+ * that Reader read by using methods defined in java.io.InputStream. Bytes read
+ * after mark() are kept until reset() or until readlimit is exceeded.
  *
  * @author Yoko Harada <yokolet@gmail.com>
  */
@@ -55,14 +55,18 @@ public class ReaderInputStream extends InputStream {
     private static final int DEFAULT_CHAR_BUFFER_SIZE = 8192;
     private static final int DEFAULT_BYTE_BUFFER_SIZE = 8192;
     private final Reader reader;
-    private byte[] bytes = null;
-    private int totalBytes = 0;
-    private int position = 0;
-    private int markedIndex = -1;
+    private CharBuffer cbuf;
+    private ByteBuffer bbuf;
+    private boolean endOfInput = false;
+    private boolean flushed = false;
+    private byte[] markBuffer = null;
+    private int markCount = 0;
+    private int markPosition = 0;
+    private boolean marked = false;
     private int readlimit = 0;
     private boolean isOpen = true;
     private CharsetEncoder encoder;
-    private final Object lock = new Object();
+    private final ReentrantLock lock = new ReentrantLock();
 
     /**
      * Creates ReaderInputStream from a given Reader type object with a default encoding.
@@ -93,59 +97,100 @@ public class ReaderInputStream extends InputStream {
         encoder = Charset.forName(encoding).newEncoder();
         encoder.onMalformedInput(CodingErrorAction.REPLACE);
         encoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
-        try {
-            fillByteBuffer(reader);
-        } catch (IOException ex) {
-            throw new RuntimeException(ex);
-        }
+        cbuf = CharBuffer.allocate(DEFAULT_CHAR_BUFFER_SIZE);
+        cbuf.flip();
+        bbuf = ByteBuffer.allocate(DEFAULT_BYTE_BUFFER_SIZE);
+        bbuf.flip();
     }
 
-    private void fillByteBuffer(Reader reader) throws IOException {
-        CharBuffer cbuf = CharBuffer.allocate(DEFAULT_CHAR_BUFFER_SIZE);
-        ByteBuffer bbuf = ByteBuffer.allocate(DEFAULT_BYTE_BUFFER_SIZE);
-        List<byte[]> list = new ArrayList<byte[]>();
+    /**
+     * Encodes the next chunk of characters into the byte buffer. Blocks only when
+     * the byte buffer is empty and the Reader blocks.
+     *
+     * @return true if some bytes are available, false at the end of the stream.
+     */
+    private boolean fill() throws IOException {
+        if (bbuf.hasRemaining()) {
+            return true;
+        }
+        if (flushed) {
+            return false;
+        }
+        bbuf.clear();
         while (true) {
-            cbuf.clear();
-            int size = reader.read(cbuf);
-            if (size <= 0) {
+            CoderResult cr = encoder.encode(cbuf, bbuf, endOfInput);
+            if (cr.isError()) {
+                cr.throwException();
+            }
+            if (endOfInput && cr.isUnderflow()) {
+                cr = encoder.flush(bbuf);
+                flushed = cr.isUnderflow();
+            }
+            if (bbuf.position() > 0 || flushed) {
                 break;
             }
-            cbuf.limit(cbuf.position());
-            cbuf.rewind();
-            boolean eof = false;
-            while (!eof) {
-                CoderResult cr = encoder.encode(cbuf, bbuf, eof);
-                if (cr.isError()) {
-                    cr.throwException();
-                } else if (cr.isUnderflow()) {
-                    appendBytes(list, bbuf);
-                    eof = true;
-                } else if (cr.isOverflow()) {
-                    appendBytes(list, bbuf);
-                    bbuf.clear();
-                }
+            // all buffered characters are encoded, reads more
+            cbuf.compact();
+            int size = reader.read(cbuf);
+            cbuf.flip();
+            if (size < 0) {
+                endOfInput = true;
             }
         }
-        getByteArray(list);
+        bbuf.flip();
+        return bbuf.hasRemaining();
     }
 
-    private void appendBytes(List<byte[]> list, ByteBuffer bb) {
-        bb.flip();
-        int length = bb.limit();
-        totalBytes += length;
-        byte[] dst = new byte[length];
-        System.arraycopy(bb.array(), bb.position(), dst, 0, length);
-        list.add(dst);
+    /**
+     * Copies at most len bytes to b, or discards them if b is null. Bytes kept
+     * for reset() are returned first, then the encoded bytes. The Reader is
+     * read only when nothing has been copied yet.
+     */
+    private int consume(byte[] b, int off, int len) throws IOException {
+        int count = 0;
+        if (markPosition < markCount) {
+            count = Math.min(len, markCount - markPosition);
+            if (b != null) {
+                System.arraycopy(markBuffer, markPosition, b, off, count);
+            }
+            markPosition += count;
+            if (count == len) {
+                return count;
+            }
+        }
+        if (!bbuf.hasRemaining() && (count > 0 || !fill())) {
+            return count > 0 ? count : -1;
+        }
+        int size = Math.min(len - count, bbuf.remaining());
+        if (marked) {
+            record(size);
+        }
+        if (b != null) {
+            bbuf.get(b, off + count, size);
+        } else {
+            bbuf.position(bbuf.position() + size);
+        }
+        return count + size;
     }
 
-    private void getByteArray(List<byte[]> list) {
-        bytes = new byte[totalBytes];
-        int index = 0;
-        for (byte[] bb : list) {
-            for (int i=0; i<bb.length; i++) {
-                bytes[index++] = bb[i];
+    private void record(int size) {
+        if (markCount + size > readlimit) {
+            marked = false;
+            markCount = markPosition = 0;
+            return;
+        }
+        if (markBuffer == null || markBuffer.length < markCount + size) {
+            int length = markBuffer == null ? Math.min(readlimit, DEFAULT_BYTE_BUFFER_SIZE) : markBuffer.length * 2;
+            length = Math.min(readlimit, Math.max(length, markCount + size));
+            byte[] buffer = new byte[length];
+            if (markBuffer != null) {
+                System.arraycopy(markBuffer, 0, buffer, 0, markCount);
             }
+            markBuffer = buffer;
         }
+        System.arraycopy(bbuf.array(), bbuf.position(), markBuffer, markCount, size);
+        markCount += size;
+        markPosition += size;
     }
 
     private void confirmOpen() throws IOException {
@@ -180,12 +225,12 @@ public class ReaderInputStream extends InputStream {
      */
     @Override
     public int available() throws IOException {
-        synchronized (lock) {
+        lock.lock();
+        try {
             confirmOpen();
-            if (bytes == null) {
-                throw new IOException("This stream is not available.");
-            }
-            return totalBytes - position;
+            return (markCount - markPosition) + bbuf.remaining();
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -197,12 +242,17 @@ public class ReaderInputStream extends InputStream {
      */
     @Override
     public void close() throws IOException {
-        synchronized (lock) {
+        lock.lock();
+        try {
             confirmOpen();
             isOpen = false;
             encoder = null;
-            bytes = null;
+            cbuf = null;
+            bbuf = null;
+            markBuffer = null;
             //reader.close();
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -233,15 +283,28 @@ public class ReaderInputStream extends InputStream {
      * @see     java.io.InputStream#reset()
      */
     @Override
-    public synchronized void mark(int readlimit) {
+    public void mark(int readlimit) {
         if (readlimit < 0) {
             throw new IllegalArgumentException("Read limit < 0");
         }
-        synchronized (lock) {
+        lock.lock();
+        try {
             if (isOpen) {
                 this.readlimit = readlimit;
-                markedIndex = position;
+                marked = true;
+                // keeps bytes already read back from the previous mark
+                int remaining = markCount - markPosition;
+                if (remaining > 0) {
+                    System.arraycopy(markBuffer, markPosition, markBuffer, 0, remaining);
+                }
+                markCount = remaining;
+                markPosition = 0;
+                if (this.readlimit < markCount) {
+                    this.readlimit = markCount;
+                }
             }
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -277,13 +340,21 @@ public class ReaderInputStream extends InputStream {
      */
     @Override
     public int read() throws IOException {
-        synchronized (lock) {
+        lock.lock();
+        try {
             confirmOpen();
-            if (position >= totalBytes) {
+            if (markPosition < markCount) {
+                return markBuffer[markPosition++] & 0xff;
+            }
+            if (!fill()) {
                 return -1;
-            } else {
-                return bytes[position++];
             }
+            if (marked) {
+                record(1);
+            }
+            return bbuf.get() & 0xff;
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -384,23 +455,18 @@ public class ReaderInputStream extends InputStream {
      */
     @Override
     public int read(byte[] b, int off, int len) throws IOException {
-        synchronized (lock) {
+        lock.lock();
+        try {
             confirmOpen();
+            if (off < 0 || len < 0 || len > b.length - off) {
+                throw new IndexOutOfBoundsException();
+            }
             if (len == 0) {
                 return 0;
             }
-            if (position >= totalBytes) {
-                return -1;
-            }
-            if (off < 0 || off > totalBytes || len < 0) {
-                throw new IllegalArgumentException("Either one of, or both of off and len are invalid.");
-            }
-            int start = position + off;
-            start = start < totalBytes ? start : totalBytes - 1;
-            int end = start + len;
-            end = end < totalBytes ? end : totalBytes - 1;
-            System.arraycopy(bytes, start, b, 0, len);
-            return end - start;
+            return consume(b, off, len);
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -447,18 +513,18 @@ public class ReaderInputStream extends InputStream {
      * @see     java.io.IOException
      */
     @Override
-    public synchronized void reset() throws IOException {
-        synchronized (lock) {
+    public void reset() throws IOException {
+        lock.lock();
+        try {
             if (!isOpen) {
                 throw new IOException("This stream has been closed.");
             }
-            if (markedIndex < 0) {
-                throw new IOException("This stream is not marked.");
-            }
-            if ((position - markedIndex) > readlimit) {
-                throw new IOException("Mark is invalidated.");
+            if (!marked) {
+                throw new IOException("This stream is not marked or the mark is invalidated.");
             }
-            position = markedIndex;
+            markPosition = 0;
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -481,19 +547,22 @@ public class ReaderInputStream extends InputStream {
         if (n < 0L) {
             throw new IllegalArgumentException("Negarive skip");
         }
-        synchronized (lock) {
+        lock.lock();
+        try {
             if (!isOpen) {
                 throw new IOException("This stream has been closed.");
             }
-            long skipped;
-            if ((totalBytes - position) < n) {
-                skipped = totalBytes - position;
-                position = totalBytes;
-            } else {
-                skipped = n;
-                position += n;
+            long skipped = 0L;
+            while (skipped < n) {
+                int size = consume(null, 0, (int) Math.min(n - skipped, Integer.MAX_VALUE));
+                if (size < 0) {
+                    break;
+                }
+                skipped += size;
             }
             return skipped;
+        } finally {
+            lock.unlock();
         }
     }
 }
@@ -39,17 +39,29 @@ import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CoderResult;
 import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * A WriterOutputStream converts java.io.Writer to java.io.OutputStream.
+ * A WriterOutputStream converts java.io.Writer to java.io.OutputStream. Bytes are
+ * decoded through reusable buffers, and a multibyte character split across two
+ * writes is kept until the rest of it comes. When the given Writer is flushed
+ * is decided by a {@link FlushPolicy}.
  *
  * @author Yoko Harada <yokolet@gmail.com>
  */
 public class WriterOutputStream extends OutputStream {
 
+    private static final int DEFAULT_BUFFER_SIZE = 1024;
+    private static final int DEFAULT_FLUSH_THRESHOLD = 8192;
     private final Writer writer;
+    private final ReentrantLock lock = new ReentrantLock();
     private boolean isOpen = true;
     private CharsetDecoder decoder;
+    private final ByteBuffer bytes = ByteBuffer.allocate(DEFAULT_BUFFER_SIZE);
+    private final CharBuffer chars = CharBuffer.allocate(DEFAULT_BUFFER_SIZE);
+    private final FlushPolicy flushPolicy;
+    private final int threshold;
+    private int unflushed = 0;
 
     /**
      * Creates WriterOutputStream from given java.io.Writer object with a default encoding.
@@ -66,7 +78,23 @@ public class WriterOutputStream extends OutputStream {
      * @param writer java.io.Writer object to be converted to.
      */
     public WriterOutputStream(Writer writer, String encoding) {
-        this.writer = writer;       
+        this(writer, encoding, FlushPolicy.ALWAYS, DEFAULT_FLUSH_THRESHOLD);
+    }
+
+    /**
+     * Creates WriterOutputStream from given java.io.Writer object with a specified
+     * encoding and flush policy.
+     *
+     * @param writer java.io.Writer object to be converted to.
+     * @param encoding an encoding of the created stream, or null for a default encoding.
+     * @param flushPolicy decides when the writer is flushed. ALWAYS if null.
+     * @param threshold the number of characters written before the writer is
+     *        flushed when flushPolicy is THRESHOLD.
+     */
+    public WriterOutputStream(Writer writer, String encoding, FlushPolicy flushPolicy, int threshold) {
+        this.writer = writer;
+        this.flushPolicy = flushPolicy != null ? flushPolicy : FlushPolicy.ALWAYS;
+        this.threshold = threshold > 0 ? threshold : DEFAULT_FLUSH_THRESHOLD;
         if (encoding == null && writer instanceof OutputStreamWriter) {
             // this encoding might be null when writer has been closed
             encoding = ((OutputStreamWriter) writer).getEncoding();
@@ -92,13 +120,18 @@ public class WriterOutputStream extends OutputStream {
      */
     @Override
     public void close() throws IOException {
-        synchronized (writer) {
+        lock.lock();
+        try {
             if (!isOpen) {
                 throw new IOException("This stream has been already closed.");
             }
+            // bytes of an incomplete character are replaced
+            decode(true);
             isOpen = false;
             decoder = null;
             writer.close();
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -121,11 +154,14 @@ public class WriterOutputStream extends OutputStream {
      */
     @Override
     public void flush() throws IOException {
-        synchronized (writer) {
+        lock.lock();
+        try {
             if (!isOpen) {
                 return;
             }
-            writer.flush();
+            flushWriter();
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -143,8 +179,16 @@ public class WriterOutputStream extends OutputStream {
      */
     @Override
     public void write(int b) throws IOException {
-        byte[] bb = new byte[]{(byte) b};
-        write(bb, 0, 1);
+        lock.lock();
+        try {
+            if (!isOpen) {
+                return;
+            }
+            bytes.put((byte) b);
+            afterWrite(decode(false));
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -184,31 +228,96 @@ public class WriterOutputStream extends OutputStream {
      */
     @Override
     public void write(byte[] b, int off, int len) throws IOException {
-        synchronized (writer) {
+        lock.lock();
+        try {
             if (!isOpen) {
                 return;
             }
-            if (off < 0 || len <= 0 || (off + len) > b.length) {
+            if (off < 0 || len < 0 || (off + len) > b.length) {
                 throw new IndexOutOfBoundsException();
             }
-            ByteBuffer bytes = ByteBuffer.wrap(b, off, len);
-            CharBuffer chars = CharBuffer.allocate(len);
-            byte2char(bytes, chars);
-            char[] cbuf = new char[chars.length()];
-            chars.get(cbuf, 0, chars.length());
-            writer.write(cbuf);
-            writer.flush();
+            boolean newline = false;
+            while (len > 0) {
+                int size = Math.min(len, bytes.remaining());
+                bytes.put(b, off, size);
+                off += size;
+                len -= size;
+                newline |= decode(false);
+            }
+            afterWrite(newline);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Decodes the bytes in the buffer and writes the characters to the writer.
+     * Bytes of an incomplete character are left in the buffer unless endOfInput
+     * is true.
+     *
+     * @return true if a newline character has been written
+     */
+    private boolean decode(boolean endOfInput) throws IOException {
+        boolean newline = false;
+        bytes.flip();
+        while (true) {
+            CoderResult result = decoder.decode(bytes, chars, endOfInput);
+            if (result.isError()) {
+                throw new IOException(result.toString());
+            }
+            newline |= writeChars();
+            if (result.isUnderflow()) {
+                break;
+            }
+        }
+        bytes.compact();
+        if (endOfInput) {
+            decoder.flush(chars);
+            newline |= writeChars();
+            decoder.reset();
+            flushWriter();
         }
+        return newline;
     }
 
-    private void byte2char(ByteBuffer bytes, CharBuffer chars) throws IOException {
-        decoder.reset();
+    private boolean writeChars() throws IOException {
+        int length = chars.position();
+        if (length == 0) {
+            return false;
+        }
+        char[] array = chars.array();
+        boolean newline = false;
+        for (int i = 0; i < length && !newline; i++) {
+            newline = array[i] == '\n';
+        }
+        writer.write(array, 0, length);
+        unflushed += length;
         chars.clear();
-        CoderResult result = decoder.decode(bytes, chars, true);
-        if (result.isError() || result.isOverflow()) {
-            throw new IOException(result.toString());
-        } else if (result.isUnderflow()) {
-            chars.flip();
+        return newline;
+    }
+
+    private void afterWrite(boolean newline) throws IOException {
+        switch (flushPolicy) {
+            case ALWAYS:
+                flushWriter();
+                break;
+            case NEWLINE:
+                if (newline) {
+                    flushWriter();
+                }
+                break;
+            case THRESHOLD:
+                if (unflushed >= threshold) {
+                    flushWriter();
+                }
+                break;
+            default:
+                break;
         }
     }
+
+    private void flushWriter() throws IOException {
+        writer.flush();
+        unflushed = 0;
+    }
 }
@@ -0,0 +1,237 @@
+/**
+ * **** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 Yoko Harada <yokolet@gmail.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ * **** END LICENSE BLOCK *****
+ */
+package org.jruby.embed.jsr223;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.script.Bindings;
+import org.jruby.Ruby;
+import org.jruby.embed.LocalVariableBehavior;
+import org.jruby.embed.ScriptingContainer;
+import org.jruby.embed.internal.BiVariableMap;
+import org.jruby.embed.variable.BiVariable;
+import org.jruby.embed.variable.LocalGlobalVariable;
+import org.jruby.embed.variable.VariableInterceptor;
+import org.jruby.internal.runtime.ValueAccessor;
+import org.jruby.javasupport.JavaEmbedUtils;
+import org.jruby.runtime.IAccessor;
+import org.jruby.runtime.builtin.IRubyObject;
+
+/**
+ * Exposes Bindings given by a host to Ruby without copying them into a variable
+ * map. Each name in the bindings that is valid as a Ruby variable becomes a global
+ * variable whose accessor gets the value from the bindings and converts it only
+ * when a script reads the variable. After the evaluation, only variables the script
+ * assigned, and global variables the script newly defined, are written back to the
+ * bindings.
+ *
+ * <p>This adapter is used when a local variable behavior is GLOBAL, in which JSR 223
+ * names are mapped to Ruby's global variables. Accessors are defined on the runtime
+ * of the current local context and are kept in its attribute map, so that the same
+ * bindings evaluated again on the same runtime reuse them.
+ *
+ * @author Yoko Harada <yokolet@gmail.com>
+ */
+class BindingsAdapter {
+    static final String ADAPTER = "org.jruby.embed.jsr223.bindings_adapter";
+    private final ScriptingContainer container;
+    private final Bindings bindings;
+
+    BindingsAdapter(ScriptingContainer container, Bindings bindings) {
+        this.container = container;
+        this.bindings = bindings;
+    }
+
+    static boolean isApplicable(ScriptingContainer container) {
+        VariableInterceptor interceptor = container.getVarMap().getVariableInterceptor();
+        return interceptor.getLocalVariableBehavior() == LocalVariableBehavior.GLOBAL;
+    }
+
+    /**
+     * Defines accessors for names added to the bindings since the last evaluation,
+     * and forgets values converted in the last evaluation. This method should be
+     * invoked right before the evaluation on the runtime the evaluation uses.
+     */
+    void inject() {
+        Injection injection = getInjection(container);
+        if (injection == null || injection.bindings != bindings) {
+            if (injection != null) {
+                injection.detach();
+            }
+            injection = new Injection(bindings, container.getProvider().getRuntime(),
+                    container.getVarMap().getVariableInterceptor());
+            container.setAttribute(ADAPTER, injection);
+        }
+        injection.begin();
+    }
+
+    /**
+     * Writes values of modified variables back to the bindings. This method should
+     * be invoked after the evaluation.
+     */
+    void retrieve() {
+        Injection injection = getInjection(container);
+        if (injection != null && injection.bindings == bindings) {
+            injection.writeBack(container.getVarMap());
+        }
+    }
+
+    /**
+     * Turns variables defined by an adapter back to ordinary global variables on the
+     * runtime of the current local context.
+     *
+     * @param container is a container whose current local context is detached
+     */
+    static void detach(ScriptingContainer container) {
+        Injection injection = getInjection(container);
+        if (injection != null) {
+            injection.detach();
+            container.getAttributeMap().remove(ADAPTER);
+        }
+    }
+
+    private static Injection getInjection(ScriptingContainer container) {
+        Object obj = container.getAttributeMap().get(ADAPTER);
+        if (obj != null && obj instanceof Injection) {
+            return (Injection)obj;
+        }
+        return null;
+    }
+
+    /**
+     * Accessors of one bindings defined on one runtime.
+     */
+    private static class Injection {
+        private final Bindings bindings;
+        private final Ruby runtime;
+        private final VariableInterceptor interceptor;
+        private final Map<String, LazyGlobalVariable> globals = new HashMap<String, LazyGlobalVariable>();
+
+        private Injection(Bindings bindings, Ruby runtime, VariableInterceptor interceptor) {
+            this.bindings = bindings;
+            this.runtime = runtime;
+            this.interceptor = interceptor;
+        }
+
+        private void begin() {
+            for (Object key : bindings.keySet()) {
+                if (key instanceof String && !globals.containsKey(key) &&
+                        LocalGlobalVariable.isValidName((String)key)) {
+                    define((String)key);
+                }
+            }
+            for (LazyGlobalVariable global : globals.values()) {
+                global.reset();
+            }
+        }
+
+        private void define(String name) {
+            LazyGlobalVariable global = new LazyGlobalVariable(runtime, bindings, name);
+            runtime.getGlobalVariables().define("$" + name, global);
+            interceptor.excludeGlobalVariable("$" + name);
+            globals.put(name, global);
+        }
+
+        private void writeBack(BiVariableMap varMap) {
+            for (LazyGlobalVariable global : globals.values()) {
+                global.writeBack();
+            }
+            // global variables defined by the script are moved to the bindings
+            List<BiVariable> variables = varMap.getVariables();
+            if (variables.isEmpty()) {
+                return;
+            }
+            List<String> names = new ArrayList<String>(variables.size());
+            for (BiVariable var : variables) {
+                if (var.getType() == BiVariable.Type.GlobalVariable) {
+                    bindings.put(var.getName(), var.getJavaObject());
+                    names.add(var.getName());
+                }
+            }
+            varMap.clear();
+            for (String name : names) {
+                define(name);
+            }
+        }
+
+        private void detach() {
+            IRubyObject nil = runtime.getNil();
+            for (String name : globals.keySet()) {
+                runtime.getGlobalVariables().define("$" + name, new ValueAccessor(nil));
+                interceptor.includeGlobalVariable("$" + name);
+            }
+            globals.clear();
+        }
+    }
+
+    /**
+     * A global variable whose value is in the bindings.
+     */
+    private static class LazyGlobalVariable implements IAccessor {
+        private final Ruby runtime;
+        private final Bindings bindings;
+        private final String name;
+        private IRubyObject value = null;
+        private boolean modified = false;
+
+        private LazyGlobalVariable(Ruby runtime, Bindings bindings, String name) {
+            this.runtime = runtime;
+            this.bindings = bindings;
+            this.name = name;
+        }
+
+        public IRubyObject getValue() {
+            if (value == null) {
+                value = JavaEmbedUtils.javaToRuby(runtime, bindings.get(name));
+            }
+            return value;
+        }
+
+        public IRubyObject setValue(IRubyObject newValue) {
+            value = newValue;
+            modified = true;
+            return newValue;
+        }
+
+        private void reset() {
+            value = null;
+            modified = false;
+        }
+
+        private void writeBack() {
+            if (modified) {
+                bindings.put(name, JavaEmbedUtils.rubyToJava(value));
+                modified = false;
+            }
+        }
+    }
+}
@@ -29,32 +29,94 @@
  */
 package org.jruby.embed.jsr223;
 
-import java.util.ArrayList;
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
 import org.jruby.embed.ScriptingContainer;
 import java.util.Collection;
-import java.util.HashSet;
-import java.util.List;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import javax.script.Bindings;
 import org.jruby.embed.AttributeName;
+import org.jruby.embed.internal.BiVariableMap;
+import org.jruby.embed.variable.BiVariable;
 
 /**
+ * A live view of a variable map and an attribute map of a container, or of an
+ * engine when the engine is backed by a pool of runtimes. Nothing is
+ * copied on size, lookup or iteration. Sets and collections returned from this
+ * class are backed by both maps, so changes to the maps are reflected in them.
  *
  * @author Yoko Harada <yokolet@gmail.com>
  */
 public class JRubyBindings implements Bindings {
     private ScriptingContainer container;
+    private final BiVariableMap varMap;
+    private final Map attributes;
     public final static String BACKED_BINDING = "org.jruby.embed.jsr223.backed_bindings";
+    private final static Object[] internalKeys = {
+        BACKED_BINDING,
+        BindingsAdapter.ADAPTER,
+        AttributeName.READER,
+        AttributeName.WRITER,
+        AttributeName.ERROR_WRITER
+    };
 
     JRubyBindings(ScriptingContainer container) {
+        this(container, null);
+    }
+
+    /**
+     * Creates bindings that keep variables in a given variable map, and attributes
+     * in a map of their own, instead of the container's. Engines backed by a pool
+     * of runtimes use this, since the container's maps are shared by all engines.
+     *
+     * @param container is a container that evaluates scripts
+     * @param varMap is a variable map of an engine, or null to use the container's
+     */
+    JRubyBindings(ScriptingContainer container, BiVariableMap varMap) {
         this.container = container;
-        container.getVarMap().clear();
+        this.varMap = varMap;
+        attributes = varMap != null ? Collections.synchronizedMap(new HashMap()) : null;
+        getVarMap().clear();
+    }
+
+    private BiVariableMap getVarMap() {
+        return varMap != null ? varMap : container.getVarMap();
+    }
+
+    private Map getAttributeMap() {
+        return attributes != null ? attributes : container.getAttributeMap();
+    }
+
+    private Object getAttribute(Object key) {
+        return attributes != null ? attributes.get(key) : container.getAttribute(key);
+    }
+
+    private Object setAttribute(Object key, Object value) {
+        return attributes != null ? attributes.put(key, value) : container.setAttribute(key, value);
+    }
+
+    void setBackedBindings(Bindings bindings) {
+        setAttribute(BACKED_BINDING, bindings);
     }
 
     public int size() {
-        Set set = entrySet();
-        return set.size();
+        int size = getVarMap().size();
+        Map map = getAttributeMap();
+        if (map == null) {
+            return size;
+        }
+        size += map.size();
+        for (Object key : internalKeys) {
+            if (map.containsKey(key)) {
+                size--;
+            }
+        }
+        return size;
     }
 
     public boolean isEmpty() {
@@ -77,37 +139,40 @@ public class JRubyBindings implements Bindings {
     }
     
     public boolean containsKey(Object key) {
-        boolean isExist = container.getVarMap().containsKey(key);
+        boolean isExist = getVarMap().containsKey(key);
         if (!isExist) {
-            isExist = container.getAttributeMap().containsKey(key);
+            isExist = getAttributeMap().containsKey(key);
         }
         return isExist;
     }
 
     public boolean containsValue(Object value) {
-        boolean isExist = container.getVarMap().containsValue(value);
+        boolean isExist = getVarMap().containsValue(value);
         if (!isExist) {
-            isExist = container.getAttributeMap().containsValue(value);
+            isExist = getAttributeMap().containsValue(value);
         }
         return isExist;
     }
 
     public Object get(Object key) {
         checkKey(key);
-        Object obj = container.get((String)key);
+        BiVariable var = getVarMap().getVariable((String)key);
+        Object obj = var != null ? var.getJavaObject() : null;
         if (obj == null) {
-            obj = container.getAttribute(key);
+            obj = getAttribute(key);
         }
         return obj;
     }
 
     public Object put(String key, Object value) {
         checkKey(key);
-        Object oldValue = container.put(key, value);
-        if (container.get(key) == null) {
-            oldValue = container.setAttribute(key, value);
-            if (container.getAttributeMap().containsKey(BACKED_BINDING)) {
-                Bindings b = (Bindings) container.getAttribute(BACKED_BINDING);
+        BiVariableMap vars = getVarMap();
+        Object oldValue = vars.put(key, value);
+        if (!vars.containsKey(key)) {
+            // not a Ruby variable name
+            oldValue = setAttribute(key, value);
+            if (getAttributeMap().containsKey(BACKED_BINDING)) {
+                Bindings b = (Bindings) getAttribute(BACKED_BINDING);
                 b.put(key, value);
             }
         }
@@ -117,18 +182,22 @@ public class JRubyBindings implements Bindings {
     public Object remove(Object key) {
         checkKey(key);
         Object removedObj = null;
-        if (container.getVarMap().containsKey(key)) {
-            removedObj = container.getVarMap().remove(key);
-        } else if (container.getAttributeMap().containsKey(key)) {
-            removedObj = container.getAttributeMap().remove(key);
-            if (container.getAttributeMap().containsKey(BACKED_BINDING)) {
-                Bindings b = (Bindings) container.getAttribute(BACKED_BINDING);
-                b.remove(key);
-            }
+        if (getVarMap().containsKey(key)) {
+            removedObj = getVarMap().remove(key);
+        } else if (getAttributeMap().containsKey(key)) {
+            removedObj = getAttributeMap().remove(key);
+            removeFromBackedBindings(key);
         }
         return removedObj;
     }
 
+    private void removeFromBackedBindings(Object key) {
+        if (getAttributeMap().containsKey(BACKED_BINDING)) {
+            Bindings b = (Bindings) getAttribute(BACKED_BINDING);
+            b.remove(key);
+        }
+    }
+
     public void putAll(Map t) {
         if (t == null) {
             throw new NullPointerException("map is null");
@@ -141,77 +210,184 @@ public class JRubyBindings implements Bindings {
     }
 
     public void clear() {
-        container.getVarMap().clear();
-        Map map = container.getAttributeMap();
+        getVarMap().clear();
+        Map map = getAttributeMap();
         if (map == null) {
             return;
         }
-        List eliminateList = new ArrayList();
-        for (Object key : map.keySet()) {
-            if (isEligibleKey(key)) {
-                eliminateList.add(key);
+        Iterator itr = map.keySet().iterator();
+        while (itr.hasNext()) {
+            if (isEligibleKey(itr.next())) {
+                itr.remove();
             }
         }
-        for (Object key : eliminateList) {
-            map.remove(key);
-        }
     }
 
     public Set keySet() {
-        Set keys = new HashSet();
-        Set<Map.Entry> entries = entrySet();
-        if (entries != null) {
-            for (Map.Entry entry : entries) {
-                keys.add(entry.getKey());
+        return new AbstractSet() {
+            public Iterator iterator() {
+                return new BindingsIterator(BindingsIterator.KEY);
             }
-        }
-        keys.addAll(container.getVarMap().keySet());
-        return keys;
+
+            public int size() {
+                return JRubyBindings.this.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof String && ((String)o).length() > 0 && containsKey(o);
+            }
+        };
     }
 
     public Collection values() {
-        Collection values = new HashSet();
-        Set<Map.Entry> entries = entrySet();
-        if (entries != null) {
-            for (Map.Entry entry : entries) {
-                values.add(entry.getValue());
+        return new AbstractCollection() {
+            public Iterator iterator() {
+                return new BindingsIterator(BindingsIterator.VALUE);
             }
-        }
-        values.addAll(container.getVarMap().values());
-        return values;
+
+            public int size() {
+                return JRubyBindings.this.size();
+            }
+        };
     }
 
     public Set entrySet() {
-        Set set = new HashSet();
-        Set<Map.Entry> s = container.getVarMap().entrySet();
-        if (s != null) {
-            for (Map.Entry entry : s) {
-                set.add(entry);
+        return new AbstractSet() {
+            public Iterator iterator() {
+                return new BindingsIterator(BindingsIterator.ENTRY);
             }
-        }
-        s = container.getAttributeMap().entrySet();
-        if (s != null) {
-            for (Map.Entry entry : s) {
-                if (isEligibleKey(entry.getKey())) {
-                    set.add(entry);
-                }
+
+            public int size() {
+                return JRubyBindings.this.size();
             }
-        }
-        return set;
+        };
     }
 
     private boolean isEligibleKey(Object k) {
-        Object[] keys = {
-            BACKED_BINDING,
-            AttributeName.READER,
-            AttributeName.WRITER,
-            AttributeName.ERROR_WRITER
-        };
-        for (Object key : keys) {
+        for (Object key : internalKeys) {
             if (k == key) {
                 return false;
             }
         }
         return true;
     }
-}
\ No newline at end of file
+
+    /**
+     * Iterates over variables first, then over attributes except internal ones.
+     * Variables are iterated over the variable map's current snapshot, and
+     * attributes over the attribute map itself.
+     */
+    private class BindingsIterator implements Iterator {
+        private static final int KEY = 0;
+        private static final int VALUE = 1;
+        private static final int ENTRY = 2;
+        private final int type;
+        private final Iterator entries;
+        private Iterator attributes;
+        private Map.Entry next = null;
+        private Map.Entry last = null;
+        private boolean lastIsAttribute = false;
+
+        private BindingsIterator(int type) {
+            this.type = type;
+            Set set = getVarMap().entrySet();
+            entries = set != null ? set.iterator() : null;
+            Map map = getAttributeMap();
+            attributes = map != null ? map.entrySet().iterator() : null;
+        }
+
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+            if (entries != null && entries.hasNext()) {
+                next = (Map.Entry) entries.next();
+                return true;
+            }
+            while (attributes != null && attributes.hasNext()) {
+                Map.Entry entry = (Map.Entry) attributes.next();
+                if (isEligibleKey(entry.getKey())) {
+                    next = new AttributeEntry(entry);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public Object next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            last = next;
+            next = null;
+            lastIsAttribute = last instanceof AttributeEntry;
+            if (type == KEY) {
+                return last.getKey();
+            } else if (type == VALUE) {
+                return last.getValue();
+            }
+            return last;
+        }
+
+        public void remove() {
+            if (last == null) {
+                throw new IllegalStateException();
+            }
+            if (!lastIsAttribute) {
+                // variables are iterated over a snapshot
+                getVarMap().remove(last.getKey());
+            } else if (next == null) {
+                attributes.remove();
+                removeFromBackedBindings(last.getKey());
+            } else {
+                // hasNext() has moved the attribute iterator beyond the last element
+                throw new IllegalStateException();
+            }
+            last = null;
+        }
+    }
+
+    /**
+     * An attribute whose value is also set to backed bindings.
+     */
+    private class AttributeEntry implements Map.Entry {
+        private final Map.Entry entry;
+
+        private AttributeEntry(Map.Entry entry) {
+            this.entry = entry;
+        }
+
+        public Object getKey() {
+            return entry.getKey();
+        }
+
+        public Object getValue() {
+            return entry.getValue();
+        }
+
+        public Object setValue(Object value) {
+            Object oldValue = entry.setValue(value);
+            if (getAttributeMap().containsKey(BACKED_BINDING)) {
+                Bindings b = (Bindings) getAttribute(BACKED_BINDING);
+                b.put((String)entry.getKey(), value);
+            }
+            return oldValue;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return entry.equals(o);
+        }
+
+        @Override
+        public int hashCode() {
+            return entry.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return entry.toString();
+        }
+    }
+}
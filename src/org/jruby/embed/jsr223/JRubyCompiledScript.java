@@ -37,6 +37,7 @@ import javax.script.CompiledScript;
 import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptException;
+import org.jruby.Ruby;
 import org.jruby.RubyNil;
 import org.jruby.embed.EvalFailedException;
 import org.jruby.embed.ScriptingContainer;
@@ -52,12 +53,19 @@ public class JRubyCompiledScript extends CompiledScript {
     private ScriptingContainer container;
     private JRubyEngine engine;
     private final EvalUnit unit;
+    private final Ruby runtime;
 
     JRubyCompiledScript(ScriptingContainer container,
             JRubyEngine engine, String script) {
         this.container = container;
         this.engine = engine;
-        unit = container.parse(script);
+        engine.checkout(null);
+        try {
+            unit = container.parse(script);
+            runtime = container.getProvider().getRuntime();
+        } finally {
+            engine.checkin();
+        }
     }
 
     JRubyCompiledScript(ScriptingContainer container,
@@ -65,12 +73,27 @@ public class JRubyCompiledScript extends CompiledScript {
         this.container = container;
         this.engine = engine;
         String filename = System.getProperty(ScriptEngine.FILENAME);
-        unit = container.parse(reader, filename, Utils.getLineNumber(engine));
+        engine.checkout(null);
+        try {
+            unit = container.parse(reader, filename, Utils.getLineNumber(engine));
+            runtime = container.getProvider().getRuntime();
+        } finally {
+            engine.checkin();
+        }
     }
-    
+
     public Object eval(ScriptContext context) throws ScriptException {
+        JRubyContext jrubyContext = (JRubyContext)engine.getContext();
+        // bindings are prepared on the runtime the script was parsed on
+        engine.checkout(runtime);
         try {
-            IRubyObject ret = unit.run();
+            IRubyObject ret;
+            jrubyContext.injectBindings();
+            try {
+                ret = unit.run();
+            } finally {
+                jrubyContext.retrieveBindings();
+            }
             if (!(ret instanceof RubyNil)) {
                 return JavaEmbedUtils.rubyToJava(ret);
             }
@@ -91,6 +114,8 @@ public class JRubyCompiledScript extends CompiledScript {
             } else {
                 throw new ScriptException(e);
             }
+        } finally {
+            engine.checkin();
         }
     }
 
@@ -41,6 +41,7 @@ import javax.script.Bindings;
 import javax.script.ScriptContext;
 import javax.script.SimpleBindings;
 import org.jruby.embed.ScriptingContainer;
+import org.jruby.embed.internal.BiVariableMap;
 
 /**
  *
@@ -48,9 +49,11 @@ import org.jruby.embed.ScriptingContainer;
  */
 class JRubyContext implements ScriptContext {
     private ScriptingContainer container;
+    private final BiVariableMap store;
     private final List<Integer> scopeList;
     private SimpleBindings globalMap = null;
-    private JRubyBindings engineMap;
+    private Bindings engineMap;
+    private BindingsAdapter adapter = null;
 
     public enum Scope {
 
@@ -68,13 +71,25 @@ class JRubyContext implements ScriptContext {
     }
 
     JRubyContext(ScriptingContainer container) {
+        this(container, null);
+    }
+
+    /**
+     * Creates a context whose engine scope keeps variables in a given variable
+     * map instead of the container's.
+     *
+     * @param container is a container that evaluates scripts
+     * @param store is a variable map of an engine, or null to use the container's
+     */
+    JRubyContext(ScriptingContainer container, BiVariableMap store) {
         this.container = container;
+        this.store = store;
         List<Integer> list = new ArrayList<Integer>();
         for (Scope scope : Scope.values()) {
             list.add(scope.getPriority());
         }
         scopeList = Collections.unmodifiableList(list);
-        engineMap = new JRubyBindings(container);
+        engineMap = new JRubyBindings(container, store);
     }
 
     private void checkName(String name) {
@@ -174,10 +189,20 @@ class JRubyContext implements ScriptContext {
         }
         if (scope == Scope.ENGINE.getPriority()) {
             if (bindings instanceof JRubyBindings) {
+                BindingsAdapter.detach(container);
+                adapter = null;
                 engineMap = (JRubyBindings) bindings;
+            } else if (store == null && BindingsAdapter.isApplicable(container)) {
+                // values are resolved lazily when a script refers to them
+                container.getVarMap().clear();
+                container.getAttributeMap().remove(JRubyBindings.BACKED_BINDING);
+                adapter = new BindingsAdapter(container, bindings);
+                engineMap = bindings;
             } else {
-                JRubyBindings b = new JRubyBindings(container);
-                container.setAttribute(JRubyBindings.BACKED_BINDING, bindings);
+                BindingsAdapter.detach(container);
+                adapter = null;
+                JRubyBindings b = new JRubyBindings(container, store);
+                b.setBackedBindings(bindings);
                 Set<Map.Entry<String, Object>> s = bindings.entrySet();
                 Iterator itr = s.iterator();
                 while (itr.hasNext()) {
@@ -206,6 +231,25 @@ class JRubyContext implements ScriptContext {
         }
     }
 
+    /**
+     * Prepares bindings given by a host before the evaluation. Only bindings other
+     * than JRubyBindings need this.
+     */
+    void injectBindings() {
+        if (adapter != null) {
+            adapter.inject();
+        }
+    }
+
+    /**
+     * Writes variables modified by the evaluation back to bindings given by a host.
+     */
+    void retrieveBindings() {
+        if (adapter != null) {
+            adapter.retrieve();
+        }
+    }
+
     public void setErrorWriter(Writer errorWriter) {
         if (errorWriter == null) {
             return;
@@ -43,7 +43,11 @@ import javax.script.ScriptEngine;
 import javax.script.ScriptEngineFactory;
 import javax.script.ScriptException;
 import javax.script.SimpleBindings;
+import org.jruby.Ruby;
 import org.jruby.embed.EmbedEvalUnit;
+import org.jruby.embed.LocalVariableBehavior;
+import org.jruby.embed.internal.BiVariableMap;
+import org.jruby.embed.internal.PooledLocalContextProvider;
 import org.jruby.javasupport.JavaEmbedUtils;
 import org.jruby.runtime.builtin.IRubyObject;
 
@@ -54,13 +58,23 @@ import org.jruby.runtime.builtin.IRubyObject;
 public class JRubyEngine implements Compilable, Invocable, ScriptEngine {
 
     private final ScriptingContainer container;
+    private final BiVariableMap store;
     private JRubyEngineFactory factory;
     private JRubyContext context;
 
     JRubyEngine(ScriptingContainer container, JRubyEngineFactory factory) {
         this.container = container;
         this.factory = factory;
-        context = new JRubyContext(container);
+        if (container.getProvider() instanceof PooledLocalContextProvider) {
+            // pooled runtimes are shared by all engines, so each engine keeps
+            // its own variables, which are put to a runtime on checkout
+            LocalVariableBehavior behavior =
+                    container.getVarMap().getVariableInterceptor().getLocalVariableBehavior();
+            store = new BiVariableMap(null, behavior);
+        } else {
+            store = null;
+        }
+        context = new JRubyContext(container, store);
     }
 
     public CompiledScript compile(String script) throws ScriptException {
@@ -82,12 +96,60 @@ public class JRubyEngine implements Compilable, Invocable, ScriptEngine {
             throw new NullPointerException("either script or context is null");
         }
         setContext(context);
+        return evaluate(script);
+    }
+
+    private Object evaluate(String script) throws ScriptException {
+        checkout();
+        try {
+            context.injectBindings();
+            try {
+                EmbedEvalUnit unit = container.parse(script, Utils.getLineNumber(this));
+                IRubyObject ret = unit.run();
+                return JavaEmbedUtils.rubyToJava(ret);
+            } finally {
+                context.retrieveBindings();
+            }
+        } catch (Exception e) {
+            throw wrapException(e);
+        } finally {
+            checkin();
+        }
+    }
+
+    private Object evaluate(Reader reader, String filename) throws ScriptException {
+        checkout();
         try {
-            EmbedEvalUnit unit = container.parse(script, Utils.getLineNumber(this));
-            IRubyObject ret = unit.run();
-            return JavaEmbedUtils.rubyToJava(ret);
+            context.injectBindings();
+            try {
+                EmbedEvalUnit unit = container.parse(reader, filename, Utils.getLineNumber(this));
+                IRubyObject ret = unit.run();
+                return JavaEmbedUtils.rubyToJava(ret);
+            } finally {
+                context.retrieveBindings();
+            }
         } catch (Exception e) {
             throw wrapException(e);
+        } finally {
+            checkin();
+        }
+    }
+
+    private void checkout() {
+        checkout(null);
+    }
+
+    // parsing and evaluation run on the same pooled runtime, which has variables
+    // of this engine
+    void checkout(Ruby runtime) {
+        if (container.getProvider() instanceof PooledLocalContextProvider) {
+            ((PooledLocalContextProvider)container.getProvider()).checkout(runtime, store);
+        }
+    }
+
+    void checkin() {
+        if (container.getProvider() instanceof PooledLocalContextProvider) {
+            ((PooledLocalContextProvider)container.getProvider()).checkin();
         }
     }
 
@@ -115,26 +177,14 @@ public class JRubyEngine implements Compilable, Invocable, ScriptEngine {
         }
         setContext(context);
         String filename = (String) context.getAttribute(ScriptEngine.FILENAME);
-        try {
-            EmbedEvalUnit unit = container.parse(reader, filename, Utils.getLineNumber(this));
-            IRubyObject ret = unit.run();
-            return JavaEmbedUtils.rubyToJava(ret);
-        } catch (Exception e) {
-            throw wrapException(e);
-        }
+        return evaluate(reader, filename);
     }
 
     public Object eval(String script) throws ScriptException {
         if (script == null) {
             throw new NullPointerException("script is null");
         }
-        try {
-            EmbedEvalUnit unit = container.parse(script, Utils.getLineNumber(this));
-            IRubyObject ret = unit.run();
-            return JavaEmbedUtils.rubyToJava(ret);
-        } catch (Exception e) {
-            throw wrapException(e);
-        }
+        return evaluate(script);
     }
 
     public Object eval(Reader reader) throws ScriptException {
@@ -142,13 +192,7 @@ public class JRubyEngine implements Compilable, Invocable, ScriptEngine {
             throw new NullPointerException("reader is null");
         }
         String filename = (String) getContext().getAttribute(ScriptEngine.FILENAME);
-        try {
-            EmbedEvalUnit unit = container.parse(reader, filename, Utils.getLineNumber(this));
-            IRubyObject ret = unit.run();
-            return JavaEmbedUtils.rubyToJava(ret);
-        } catch (Exception e) {
-            throw wrapException(e);
-        }
+        return evaluate(reader, filename);
     }
 
     public Object eval(String script, Bindings bindings) throws ScriptException {
@@ -156,13 +200,7 @@ public class JRubyEngine implements Compilable, Invocable, ScriptEngine {
             throw new NullPointerException("either script or bindings is null");
         }
         getContext().setBindings(bindings, ScriptContext.ENGINE_SCOPE);
-        try {
-            EmbedEvalUnit unit = container.parse(script, Utils.getLineNumber(this));
-            IRubyObject ret = unit.run();
-            return JavaEmbedUtils.rubyToJava(ret);
-        } catch (Exception e) {
-            throw wrapException(e);
-        }
+        return evaluate(script);
     }
 
     public Object eval(Reader reader, Bindings bindings) throws ScriptException {
@@ -171,13 +209,7 @@ public class JRubyEngine implements Compilable, Invocable, ScriptEngine {
         }
         getContext().setBindings(bindings, ScriptContext.ENGINE_SCOPE);
         String filename = (String) getContext().getAttribute(ScriptEngine.FILENAME);
-        try {
-            EmbedEvalUnit unit = container.parse(reader, filename, Utils.getLineNumber(this));
-            IRubyObject ret = unit.run();
-            return JavaEmbedUtils.rubyToJava(ret);
-        } catch (Exception e) {
-            throw wrapException(e);
-        }
+        return evaluate(reader, filename);
     }
 
     public Object get(String key) {
@@ -211,7 +243,7 @@ public class JRubyEngine implements Compilable, Invocable, ScriptEngine {
         if (ctx instanceof JRubyContext) {
             context = (JRubyContext)ctx;
         } else {
-            context = new JRubyContext(container);
+            context = new JRubyContext(container, store);
             // This causes a trouble since a standard input will be changed.
             // A program would wait new input.
             //context.setReader(ctx.getReader());
@@ -239,17 +271,39 @@ public class JRubyEngine implements Compilable, Invocable, ScriptEngine {
         if (receiver == null) {
             throw new NullPointerException("receiver is null");
         }
+        return invoke(receiver, method, args);
+    }
+
+    // methods run with bindings of this engine just like evaluations
+    private Object invoke(Object receiver, String method, Object[] args)
+            throws ScriptException, NoSuchMethodException {
+        checkout(getRuntime(receiver));
         try {
-            if (args == null || args.length == 0) {
-                return container.callMethod(receiver, method, Object.class);
+            context.injectBindings();
+            try {
+                if (args == null || args.length == 0) {
+                    return container.callMethod(receiver, method, Object.class);
+                }
+                return container.callMethod(receiver, method, args, Object.class);
+            } finally {
+                context.retrieveBindings();
             }
-            return container.callMethod(receiver, method, args, Object.class);
         } catch (Exception e) {
-            if (e.getCause().getMessage().contains("undefined method")) {
+            if (e.getCause() != null && e.getCause().getMessage() != null &&
+                    e.getCause().getMessage().contains("undefined method")) {
                 throw wrapMethodException(e);
             }
             throw wrapException(e);
+        } finally {
+            checkin();
+        }
+    }
+
+    private static Ruby getRuntime(Object receiver) {
+        if (receiver instanceof IRubyObject) {
+            return ((IRubyObject)receiver).getRuntime();
         }
+        return null;
     }
 
     private NoSuchMethodException wrapMethodException(Exception e) {
@@ -271,17 +325,7 @@ public class JRubyEngine implements Compilable, Invocable, ScriptEngine {
         if (method == null) {
             throw new NullPointerException("method is null");
         }
-        try {
-            if (args == null || args.length == 0) {
-                return container.callMethod(null, method, Object.class);
-            }
-            return container.callMethod(null, method, args, Object.class);
-        } catch (Exception e) {
-            if (e.getCause().getMessage().contains("undefined method")) {
-                throw wrapMethodException(e);
-            }
-            throw wrapException(e);
-        }
+        return invoke(null, method, args);
     }
 
     public <T> T getInterface(Class<T> returnType) {
@@ -289,6 +333,16 @@ public class JRubyEngine implements Compilable, Invocable, ScriptEngine {
     }
 
     public <T> T getInterface(Object receiver, Class<T> returnType) {
-        return container.getInstance(receiver, returnType);
+        checkout(getRuntime(receiver));
+        try {
+            context.injectBindings();
+            try {
+                return container.getInstance(receiver, returnType);
+            } finally {
+                context.retrieveBindings();
+            }
+        } finally {
+            checkin();
+        }
     }
 }
@@ -43,11 +43,29 @@ import org.jruby.embed.LocalVariableBehavior;
 import org.jruby.embed.util.SystemPropertyCatcher;
 
 /**
+ * A factory of {@link JRubyEngine}. Engines created by the same factory share a
+ * container, so how runtimes and variables are shared is decided by the local
+ * context scope given by the System property, org.jruby.embed.localcontext.scope.
+ *
+ * <p>When the scope is pooled or concurrent, engines are backed by a bounded pool
+ * of runtimes. Each evaluation checks out a runtime for parsing and evaluation
+ * and returns it to the pool afterwards, so any number of engines and threads
+ * can be served by the maximum pool size of runtimes. Each engine keeps its own
+ * engine scope bindings, which are put to the runtime on checkout and updated
+ * on return, so a value put on one thread is seen by an evaluation of the same
+ * engine on any other thread. The THREADING parameter reflects the scope in use:
+ * <pre>
+ *     singlethread           null (not thread safe)
+ *     singleton              MULTITHREADED
+ *     threadsafe             THREAD-ISOLATED (bindings and runtimes belong to threads)
+ *     pooled, concurrent     MULTITHREADED (bindings belong to engines, and
+ *                            definitions stay on the runtime that evaluated them)</pre>
  *
  * @author Yoko Harada <yokolet@gmail.com>
  */
 public class JRubyEngineFactory implements ScriptEngineFactory {
     private static final String jsr223Props = "org/jruby/embed/jsr223/Jsr223JRubyEngine.properties";
+    private final LocalContextScope scope;
     private final ScriptingContainer container;
     private final String engineName;
     private final String engineVersion;
@@ -60,7 +78,7 @@ public class JRubyEngineFactory implements ScriptEngineFactory {
     //private final ScriptEngine engine;
 
     public JRubyEngineFactory() {
-        LocalContextScope scope = SystemPropertyCatcher.getScope(LocalContextScope.THREADSAFE);
+        scope = SystemPropertyCatcher.getScope(LocalContextScope.THREADSAFE);
         LocalVariableBehavior behavior = SystemPropertyCatcher.getBehavior(LocalVariableBehavior.GLOBAL);
         container = new ScriptingContainer(scope, behavior, jsr223Props);
         SystemPropertyCatcher.setConfiguration(container);
@@ -102,10 +120,24 @@ public class JRubyEngineFactory implements ScriptEngineFactory {
         map.put(ScriptEngine.NAME, getEngineName());
         map.put(ScriptEngine.LANGUAGE, getLanguageName());
         map.put(ScriptEngine.LANGUAGE_VERSION, getLanguageVersion());
-        map.put("THREADING", "THREAD-ISOLATED");
+        map.put("THREADING", getThreading(scope));
         return map;
     }
 
+    private static String getThreading(LocalContextScope scope) {
+        switch (scope) {
+            case SINGLETHREAD :
+                return null;
+            case THREADSAFE :
+                return "THREAD-ISOLATED";
+            default :
+                // threads of singleton share a runtime and its variables. Threads
+                // of pooled and concurrent share engine bindings, while Ruby state
+                // such as classes is visible only to threads that get the same runtime
+                return "MULTITHREADED";
+        }
+    }
+
     public String getEngineName() {
         return engineName;
     }
@@ -186,4 +218,17 @@ public class JRubyEngineFactory implements ScriptEngineFactory {
         return (ScriptEngine)engine;
     }
 
+    /**
+     * Returns a local context scope of engines created by this factory.
+     *
+     * @return a local context scope
+     */
+    public LocalContextScope getScope() {
+        return scope;
+    }
+
+    ScriptingContainer getContainer() {
+        return container;
+    }
+
 }
@@ -55,7 +55,7 @@ public class SystemPropertyCatcher {
      * PropertyName.LOCALCONTEXT_SCOPE, given default value is applied.
      *
      * @param defaultScope a default scope.
-     * @return one of three local context scopes.
+     * @return one of four local context scopes.
      */
     public static LocalContextScope getScope(LocalContextScope defaultScope) {
         LocalContextScope scope = defaultScope;
@@ -69,6 +69,10 @@ public class SystemPropertyCatcher {
             return LocalContextScope.SINGLETON;
         } else if ("threadsafe".equalsIgnoreCase(s)) {
             return LocalContextScope.THREADSAFE;
+        } else if ("pooled".equalsIgnoreCase(s)) {
+            return LocalContextScope.POOLED;
+        } else if ("concurrent".equalsIgnoreCase(s)) {
+            return LocalContextScope.CONCURRENT;
         }
         return scope;
     }
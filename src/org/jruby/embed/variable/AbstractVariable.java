@@ -30,7 +30,12 @@
 package org.jruby.embed.variable;
 
 import org.jruby.Ruby;
+import org.jruby.RubyBignum;
+import org.jruby.RubyBoolean;
+import org.jruby.RubyFixnum;
+import org.jruby.RubyFloat;
 import org.jruby.RubyModule;
+import org.jruby.RubySymbol;
 import org.jruby.javasupport.JavaEmbedUtils;
 import org.jruby.parser.StaticScope;
 import org.jruby.runtime.ThreadContext;
@@ -45,6 +50,9 @@ abstract class AbstractVariable implements BiVariable {
     protected Object javaObject = null;
     protected Class javaType = null;
     protected IRubyObject irubyObject = null;
+    private Ruby runtime = null;
+    private boolean javaStale = false;
+    private boolean rubyStale = false;
 
     protected AbstractVariable(Ruby runtime, String name, Object... values) {
         this.name = name;
@@ -60,9 +68,22 @@ abstract class AbstractVariable implements BiVariable {
         }
     }
 
-    protected void updateJavaObject(Ruby runtime, Object javaObject) {
+    /**
+     * Sets a Java object. The Ruby object is converted from this Java object
+     * when it is requested next time.
+     */
+    protected synchronized void updateJavaObject(Ruby runtime, Object javaObject) {
+        if (rubyStale) {
+            ConversionStatistics.javaToRubySaved();
+        }
+        if (javaStale) {
+            ConversionStatistics.rubyToJavaSaved();
+        }
         this.javaObject = javaObject;
-        this.irubyObject = JavaEmbedUtils.javaToRuby(runtime, javaObject);
+        this.runtime = runtime;
+        this.irubyObject = null;
+        javaStale = false;
+        rubyStale = true;
     }
 
     protected AbstractVariable(String name, IRubyObject rubyObject) {
@@ -70,29 +91,74 @@ abstract class AbstractVariable implements BiVariable {
         updateRubyObject(rubyObject);
     }
 
-    protected void updateRubyObject(IRubyObject rubyObject) {
+    /**
+     * Sets a Ruby object. The Java object is converted from an immutable Ruby
+     * object, a frozen object, a module or a class when it is requested next
+     * time, and the same one retrieved again is not converted again. Other Ruby
+     * objects are converted right away, since a script may change them, or their
+     * runtime may have been terminated, before the Java object is requested.
+     */
+    protected synchronized void updateRubyObject(IRubyObject rubyObject) {
         if (rubyObject == null) {
             return;
         }
+        boolean lazy = isLazy(rubyObject);
+        if (lazy && rubyObject == irubyObject && !rubyStale) {
+            ConversionStatistics.rubyToJavaSaved();
+            return;
+        }
+        if (javaStale) {
+            ConversionStatistics.rubyToJavaSaved();
+        }
+        if (rubyStale) {
+            ConversionStatistics.javaToRubySaved();
+        }
         this.irubyObject = rubyObject;
-        Ruby rt = rubyObject.getRuntime();
+        rubyStale = false;
+        javaStale = true;
+        if (!lazy) {
+            convertRubyToJava();
+        }
+    }
+
+    // modules and classes are referred to, not copied, by their Java objects
+    private static boolean isLazy(IRubyObject rubyObject) {
+        return rubyObject.isNil() || rubyObject instanceof RubyBoolean ||
+                rubyObject instanceof RubyFixnum || rubyObject instanceof RubyFloat ||
+                rubyObject instanceof RubyBignum || rubyObject instanceof RubySymbol ||
+                rubyObject instanceof RubyModule || rubyObject.isFrozen();
+    }
+
+    private void convertRubyToJava() {
+        Ruby rt = irubyObject.getRuntime();
         if (javaType != null) {
             // Java originated varibales
-            this.javaObject = javaType.cast(JavaEmbedUtils.rubyToJava(rt, rubyObject, javaType));
+            this.javaObject = javaType.cast(JavaEmbedUtils.rubyToJava(rt, irubyObject, javaType));
         } else {
             // Ruby originated variables
-            this.javaObject = JavaEmbedUtils.rubyToJava(rubyObject);
+            this.javaObject = JavaEmbedUtils.rubyToJava(irubyObject);
             if (this.javaObject != null) {
                 this.javaType = this.javaObject.getClass();
             }
         }
+        javaStale = false;
+        ConversionStatistics.rubyToJavaConverted();
+    }
+
+    private void convertJavaToRuby() {
+        this.irubyObject = JavaEmbedUtils.javaToRuby(runtime, javaObject);
+        rubyStale = false;
+        ConversionStatistics.javaToRubyConverted();
     }
 
     public String getName() {
         return name;
     }
 
-    public Object getJavaObject() {
+    public synchronized Object getJavaObject() {
+        if (javaStale) {
+            convertRubyToJava();
+        }
         return javaObject;
     }
 
@@ -100,7 +166,10 @@ abstract class AbstractVariable implements BiVariable {
         updateJavaObject(runtime, javaObject);
     }
 
-    public IRubyObject getRubyObject() {
+    public synchronized IRubyObject getRubyObject() {
+        if (rubyStale) {
+            convertJavaToRuby();
+        }
         return irubyObject;
     }
 
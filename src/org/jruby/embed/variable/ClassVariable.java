@@ -42,7 +42,6 @@ import org.jruby.runtime.builtin.IRubyObject;
  * @author Yoko Harada <yokolet@gmail.com>
  */
 public class ClassVariable extends AbstractVariable {
-    private static String pattern = "@@([a-zA-Z]|_)([a-zA-Z]|_|\\d)*";
 
     /**
      * Returns an instance of this class. This factory method is used when a class
@@ -54,13 +53,13 @@ public class ClassVariable extends AbstractVariable {
      * @return the instance of ClassVariable
      */
     public static BiVariable getInstance(Ruby runtime, String name, Object... javaObject) {
-        if (name.matches(pattern)) {
+        if (NameClassifier.is(name, Type.ClassVariable)) {
             return new ClassVariable(runtime, name, javaObject);
         }
         return null;
     }
     
-    private ClassVariable(Ruby runtime, String name, Object... javaObject) {
+    ClassVariable(Ruby runtime, String name, Object... javaObject) {
         super(runtime, name, javaObject);
     }
 
@@ -116,7 +115,7 @@ public class ClassVariable extends AbstractVariable {
      * @return true if the given name is of a Ruby class variable.
      */
     public static boolean isValidName(String name) {
-        if (name.matches(pattern)) {
+        if (NameClassifier.is(name, Type.ClassVariable)) {
             return true;
         } else {
             return false;
@@ -132,7 +131,7 @@ public class ClassVariable extends AbstractVariable {
      */
     public void inject(Ruby runtime, IRubyObject receiver) {
         RubyModule rubyClass = getRubyClass(runtime);
-        rubyClass.setClassVar(name, irubyObject);
+        rubyClass.setClassVar(name, getRubyObject());
     }
 
     /**
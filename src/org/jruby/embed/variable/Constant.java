@@ -41,7 +41,6 @@ import org.jruby.runtime.builtin.IRubyObject;
  * @author Yoko Harada <yokolet@gmail.com>
  */
 public class Constant extends AbstractVariable {
-    private static String pattern = "[A-Z]([a-zA-Z]|_)([a-zA-Z]|_|\\d)*";
     private boolean initialized = false;
 
     /**
@@ -54,13 +53,13 @@ public class Constant extends AbstractVariable {
      * @return the instance of Constant
      */
     public static BiVariable getInstance(Ruby runtime, String name, Object... javaObject) {
-        if (name.matches(pattern)) {
+        if (NameClassifier.is(name, Type.Constant)) {
             return new Constant(runtime, name, javaObject);
         }
         return null;
     }
     
-    private Constant(Ruby runtime, String name, Object... javaObject) {
+    Constant(Ruby runtime, String name, Object... javaObject) {
         super(runtime, name, javaObject);
     }
 
@@ -121,7 +120,7 @@ public class Constant extends AbstractVariable {
      * @return true if the given name is of a Ruby constant.
      */
     public static boolean isValidName(String name) {
-        if (name.matches(pattern)) {
+        if (NameClassifier.is(name, Type.Constant)) {
             return true;
         } else {
             return false;
@@ -141,10 +140,10 @@ public class Constant extends AbstractVariable {
         }
         RubyModule rubyClass = getRubyClass(runtime);
         if (rubyClass != null) {
-          rubyClass.setConstant(name, irubyObject);
+          rubyClass.setConstant(name, getRubyObject());
         } else {
           RubyModule module = runtime.getCurrentContext().getRubyClass();
-          module.setConstant(name, irubyObject);
+          module.setConstant(name, getRubyObject());
         }
         initialized = true;
     }
@@ -0,0 +1,119 @@
+/**
+ * **** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 Yoko Harada <yokolet@gmail.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ * **** END LICENSE BLOCK *****
+ */
+package org.jruby.embed.variable;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of conversions between Java and Ruby objects that {@link BiVariable}s
+ * have done. Values of variables are converted lazily, only when the other side
+ * is requested. A conversion is counted as saved when a value that had never been
+ * converted is overwritten.
+ * <pre>
+ *         ConversionStatistics.reset();
+ *         container.runScriptlet(script);
+ *         System.out.println(ConversionStatistics.getRubyToJavaSavedCount() +
+ *                 " conversions from Ruby to Java were skipped.");</pre>
+ *
+ * @author Yoko Harada <yokolet@gmail.com>
+ */
+public class ConversionStatistics {
+    private static final AtomicLong javaToRubyConverted = new AtomicLong();
+    private static final AtomicLong rubyToJavaConverted = new AtomicLong();
+    private static final AtomicLong javaToRubySaved = new AtomicLong();
+    private static final AtomicLong rubyToJavaSaved = new AtomicLong();
+
+    private ConversionStatistics() {
+    }
+
+    static void javaToRubyConverted() {
+        javaToRubyConverted.incrementAndGet();
+    }
+
+    static void rubyToJavaConverted() {
+        rubyToJavaConverted.incrementAndGet();
+    }
+
+    static void javaToRubySaved() {
+        javaToRubySaved.incrementAndGet();
+    }
+
+    static void rubyToJavaSaved() {
+        rubyToJavaSaved.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of Java objects converted to Ruby objects.
+     *
+     * @return the number of conversions from Java to Ruby
+     */
+    public static long getJavaToRubyCount() {
+        return javaToRubyConverted.get();
+    }
+
+    /**
+     * Returns the number of Ruby objects converted to Java objects.
+     *
+     * @return the number of conversions from Ruby to Java
+     */
+    public static long getRubyToJavaCount() {
+        return rubyToJavaConverted.get();
+    }
+
+    /**
+     * Returns the number of Java objects that were replaced before they were
+     * converted to Ruby objects.
+     *
+     * @return the number of skipped conversions from Java to Ruby
+     */
+    public static long getJavaToRubySavedCount() {
+        return javaToRubySaved.get();
+    }
+
+    /**
+     * Returns the number of Ruby objects that were replaced before they were
+     * converted to Java objects.
+     *
+     * @return the number of skipped conversions from Ruby to Java
+     */
+    public static long getRubyToJavaSavedCount() {
+        return rubyToJavaSaved.get();
+    }
+
+    /**
+     * Resets all counters to zero.
+     */
+    public static void reset() {
+        javaToRubyConverted.set(0L);
+        rubyToJavaConverted.set(0L);
+        javaToRubySaved.set(0L);
+        rubyToJavaSaved.set(0L);
+    }
+}
@@ -30,6 +30,9 @@
 package org.jruby.embed.variable;
 
 import org.jruby.embed.internal.BiVariableMap;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import org.jruby.Ruby;
 import org.jruby.internal.runtime.GlobalVariables;
@@ -41,7 +44,6 @@ import org.jruby.runtime.builtin.IRubyObject;
  * @author Yoko Harada <yokolet@gmail.com>
  */
 public class GlobalVariable extends AbstractVariable {
-    private static String pattern = "\\$([a-zA-Z]|(_([a-zA-Z]|_|\\d)))([a-zA-Z]|_|\\d)*";
 
     /**
      * Returns an instance of this class. This factory method is used when a global
@@ -53,7 +55,7 @@ public class GlobalVariable extends AbstractVariable {
      * @return the instance of GlobalVariable
      */
     public static BiVariable getInstance(Ruby runtime, String name, Object... javaObject) {
-        if (name.matches(pattern)) {
+        if (NameClassifier.is(name, Type.GlobalVariable)) {
             return new GlobalVariable(runtime, name, javaObject);
         }
         return null;
@@ -99,19 +101,69 @@ public class GlobalVariable extends AbstractVariable {
         }
     }
 
-    protected static boolean isPredefined(String name) {
-        String[] patterns = {
-            "\\$([\\u0021-\\u0040]|\\u005c|[\\u005e-\\u0060]|\\u007e)",
-            "\\$-(\\d|[A-z])",
-            "\\$(DEBUG|F|FILENAME|KCODE|LOAD_PATH|SAFE|VERBOSE|CLASSPATH|LOADED_FEATURES|PROGRAM_NAME)",
-            "\\$(configure_args|deferr|defout|expect_verbose|stderr|stdin|stdout)"
-        };
-        for (String pattern : patterns) {
-            if (name.matches(pattern)) {
-                return true;
+    /**
+     * Retrieves global variables whose names are not in the given set, and adds
+     * their names to the set. This method is used to retrieve global variables
+     * incrementally.
+     *
+     * @param runtime Ruby runtime
+     * @param vars map to save retrieved global variables.
+     * @param knownNames names of global variables already checked
+     */
+    static void retrieveNewNames(Ruby runtime, BiVariableMap vars, Set<String> knownNames) {
+        GlobalVariables gvars = runtime.getGlobalVariables();
+        for (String name : gvars.getNames()) {
+            if (!knownNames.add(name) || isPredefined(name)) {
+                continue;
+            }
+            if (!vars.containsKey((Object)name)) {
+                vars.update(name, new GlobalVariable(name, gvars.get(name)));
             }
         }
-        return false;
+    }
+
+    /**
+     * Updates values of global variables the map has by current values in Ruby.
+     *
+     * @param runtime Ruby runtime
+     * @param vars map that has global variables to be updated.
+     */
+    static void update(Ruby runtime, BiVariableMap vars) {
+        GlobalVariables gvars = runtime.getGlobalVariables();
+        List<BiVariable> variables = vars.getVariables();
+        for (BiVariable var : variables) {
+            if (var.getType() == Type.GlobalVariable) {
+                var.setRubyObject(gvars.get(var.getName()));
+            }
+        }
+    }
+
+    private static final Set<String> predefinedNames = new HashSet<String>(Arrays.asList(
+        "$DEBUG", "$F", "$FILENAME", "$KCODE", "$LOAD_PATH", "$SAFE", "$VERBOSE",
+        "$CLASSPATH", "$LOADED_FEATURES", "$PROGRAM_NAME",
+        "$configure_args", "$deferr", "$defout", "$expect_verbose", "$stderr", "$stdin", "$stdout"
+    ));
+
+    protected static boolean isPredefined(String name) {
+        int length = name.length();
+        if (length < 2 || name.charAt(0) != '$') {
+            return false;
+        }
+        char c = name.charAt(1);
+        if (length == 2 && isSpecialChar(c)) {
+            // $!, $@, $;, $, $/, $\, $0, $_, $~ and others
+            return true;
+        }
+        if (length == 3 && c == '-') {
+            // $-0, $-w and others
+            char c2 = name.charAt(2);
+            return (c2 >= '0' && c2 <= '9') || (c2 >= 'A' && c2 <= 'z');
+        }
+        return predefinedNames.contains(name);
+    }
+
+    private static boolean isSpecialChar(char c) {
+        return (c >= '\u0021' && c <= '\u0040') || c == '\\' || (c >= '\u005e' && c <= '\u0060') || c == '~';
     }
 
     /**
@@ -131,7 +183,7 @@ public class GlobalVariable extends AbstractVariable {
      * @return true if the given name is of a Ruby global variable.
      */
     public static boolean isValidName(String name) {
-        if (name.matches(pattern)) {
+        if (NameClassifier.is(name, Type.GlobalVariable)) {
             return true;
         } else {
             return false;
@@ -146,7 +198,7 @@ public class GlobalVariable extends AbstractVariable {
      * @param receiver is the instance that will have variable injection.
      */
     public void inject(Ruby runtime, IRubyObject receiver) {
-        runtime.getGlobalVariables().set(name, irubyObject);
+        runtime.getGlobalVariables().set(name, getRubyObject());
     }
 
     /**
@@ -156,6 +208,6 @@ public class GlobalVariable extends AbstractVariable {
      */
     public void remove(Ruby runtime) {
         setJavaObject(runtime, null);
-        runtime.getGlobalVariables().set(name, irubyObject);
+        runtime.getGlobalVariables().set(name, getRubyObject());
     }
 }
\ No newline at end of file
@@ -44,7 +44,6 @@ import org.jruby.runtime.builtin.InstanceVariables;
  * @author Yoko Harada <yokolet@gmail.com>
  */
 public class InstanceVariable extends AbstractVariable {
-    private static String pattern = "@([a-zA-Z]|_)([a-zA-Z]|_|\\d)*";
 
     /**
      * Returns an instance of this class. This factory method is used when an instance
@@ -56,13 +55,13 @@ public class InstanceVariable extends AbstractVariable {
      * @return the instance of InstanceVariable
      */
     public static BiVariable getInstance(Ruby runtime, String name, Object... javaObject) {
-        if (name.matches(pattern)) {
+        if (NameClassifier.is(name, Type.InstanceVariable)) {
             return new InstanceVariable(runtime, name, javaObject);
         }
         return null;
     }
 
-    private InstanceVariable(Ruby runtime, String name, Object... javaObject) {
+    InstanceVariable(Ruby runtime, String name, Object... javaObject) {
         super(runtime, name, javaObject);
     }
 
@@ -120,7 +119,7 @@ public class InstanceVariable extends AbstractVariable {
      * @return true if the given name is of a Ruby instance variable.
      */
     public static boolean isValidName(String name) {
-        if (name.matches(pattern)) {
+        if (NameClassifier.is(name, Type.InstanceVariable)) {
             return true;
         } else {
             return false;
@@ -138,7 +137,7 @@ public class InstanceVariable extends AbstractVariable {
         ThreadContext context = runtime.getCurrentContext();
         IRubyObject rubyReceiver = receiver != null ? receiver : context.getFrameSelf();
         IRubyObject rubyName = JavaEmbedUtils.javaToRuby(runtime, name);
-        ((RubyObject) rubyReceiver).instance_variable_set(rubyName, irubyObject);
+        ((RubyObject) rubyReceiver).instance_variable_set(rubyName, getRubyObject());
     }
 
     /**
@@ -30,6 +30,7 @@
 package org.jruby.embed.variable;
 
 import org.jruby.embed.internal.BiVariableMap;
+import java.util.Collections;
 import java.util.Set;
 import org.jruby.Ruby;
 import org.jruby.internal.runtime.GlobalVariables;
@@ -42,7 +43,6 @@ import org.jruby.runtime.builtin.IRubyObject;
  * @author Yoko Harada <yokolet@gmail.com>
  */
 public class LocalGlobalVariable extends GlobalVariable {
-    private static String pattern = "([a-z]|_)([a-zA-Z]|_|\\d)*";
 
     /**
      * Returns an instance of this class. This factory method is used when a local
@@ -54,13 +54,13 @@ public class LocalGlobalVariable extends GlobalVariable {
      * @return the instance of LocalGlobalVariable
      */
     public static BiVariable getInstance(Ruby runtime, String name, Object... javaObject) {
-        if (name.matches(pattern)) {
+        if (NameClassifier.is(name, Type.LocalVariable)) {
             return new LocalGlobalVariable(runtime, name, javaObject);
         }
         return null;
     }
 
-    private LocalGlobalVariable(Ruby runtime, String name, Object... javaObject) {
+    LocalGlobalVariable(Ruby runtime, String name, Object... javaObject) {
         super(runtime, name, javaObject);
     }
 
@@ -82,10 +82,23 @@ public class LocalGlobalVariable extends GlobalVariable {
      * @param vars map to save retrieved global variables.
      */
     public static void retrieve(Ruby runtime, IRubyObject receiver, BiVariableMap vars) {
+        retrieve(runtime, receiver, vars, Collections.<String>emptySet());
+    }
+
+    /**
+     * Retrieves global variables from Ruby after the evaluation as a local global
+     * type except those whose names are in the given set.
+     *
+     * @param runtime Ruby runtime
+     * @param receiver receiver object returned when a script is evaluated.
+     * @param vars map to save retrieved global variables.
+     * @param excludedNames names of global variables not to be retrieved
+     */
+    public static void retrieve(Ruby runtime, IRubyObject receiver, BiVariableMap vars, Set<String> excludedNames) {
         GlobalVariables gvars = runtime.getGlobalVariables();
         Set<String> names = gvars.getNames();
         for (String name : names) {
-            if (isPredefined(name)) {
+            if (isPredefined(name) || excludedNames.contains(name)) {
                 continue;
             }
             BiVariable var;
@@ -109,7 +122,7 @@ public class LocalGlobalVariable extends GlobalVariable {
      * @return true if the given name is of a local global type variable.
      */
     public static boolean isValidName(String name) {
-        if (name.matches(pattern)) {
+        if (NameClassifier.is(name, Type.LocalVariable)) {
             return true;
         } else {
             return false;
@@ -125,7 +138,7 @@ public class LocalGlobalVariable extends GlobalVariable {
      */
     @Override
     public void inject(Ruby runtime, IRubyObject receiver) {
-        runtime.getGlobalVariables().set("$"+name, irubyObject);
+        runtime.getGlobalVariables().set("$"+name, getRubyObject());
     }
 
     /**
@@ -136,6 +149,6 @@ public class LocalGlobalVariable extends GlobalVariable {
     @Override
     public void remove(Ruby runtime) {
         setJavaObject(runtime, null);
-        runtime.getGlobalVariables().set("$"+name, irubyObject);
+        runtime.getGlobalVariables().set("$"+name, getRubyObject());
     }
 }
\ No newline at end of file
@@ -0,0 +1,124 @@
+/**
+ * **** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 Yoko Harada <yokolet@gmail.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ * **** END LICENSE BLOCK *****
+ */
+package org.jruby.embed.variable;
+
+import org.jruby.embed.variable.BiVariable.Type;
+
+/**
+ * Classifies a variable name into one of Ruby's variable and constant types
+ * by a single scan of characters. No regular expression is compiled and no
+ * object is allocated. The rules are the same as the ones each variable
+ * type has used:
+ * <pre>
+ * global variable:   \$([a-zA-Z]|(_([a-zA-Z]|_|\d)))([a-zA-Z]|_|\d)*
+ * instance variable: @([a-zA-Z]|_)([a-zA-Z]|_|\d)*
+ * class variable:    @@([a-zA-Z]|_)([a-zA-Z]|_|\d)*
+ * constant:          [A-Z]([a-zA-Z]|_)([a-zA-Z]|_|\d)*
+ * local variable:    ([a-z]|_)([a-zA-Z]|_|\d)*</pre>
+ *
+ * @author Yoko Harada <yokolet@gmail.com>
+ */
+public class NameClassifier {
+
+    private NameClassifier() {
+    }
+
+    /**
+     * Returns a type of the given variable name, or null if the name is not
+     * a valid name of any type.
+     *
+     * @param name is a name to be classified
+     * @return a type of the name, or null if the name is not valid
+     */
+    public static Type classify(String name) {
+        if (name == null) {
+            return null;
+        }
+        int length = name.length();
+        if (length == 0) {
+            return null;
+        }
+        char c = name.charAt(0);
+        if (c == '$') {
+            if (length < 2) {
+                return null;
+            }
+            char c1 = name.charAt(1);
+            if (isLetter(c1)) {
+                return isTail(name, 2) ? Type.GlobalVariable : null;
+            } else if (c1 == '_' && length > 2 && isIdentifierChar(name.charAt(2))) {
+                return isTail(name, 3) ? Type.GlobalVariable : null;
+            }
+            return null;
+        } else if (c == '@') {
+            if (length > 1 && name.charAt(1) == '@') {
+                return length > 2 && isHead(name.charAt(2)) && isTail(name, 3) ? Type.ClassVariable : null;
+            }
+            return length > 1 && isHead(name.charAt(1)) && isTail(name, 2) ? Type.InstanceVariable : null;
+        } else if (c >= 'A' && c <= 'Z') {
+            return length > 1 && isHead(name.charAt(1)) && isTail(name, 2) ? Type.Constant : null;
+        } else if ((c >= 'a' && c <= 'z') || c == '_') {
+            return isTail(name, 1) ? Type.LocalVariable : null;
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if the given name is valid as the given type.
+     *
+     * @param name is a name to be checked
+     * @param type is an expected type
+     * @return true if the name is of the given type
+     */
+    public static boolean is(String name, Type type) {
+        return classify(name) == type;
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isHead(char c) {
+        return isLetter(c) || c == '_';
+    }
+
+    private static boolean isIdentifierChar(char c) {
+        return isHead(c) || (c >= '0' && c <= '9');
+    }
+
+    private static boolean isTail(String name, int start) {
+        for (int i = start; i < name.length(); i++) {
+            if (!isIdentifierChar(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -44,7 +44,6 @@ import org.jruby.runtime.scope.ManyVarsDynamicScope;
  * @author Yoko Harada <yokolet@gmail.com>
  */
 public class PersistentLocalVariable extends AbstractVariable {
-    private static String pattern = "([a-z]|_)([a-zA-Z]|_|\\d)*";
 
     /**
      * Returns an instance of this class. This factory method is used when a
@@ -56,13 +55,13 @@ public class PersistentLocalVariable extends AbstractVariable {
      * @return the instance of PersistentLocalVariable
      */
     public static BiVariable getInstance(Ruby runtime, String name, Object... javaObject) {
-        if (name.matches(pattern)) {
+        if (NameClassifier.is(name, Type.LocalVariable)) {
             return new PersistentLocalVariable(runtime, name, javaObject);
         }
         return null;
     }
 
-    private PersistentLocalVariable(Ruby runtime, String name, Object... javaObject) {
+    PersistentLocalVariable(Ruby runtime, String name, Object... javaObject) {
         super(runtime, name, javaObject);
     }
 
@@ -93,7 +92,7 @@ public class PersistentLocalVariable extends AbstractVariable {
      * @return true if the given name is of a Ruby local variable.
      */
     public static boolean isValidName(String name) {
-        if (name.matches(pattern)) {
+        if (NameClassifier.is(name, Type.LocalVariable)) {
             return true;
         } else {
             return false;
@@ -45,7 +45,6 @@ import org.jruby.runtime.scope.ManyVarsDynamicScope;
  * @author Yoko Harada <yokolet@gmail.com>
  */
 public class TransientLocalVariable extends AbstractVariable {
-    private static String pattern = "([a-z]|_)([a-zA-Z]|_|\\d)*";
 
     /**
      * Returns an instance of this class. This factory method is used when a
@@ -57,14 +56,13 @@ public class TransientLocalVariable extends AbstractVariable {
      * @return the instance of TransientLocalVariable
      */
     public static BiVariable getInstance(Ruby runtime, String name, Object... javaObject) {
-
-        if (name.matches(pattern)) {
+        if (NameClassifier.is(name, Type.LocalVariable)) {
             return new TransientLocalVariable(runtime, name, javaObject);
         }
         return null;
     }
 
-    private TransientLocalVariable(Ruby runtime, String name, Object... javaObject) {
+    TransientLocalVariable(Ruby runtime, String name, Object... javaObject) {
         super(runtime, name, javaObject);
     }
 
@@ -85,7 +83,7 @@ public class TransientLocalVariable extends AbstractVariable {
      * @return true if the given name is of a Ruby local variable.
      */
     public static boolean isValidName(String name) {
-        if (name.matches(pattern)) {
+        if (NameClassifier.is(name, Type.LocalVariable)) {
             return true;
         } else {
             return false;
@@ -29,10 +29,14 @@
  */
 package org.jruby.embed.variable;
 
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import org.jruby.Ruby;
 import org.jruby.embed.internal.BiVariableMap;
 import org.jruby.embed.LocalVariableBehavior;
+import org.jruby.embed.VariableSyncPolicy;
 import org.jruby.javasupport.JavaEmbedUtils;
 import org.jruby.runtime.builtin.IRubyObject;
 import org.jruby.runtime.scope.ManyVarsDynamicScope;
@@ -43,56 +47,110 @@ import org.jruby.runtime.scope.ManyVarsDynamicScope;
  */
 public class VariableInterceptor {
     private LocalVariableBehavior behavior;
+    private final Set<String> knownGlobalNames = new HashSet<String>();
+    private int knownGlobalCount = -1;
+    private final Set<String> excludedGlobalNames = Collections.synchronizedSet(new HashSet<String>());
     
     public VariableInterceptor(LocalVariableBehavior behavior) {
         this.behavior = behavior;
     }
 
+    /**
+     * Returns a local variable behavior of this interceptor.
+     *
+     * @return a local variable behavior
+     */
+    public LocalVariableBehavior getLocalVariableBehavior() {
+        return behavior;
+    }
+
+    /**
+     * Excludes a global variable from retrieval. A global variable whose value is
+     * given by its own accessor is excluded, so that the value is not converted
+     * unless a script reads it.
+     *
+     * @param name is a global variable name including "$"
+     */
+    public void excludeGlobalVariable(String name) {
+        excludedGlobalNames.add(name);
+    }
+
+    /**
+     * Includes a global variable excluded by {@link #excludeGlobalVariable(String)}
+     * in retrieval again.
+     *
+     * @param name is a global variable name including "$"
+     */
+    public void includeGlobalVariable(String name) {
+        excludedGlobalNames.remove(name);
+    }
+
     public BiVariable getVariableInstance(Ruby runtime, String name, Object... value) {
         if (value == null || value.length < 1) {
             return null;
         }
+        BiVariable.Type type = NameClassifier.classify(name);
+        if (type == null) {
+            return null;
+        }
         switch (behavior) {
             case GLOBAL:
-                return LocalGlobalVariable.getInstance(runtime, name, value);
+                if (type == BiVariable.Type.LocalVariable) {
+                    return new LocalGlobalVariable(runtime, name, value);
+                }
+                return null;
             case BSF:
-                BiVariable[] bEntries = {
-                    PersistentLocalVariable.getInstance(runtime, name, value),
-                    GlobalVariable.getInstance(runtime, name, value)
-                };
-                return resolve(bEntries);
+                if (type == BiVariable.Type.LocalVariable) {
+                    return new PersistentLocalVariable(runtime, name, value);
+                } else if (type == BiVariable.Type.GlobalVariable) {
+                    return new GlobalVariable(runtime, name, value);
+                }
+                return null;
             case PERSISTENT:
-                BiVariable[] pEntries = {
-                    GlobalVariable.getInstance(runtime, name, value),
-                    InstanceVariable.getInstance(runtime, name, value),
-                    ClassVariable.getInstance(runtime, name, value),
-                    Constant.getInstance(runtime, name, value),
-                    PersistentLocalVariable.getInstance(runtime, name, value)
-                };
-                return resolve(pEntries);
+                if (type == BiVariable.Type.LocalVariable) {
+                    return new PersistentLocalVariable(runtime, name, value);
+                }
+                return getNonLocalVariableInstance(type, runtime, name, value);
             default:
-                BiVariable[] tEntries = {
-                    GlobalVariable.getInstance(runtime, name, value),
-                    InstanceVariable.getInstance(runtime, name, value),
-                    ClassVariable.getInstance(runtime, name, value),
-                    Constant.getInstance(runtime, name, value),
-                    TransientLocalVariable.getInstance(runtime, name, value)
-                };
-                return resolve(tEntries);
+                if (type == BiVariable.Type.LocalVariable) {
+                    return new TransientLocalVariable(runtime, name, value);
+                }
+                return getNonLocalVariableInstance(type, runtime, name, value);
         }
     }
 
-    private BiVariable resolve(BiVariable[] entries) {
-        for (BiVariable e : entries) {
-            if (e != null) {
-                return e;
-            }
+    private BiVariable getNonLocalVariableInstance(BiVariable.Type type, Ruby runtime, String name, Object... value) {
+        switch (type) {
+            case GlobalVariable:
+                return new GlobalVariable(runtime, name, value);
+            case InstanceVariable:
+                return new InstanceVariable(runtime, name, value);
+            case ClassVariable:
+                return new ClassVariable(runtime, name, value);
+            case Constant:
+                return new Constant(runtime, name, value);
+            default:
+                return null;
         }
-        return null;
     }
 
     public void inject(BiVariableMap map, Ruby runtime, ManyVarsDynamicScope scope, int depth, IRubyObject receiver) {
-        if (scope != null) {
+        inject(map, runtime, scope, depth, receiver, VariableSyncPolicy.ALL);
+    }
+
+    /**
+     * Injects variables to Ruby before the evaluation. Only variables whose types
+     * are injected by the given policy are injected.
+     *
+     * @param map is a variable map that has variables to be injected
+     * @param runtime is environment where variables are injected to
+     * @param scope is a scope to inject local variables
+     * @param depth is a depth of the scope
+     * @param receiver is the receiver object of the evaluation
+     * @param policy is a policy to choose types of variables
+     */
+    public void inject(BiVariableMap map, Ruby runtime, ManyVarsDynamicScope scope, int depth, IRubyObject receiver, VariableSyncPolicy policy) {
+        if (scope != null && policy.isInjected(BiVariable.Type.LocalVariable)) {
             IRubyObject[] values4Injection = map.getLocalVarValues();
             if (values4Injection != null && values4Injection.length > 0) {
                 for (int i = 0; i < values4Injection.length; i++) {
@@ -102,26 +160,71 @@ public class VariableInterceptor {
         }
         List<BiVariable> variables = map.getVariables();
         for (int i=0; i<variables.size(); i++) {
-            variables.get(i).inject(runtime, receiver);
+            BiVariable v = variables.get(i);
+            if (policy.isInjected(v.getType())) {
+                v.inject(runtime, receiver);
+            }
         }
     }
 
     public void retrieve(BiVariableMap map, Ruby runtime, IRubyObject receiver) {
+        retrieve(map, runtime, receiver, false, VariableSyncPolicy.ALL);
+    }
+
+    public void retrieve(BiVariableMap map, Ruby runtime, IRubyObject receiver, boolean incremental) {
+        retrieve(map, runtime, receiver, incremental, VariableSyncPolicy.ALL);
+    }
+
+    /**
+     * Retrieves variables from Ruby after the evaluation. When incremental is true,
+     * Ruby's global variables are scanned only if new ones have been defined since
+     * the last retrieval. Otherwise, only values of global variables in the map
+     * are updated. Only variables whose types are retrieved by the given policy
+     * are retrieved.
+     *
+     * @param map is a variable map to save retrieved variables
+     * @param runtime is environment where variables are retrieved from
+     * @param receiver is the receiver object of the evaluation
+     * @param incremental is true to retrieve global variables incrementally
+     * @param policy is a policy to choose types of variables
+     */
+    public void retrieve(BiVariableMap map, Ruby runtime, IRubyObject receiver, boolean incremental, VariableSyncPolicy policy) {
+        if (policy.isRetrievingNothing()) {
+            return;
+        }
         switch (behavior) {
             case GLOBAL:
-                LocalGlobalVariable.retrieve(runtime, receiver, map);
+                if (policy.isRetrieved(BiVariable.Type.GlobalVariable)) {
+                    LocalGlobalVariable.retrieve(runtime, receiver, map, excludedGlobalNames);
+                }
                 break;
             case BSF:
-                PersistentLocalVariable.retrieve(runtime, receiver, map);
+                if (policy.isRetrieved(BiVariable.Type.LocalVariable)) {
+                    PersistentLocalVariable.retrieve(runtime, receiver, map);
+                }
                 break;
             case PERSISTENT:
-                PersistentLocalVariable.retrieve(runtime, receiver, map);
+                if (policy.isRetrieved(BiVariable.Type.LocalVariable)) {
+                    PersistentLocalVariable.retrieve(runtime, receiver, map);
+                }
             // continues to the default case
             default:
-                InstanceVariable.retrieve(runtime, receiver, map);
-                GlobalVariable.retrieve(runtime, receiver, map);
-                ClassVariable.retrieve(runtime, receiver, map);
-                Constant.retrieve(runtime, receiver, map);
+                if (policy.isRetrieved(BiVariable.Type.InstanceVariable)) {
+                    InstanceVariable.retrieve(runtime, receiver, map);
+                }
+                if (policy.isRetrieved(BiVariable.Type.GlobalVariable)) {
+                    if (incremental) {
+                        retrieveGlobalVariables(map, runtime);
+                    } else {
+                        GlobalVariable.retrieve(runtime, receiver, map);
+                    }
+                }
+                if (policy.isRetrieved(BiVariable.Type.ClassVariable)) {
+                    ClassVariable.retrieve(runtime, receiver, map);
+                }
+                if (policy.isRetrieved(BiVariable.Type.Constant)) {
+                    Constant.retrieve(runtime, receiver, map);
+                }
         }
         /*
         if (LocalVariableBehavior.GLOBAL == behavior) {
@@ -141,6 +244,37 @@ public class VariableInterceptor {
         */
     }
 
+    /**
+     * Forgets global variable names retrieved so far, so that the next incremental
+     * retrieval scans all global variables again. This method is called when
+     * global variables are removed from a variable map.
+     */
+    public synchronized void resetGlobalVariables() {
+        knownGlobalNames.clear();
+        knownGlobalCount = -1;
+    }
+
+    /**
+     * Forgets a global variable name retrieved before, so that the variable is
+     * retrieved again by the next incremental retrieval.
+     *
+     * @param name is a global variable name including "$"
+     */
+    public synchronized void resetGlobalVariable(String name) {
+        if (knownGlobalNames.remove(name)) {
+            knownGlobalCount = -1;
+        }
+    }
+
+    private synchronized void retrieveGlobalVariables(BiVariableMap map, Ruby runtime) {
+        int count = runtime.getGlobalVariables().getNames().size();
+        if (count != knownGlobalCount) {
+            GlobalVariable.retrieveNewNames(runtime, map, knownGlobalNames);
+            knownGlobalCount = count;
+        }
+        GlobalVariable.update(runtime, map);
+    }
+
     public void terminateGlobalVariables(List<BiVariable> variables, Ruby runtime) {
         if (LocalVariableBehavior.GLOBAL == behavior) {
             for (int i = 0; i < variables.size(); i++) {
@@ -152,54 +286,24 @@ public class VariableInterceptor {
         }
     }
 
-    public void terminateLocalVariables(List<String> varNames, List<BiVariable> variables) {
+    public void terminateLocalVariables(BiVariableMap map) {
         if (LocalVariableBehavior.TRANSIENT == behavior) {
-            for (int i = 0; i < variables.size(); i++) {
-                if (BiVariable.Type.LocalVariable == variables.get(i).getType()) {
-                    varNames.remove(i);
-                    variables.remove(i);
-                }
-            }
+            map.clearLocalVariables();
         }
     }
 
     public boolean isKindOfRubyVariable(String name) {
+        BiVariable.Type type = NameClassifier.classify(name);
+        if (type == null) {
+            return false;
+        }
         switch (behavior) {
             case GLOBAL:
-                return LocalGlobalVariable.isValidName(name);
+                return type == BiVariable.Type.LocalVariable;
             case BSF:
-                if (PersistentLocalVariable.isValidName(name)) {
-                    return true;
-                } else if (GlobalVariable.isValidName(name)) {
-                    return true;
-                }
-                return false;
-            case PERSISTENT:
-                if (GlobalVariable.isValidName(name)) {
-                    return true;
-                } else if (PersistentLocalVariable.isValidName(name)) {
-                    return true;
-                } else if (InstanceVariable.isValidName(name)) {
-                    return true;
-                } else if (Constant.isValidName(name)) {
-                    return true;
-                } else if (ClassVariable.isValidName(name)) {
-                    return true;
-                }
-                return false;
+                return type == BiVariable.Type.LocalVariable || type == BiVariable.Type.GlobalVariable;
             default:
-                if (GlobalVariable.isValidName(name)) {
-                    return true;
-                } else if (TransientLocalVariable.isValidName(name)) {
-                    return true;
-                } else if (InstanceVariable.isValidName(name)) {
-                    return true;
-                } else if (Constant.isValidName(name)) {
-                    return true;
-                } else if (ClassVariable.isValidName(name)) {
-                    return true;
-                }
-                return false;
+                return true;
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,196 @@
+/**
+ * **** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 Yoko Harada <yokolet@gmail.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ * **** END LICENSE BLOCK *****
+ */
+package org.jruby.embed;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Yoko Harada <yokolet@gmail.com>
+ */
+public class AsyncEvalTest {
+    private final static String jrubyhome = "/Users/yoko/Tools/jruby-1.4.0RC3";
+    private ScriptingContainer container;
+
+    public AsyncEvalTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        String[] paths = {
+            jrubyhome + "/lib/ruby/1.8",
+            jrubyhome + "/lib/ruby/site_ruby/1.8",
+            jrubyhome
+        };
+        String separator = System.getProperty("path.separator");
+        String classPath = "";
+        for (int i=0; i < paths.length; i++) {
+            classPath = classPath + paths[i] + separator;
+        }
+        classPath = classPath.substring(0, classPath.length()-1);
+        System.setProperty("org.jruby.embed.class.path", classPath);
+        System.setProperty("jruby.home", jrubyhome);
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+        container = new ScriptingContainer(LocalContextScope.CONCURRENT);
+    }
+
+    @After
+    public void tearDown() {
+        container.terminate();
+        container = null;
+    }
+
+    /**
+     * Test of runScriptletAsync method, of class ScriptingContainer.
+     */
+    @Test
+    public void testRunScriptletAsync() throws Exception {
+        System.out.println("[testRunScriptletAsync]");
+        List<Future<Object>> futures = new ArrayList<Future<Object>>();
+        for (int i = 0; i < 100; i++) {
+            futures.add(container.runScriptletAsync(i + " * " + i));
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Long.valueOf(i * i), futures.get(i).get());
+        }
+    }
+
+    /**
+     * Test of callMethodAsync method, of class ScriptingContainer.
+     */
+    @Test
+    public void testCallMethodAsync() throws Exception {
+        System.out.println("[testCallMethodAsync]");
+        Object receiver = container.runScriptlet("class Adder; def add(a, b); a + b; end; end; Adder.new");
+        Object[] args = {1L, 2L};
+        Future<Long> future = container.callMethodAsync(receiver, "add", args, Long.class);
+        assertEquals(Long.valueOf(3L), future.get(10, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Test of callMethodAsync method on containers whose runtimes are bound to
+     * threads.
+     */
+    @Test
+    public void testCallMethodAsyncAffinity() throws Exception {
+        System.out.println("[testCallMethodAsyncAffinity]");
+        ScriptingContainer instance = new ScriptingContainer(LocalContextScope.THREADSAFE);
+        try {
+            instance.put("$greeting", "hello");
+            final Object receiver = instance.runScriptlet("class Greeter; def greet; $greeting; end; end; Greeter.new");
+            // the receiver's runtime is the one of this thread and sees its variables
+            Future<String> future = instance.callMethodAsync(receiver, "greet", new Object[0], String.class);
+            assertEquals("hello", future.get(10, TimeUnit.SECONDS));
+            final ScriptingContainer c = instance;
+            final Throwable[] thrown = new Throwable[1];
+            Thread t = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        c.callMethodAsync(receiver, "greet", new Object[0], String.class);
+                    } catch (Throwable e) {
+                        thrown[0] = e;
+                    }
+                }
+            };
+            t.start();
+            t.join();
+            assertTrue(thrown[0] instanceof IllegalArgumentException);
+        } finally {
+            instance.terminate();
+        }
+
+        instance = new ScriptingContainer(LocalContextScope.SINGLETHREAD);
+        try {
+            instance.put("$greeting", "hi");
+            Object receiver = instance.runScriptlet("class Greeter; def greet; $greeting; end; end; Greeter.new");
+            Future<String> future = instance.callMethodAsync(receiver, "greet", new Object[0], String.class);
+            // never runs on another thread
+            assertTrue(future.isDone());
+            assertEquals("hi", future.get());
+        } finally {
+            instance.terminate();
+        }
+    }
+
+    /**
+     * Test of runScriptletAsync method with LocalContextScope.THREADSAFE.
+     */
+    @Test
+    public void testRunScriptletAsyncThreadSafe() throws Exception {
+        System.out.println("[testRunScriptletAsyncThreadSafe]");
+        ScriptingContainer instance = new ScriptingContainer(LocalContextScope.THREADSAFE);
+        try {
+            instance.put("$greeting", "hello");
+            instance.put("name", "world");
+            instance.runScriptlet("def shout(s); s.upcase; end");
+            // sees the variables and the method given by this thread
+            Future<Object> future = instance.runScriptletAsync("shout(\"#{$greeting}, #{name}\")");
+            assertTrue(future.isDone());
+            assertEquals("HELLO, WORLD", future.get());
+        } finally {
+            instance.terminate();
+        }
+    }
+
+    /**
+     * Test of a timeout of runScriptletAsync method.
+     */
+    @Test
+    public void testTimeout() throws Exception {
+        System.out.println("[testTimeout]");
+        Future<Object> future = container.runScriptletAsync("sleep 10; :done", 100, TimeUnit.MILLISECONDS);
+        try {
+            future.get();
+            fail("the evaluation should have been cancelled");
+        } catch (CancellationException e) {
+        }
+        assertTrue(future.isCancelled());
+        // the worker is back and runs the next task
+        assertEquals(Long.valueOf(3L), container.runScriptletAsync("1 + 2").get(10, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * **** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 Yoko Harada <yokolet@gmail.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ * **** END LICENSE BLOCK *****
+ */
+package org.jruby.embed;
+
+import org.jruby.runtime.Block;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Measures invocations per second of callMethod with no, one and many
+ * arguments, with and without a block.
+ *
+ * @author Yoko Harada <yokolet@gmail.com>
+ */
+public class CallMethodRunner {
+    private final static String jrubyhome = "/Users/yoko/Tools/jruby-1.4.0RC3";
+    private final static int warmup = 10000;
+    private final static int iterations = 100000;
+    private ScriptingContainer container;
+    private Object receiver;
+
+    public CallMethodRunner() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        String[] paths = {
+            jrubyhome + "/lib/ruby/1.8",
+            jrubyhome + "/lib/ruby/site_ruby/1.8",
+            jrubyhome
+        };
+        String separator = System.getProperty("path.separator");
+        String classPath = "";
+        for (int i=0; i < paths.length; i++) {
+            classPath = classPath + paths[i] + separator;
+        }
+        classPath = classPath.substring(0, classPath.length()-1);
+        System.setProperty("org.jruby.embed.class.path", classPath);
+        System.setProperty("jruby.home", jrubyhome);
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+        container = new ScriptingContainer(LocalContextScope.SINGLETHREAD);
+        String script =
+            "class Target\n" +
+              "def none; 1; end\n" +
+              "def one(a); a; end\n" +
+              "def many(a, b, c, d); a + b + c + d; end\n" +
+            "end\n" +
+            "Target.new";
+        receiver = container.runScriptlet(script);
+    }
+
+    @After
+    public void tearDown() {
+        container.getVarMap().clear();
+        container = null;
+    }
+
+    @Test
+    public void testNoArg() {
+        System.out.println("[callMethod no arg runner]");
+        report("no arg", measure(0, null));
+        report("no arg with block", measure(0, Block.NULL_BLOCK));
+    }
+
+    @Test
+    public void testOneArg() {
+        System.out.println("[callMethod one arg runner]");
+        report("one arg", measure(1, null));
+        report("one arg with block", measure(1, Block.NULL_BLOCK));
+    }
+
+    @Test
+    public void testManyArgs() {
+        System.out.println("[callMethod many args runner]");
+        report("many args", measure(4, null));
+        report("many args with block", measure(4, Block.NULL_BLOCK));
+    }
+
+    private long measure(int arity, Block block) {
+        for (int i = 0; i < warmup; i++) {
+            invoke(arity, block);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            invoke(arity, block);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private void invoke(int arity, Block block) {
+        switch (arity) {
+            case 0:
+                if (block == null) {
+                    container.callMethod(receiver, "none", Long.class);
+                } else {
+                    container.callMethod(receiver, "none", new Object[0], block, Long.class);
+                }
+                break;
+            case 1:
+                Object[] arg = {1L};
+                if (block == null) {
+                    container.callMethod(receiver, "one", 1L, Long.class);
+                } else {
+                    container.callMethod(receiver, "one", arg, block, Long.class);
+                }
+                break;
+            default:
+                Object[] args = {1L, 2L, 3L, 4L};
+                if (block == null) {
+                    container.callMethod(receiver, "many", args, Long.class);
+                } else {
+                    container.callMethod(receiver, "many", args, block, Long.class);
+                }
+                break;
+        }
+    }
+
+    private void report(String label, long elapsed) {
+        long perSecond = elapsed > 0 ? (iterations * 1000000000L) / elapsed : 0;
+        System.out.println(label + ": " + perSecond + " calls/sec");
+    }
+}
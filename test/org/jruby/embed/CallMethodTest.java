@@ -148,4 +148,29 @@ public class CallMethodTest {
         result = (Integer) container.callMethod(receiver, "count", Integer.class);
         System.out.println(result + " people(?) in total.");
     }
-}
\ No newline at end of file
+
+    /**
+     * Test of callMethodForLong and callMethodForDouble methods, of class ScriptingContainer.
+     */
+    @Test
+    public void testCallMethodForPrimitives() {
+        System.out.println("[testCallMethodForPrimitives]");
+        String script =
+            "class Calc\n" +
+              "def zero; 0; end\n" +
+              "def twice(x); x * 2; end\n" +
+              "def add(x, y); x + y; end\n" +
+              "def half; 0.5; end\n" +
+            "end\n" +
+            "Calc.new";
+        Object receiver = container.runScriptlet(script);
+        assertEquals(0L, container.callMethodForLong(receiver, "zero"));
+        assertEquals(42L, container.callMethodForLong(receiver, "twice", 21L));
+        assertEquals(5000000000L, container.callMethodForLong(receiver, "add", 4000000000L, 1000000000L));
+        assertEquals(0.5, container.callMethodForDouble(receiver, "half"), 0.0);
+        assertEquals(3.0, container.callMethodForDouble(receiver, "twice", 1.5), 0.0);
+        assertEquals(2.5, container.callMethodForDouble(receiver, "add", 2.0, 0.5), 0.0);
+        // Integer results are converted to double
+        assertEquals(0.0, container.callMethodForDouble(receiver, "zero"), 0.0);
+    }
+}
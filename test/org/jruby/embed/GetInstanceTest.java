@@ -32,10 +32,12 @@ package org.jruby.embed;
 import java.io.InputStream;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.lang.reflect.Proxy;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -258,4 +260,68 @@ public class GetInstanceTest {
         instance.getVarMap().clear();
         instance = null;
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testCachedInstance() throws Exception {
+        System.out.println("[getInstance cached]");
+        ScriptingContainer instance = new ScriptingContainer(LocalContextScope.THREADSAFE);
+        instance.getProvider().setLoadPaths(loadPaths);
+
+        Object receiver = instance.runScriptlet("class Counter; def call; 1; end; end; Counter.new");
+        Callable first = instance.getInstance(receiver, Callable.class);
+        Callable second = instance.getInstance(receiver, Callable.class);
+        assertSame(first, second);
+        assertEquals(1L, first.call());
+
+        // a reopened class is seen by the cached instance
+        instance.runScriptlet("class Counter; def call; 2; end; end");
+        assertEquals(2L, second.call());
+
+        instance.getVarMap().clear();
+        instance = null;
+    }
+
+    /**
+     * Test of getInstance method with generated interface bridges.
+     */
+    @Test
+    public void testInterfaceBridge() throws Exception {
+        System.out.println("[getInstance bridge]");
+        ScriptingContainer instance = new ScriptingContainer(LocalContextScope.THREADSAFE);
+        instance.getProvider().setLoadPaths(loadPaths);
+        instance.setAttribute(AttributeName.INTERFACE_BRIDGE, true);
+
+        String script =
+            "class Scorer\n" +
+            "  def initialize; @count = 0; end\n" +
+            "  def score(base, weight); @count += 1; base * weight; end\n" +
+            "  def ratio(value); value / 2.0; end\n" +
+            "  def accept(value); value > 10; end\n" +
+            "  def get_name; \"scorer\"; end\n" +
+            "  def reset; @count = 0; $resets += 1; end\n" +
+            "end\n" +
+            "Scorer.new";
+        Object receiver = instance.runScriptlet(script);
+        Strategy strategy = instance.getInstance(receiver, Strategy.class);
+        assertFalse(Proxy.isProxyClass(strategy.getClass()));
+        assertSame(strategy, instance.getInstance(receiver, Strategy.class));
+        assertEquals(6000000000L, strategy.score(3000000000L, 2));
+        assertEquals(1.25, strategy.ratio(2.5), 0.0);
+        assertTrue(strategy.accept(11L));
+        assertFalse(strategy.accept(10L));
+        assertEquals("scorer", strategy.getName());
+        // the container's variables are injected and retrieved around a call
+        instance.put("$resets", 5L);
+        strategy.reset();
+        assertEquals(6L, instance.get("$resets"));
+
+        // turning the bridge off gives a dynamic proxy instead of the cached bridge
+        instance.setAttribute(AttributeName.INTERFACE_BRIDGE, false);
+        Strategy proxy = instance.getInstance(receiver, Strategy.class);
+        assertTrue(Proxy.isProxyClass(proxy.getClass()));
+        assertEquals("scorer", proxy.getName());
+
+        instance.getVarMap().clear();
+        instance = null;
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * **** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 Yoko Harada <yokolet@gmail.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ * **** END LICENSE BLOCK *****
+ */
+package org.jruby.embed;
+
+import java.util.concurrent.Callable;
+import org.jruby.embed.internal.InterfaceProxyHandler;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Measures getInstance calls per second on the same receiver, and how many
+ * interface proxies are created by them. Also compares calls through a
+ * reflective proxy with calls through a generated bridge.
+ *
+ * @author Yoko Harada <yokolet@gmail.com>
+ */
+public class InterfaceProxyRunner {
+    private final static String jrubyhome = "/Users/yoko/Tools/jruby-1.4.0RC3";
+    private final static int warmup = 10000;
+    private final static int iterations = 100000;
+    private ScriptingContainer container;
+    private Object receiver;
+
+    public InterfaceProxyRunner() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        String[] paths = {
+            jrubyhome + "/lib/ruby/1.8",
+            jrubyhome + "/lib/ruby/site_ruby/1.8",
+            jrubyhome
+        };
+        String separator = System.getProperty("path.separator");
+        String classPath = "";
+        for (int i=0; i < paths.length; i++) {
+            classPath = classPath + paths[i] + separator;
+        }
+        classPath = classPath.substring(0, classPath.length()-1);
+        System.setProperty("org.jruby.embed.class.path", classPath);
+        System.setProperty("jruby.home", jrubyhome);
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+        container = new ScriptingContainer(LocalContextScope.SINGLETHREAD);
+        receiver = container.runScriptlet("class Calculator; def call; 1 + 2; end; end; Calculator.new");
+    }
+
+    @After
+    public void tearDown() {
+        container.getVarMap().clear();
+        container = null;
+    }
+
+    @Test
+    public void testGetInstance() throws Exception {
+        System.out.println("[getInstance runner]");
+        for (int i = 0; i < warmup; i++) {
+            container.getInstance(receiver, Callable.class).call();
+        }
+        long created = InterfaceProxyHandler.getCreationCount();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            container.getInstance(receiver, Callable.class).call();
+        }
+        long elapsed = System.nanoTime() - start;
+        long perSecond = elapsed > 0 ? (iterations * 1000000000L) / elapsed : 0;
+        System.out.println("getInstance and call: " + perSecond + " calls/sec, " +
+                (InterfaceProxyHandler.getCreationCount() - created) + " proxies created");
+    }
+
+    @Test
+    public void testBridge() throws Exception {
+        System.out.println("[interface bridge runner]");
+        Object scorer = container.runScriptlet(
+                "class Scorer; def score(b, w); b * w; end; def ratio(v); v / 2.0; end; " +
+                "def accept(v); v > 10; end; def get_name; 'scorer'; end; def reset; end; end; Scorer.new");
+        Strategy proxy = container.getInstance(scorer, Strategy.class);
+        container.setAttribute(AttributeName.INTERFACE_BRIDGE, true);
+        Strategy bridge = container.getInstance(container.runScriptlet("Scorer.new"), Strategy.class);
+        System.out.println("proxy: " + measure(proxy) + " calls/sec");
+        System.out.println("bridge: " + measure(bridge) + " calls/sec");
+    }
+
+    private long measure(Strategy strategy) {
+        long sum = 0L;
+        for (int i = 0; i < warmup; i++) {
+            sum += strategy.score(i, 2);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sum += strategy.score(i, 2);
+        }
+        long elapsed = System.nanoTime() - start;
+        return sum > 0 && elapsed > 0 ? (iterations * 1000000000L) / elapsed : 0;
+    }
+}
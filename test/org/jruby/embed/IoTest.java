@@ -163,4 +163,27 @@ public class IoTest {
         }
         System.out.println("3rd ERROR: " + writer.toString());
     }
-}
\ No newline at end of file
+
+    /**
+     * Test of runScriptlet method with OutputCapture, of class ScriptingContainer.
+     */
+    @Test
+    public void testRunScriptletWithCapture() {
+        System.out.println("[testRunScriptletWithCapture]");
+        Writer writer = new StringWriter();
+        instance.setWriter(writer);
+        OutputCapture capture = new OutputCapture();
+        instance.runScriptlet("puts 'captured'; $stderr.print 'oops'", capture);
+        assertEquals("captured\n", capture.getOutput());
+        assertEquals("oops", capture.getErrorOutput());
+        assertEquals("", writer.toString());
+
+        instance.runScriptlet("puts 'not captured'");
+        assertEquals("not captured\n", writer.toString());
+
+        capture.reset();
+        instance.runScriptlet("print 1 + 2", capture);
+        assertEquals("3", capture.getOutput());
+        assertEquals("not captured\n", writer.toString());
+    }
+}
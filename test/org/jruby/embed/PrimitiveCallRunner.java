@@ -0,0 +1,164 @@
+/**
+ * **** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 Yoko Harada <yokolet@gmail.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ * **** END LICENSE BLOCK *****
+ */
+package org.jruby.embed;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Compares boxed callMethod with callMethodForLong/callMethodForDouble.
+ * Prints calls/sec and, when the JVM exposes per thread allocation counters,
+ * bytes allocated per call.
+ *
+ * @author Yoko Harada <yokolet@gmail.com>
+ */
+public class PrimitiveCallRunner {
+    private final static String jrubyhome = "/Users/yoko/Tools/jruby-1.4.0RC3";
+    private final static int warmup = 10000;
+    private final static int iterations = 100000;
+    private ScriptingContainer container;
+    private Object receiver;
+
+    public PrimitiveCallRunner() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        String[] paths = {
+            jrubyhome + "/lib/ruby/1.8",
+            jrubyhome + "/lib/ruby/site_ruby/1.8",
+            jrubyhome
+        };
+        String separator = System.getProperty("path.separator");
+        String classPath = "";
+        for (int i=0; i < paths.length; i++) {
+            classPath = classPath + paths[i] + separator;
+        }
+        classPath = classPath.substring(0, classPath.length()-1);
+        System.setProperty("org.jruby.embed.class.path", classPath);
+        System.setProperty("jruby.home", jrubyhome);
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+        container = new ScriptingContainer(LocalContextScope.SINGLETHREAD);
+        String script =
+            "class Calc\n" +
+              "def twice(x); x * 2; end\n" +
+              "def add(x, y); x + y; end\n" +
+            "end\n" +
+            "Calc.new";
+        receiver = container.runScriptlet(script);
+    }
+
+    @After
+    public void tearDown() {
+        container.getVarMap().clear();
+        container = null;
+    }
+
+    @Test
+    public void testLong() {
+        System.out.println("[callMethodForLong runner]");
+        measure("boxed one arg", new Runnable() {
+            public void run() {
+                container.callMethod(receiver, "twice", 21L, Long.class);
+            }
+        });
+        measure("long one arg", new Runnable() {
+            public void run() {
+                container.callMethodForLong(receiver, "twice", 21L);
+            }
+        });
+        measure("boxed two args", new Runnable() {
+            public void run() {
+                container.callMethod(receiver, "add", new Object[]{1L, 2L}, Long.class);
+            }
+        });
+        measure("long two args", new Runnable() {
+            public void run() {
+                container.callMethodForLong(receiver, "add", 1L, 2L);
+            }
+        });
+    }
+
+    @Test
+    public void testDouble() {
+        System.out.println("[callMethodForDouble runner]");
+        measure("boxed two args", new Runnable() {
+            public void run() {
+                container.callMethod(receiver, "add", new Object[]{1.5, 2.5}, Double.class);
+            }
+        });
+        measure("double two args", new Runnable() {
+            public void run() {
+                container.callMethodForDouble(receiver, "add", 1.5, 2.5);
+            }
+        });
+    }
+
+    private void measure(String label, Runnable call) {
+        for (int i = 0; i < warmup; i++) {
+            call.run();
+        }
+        long allocated = getAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            call.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        allocated = allocated < 0 ? -1 : getAllocatedBytes() - allocated;
+        long perSecond = elapsed > 0 ? (iterations * 1000000000L) / elapsed : 0;
+        String bytes = allocated < 0 ? "n/a" : String.valueOf(allocated / iterations);
+        System.out.println(label + ": " + perSecond + " calls/sec, " + bytes + " bytes/call");
+    }
+
+    // com.sun.management.ThreadMXBean is not available on every JVM
+    private long getAllocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        try {
+            Method method = bean.getClass().getMethod("getThreadAllocatedBytes", long.class);
+            method.setAccessible(true);
+            return (Long)method.invoke(bean, Thread.currentThread().getId());
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * **** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 Yoko Harada <yokolet@gmail.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ * **** END LICENSE BLOCK *****
+ */
+package org.jruby.embed;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Yoko Harada <yokolet@gmail.com>
+ */
+public class RubyMethodRefTest {
+    private final static String jrubyhome = "/Users/yoko/Tools/jruby-1.4.0RC3";
+    private ScriptingContainer container;
+
+    public RubyMethodRefTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        String[] paths = {
+            jrubyhome + "/lib/ruby/1.8",
+            jrubyhome + "/lib/ruby/site_ruby/1.8",
+            jrubyhome
+        };
+        String separator = System.getProperty("path.separator");
+        String classPath = "";
+        for (int i=0; i < paths.length; i++) {
+            classPath = classPath + paths[i] + separator;
+        }
+        classPath = classPath.substring(0, classPath.length()-1);
+        System.setProperty("org.jruby.embed.class.path", classPath);
+        System.setProperty("jruby.home", jrubyhome);
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+        container = new ScriptingContainer(LocalContextScope.SINGLETHREAD);
+    }
+
+    @After
+    public void tearDown() {
+        container.getVarMap().clear();
+        container = null;
+    }
+
+    /**
+     * Test of lookupMethod method, of class ScriptingContainer.
+     */
+    @Test
+    public void testLookupMethod() {
+        System.out.println("[testLookupMethod]");
+        String script =
+            "class Pricer\n" +
+              "def compute(x, y); x * y; end\n" +
+              "def name; \"pricer\"; end\n" +
+            "end\n" +
+            "Pricer.new";
+        Object receiver = container.runScriptlet(script);
+        RubyMethodRef ref = container.lookupMethod(receiver, "compute");
+        assertEquals("compute", ref.getName());
+        assertSame(receiver, ref.getReceiver());
+        for (long i = 0; i < 100; i++) {
+            assertEquals(Long.valueOf(i * 3), ref.call(new Object[]{i, 3L}, Long.class));
+        }
+        ref = container.lookupMethod(receiver, "name");
+        assertEquals("pricer", ref.call(String.class));
+    }
+
+    /**
+     * Test of lookupMethod method when the method is redefined.
+     */
+    @Test
+    public void testRedefinedMethod() {
+        System.out.println("[testRedefinedMethod]");
+        Object receiver = container.runScriptlet("class Pricer; def compute(x); x + 1; end; end; Pricer.new");
+        RubyMethodRef ref = container.lookupMethod(receiver, "compute");
+        assertEquals(Long.valueOf(2L), ref.call(new Object[]{1L}, Long.class));
+
+        container.runScriptlet("class Pricer; def compute(x); x + 10; end; end");
+        assertEquals(Long.valueOf(11L), ref.call(new Object[]{1L}, Long.class));
+
+        container.runScriptlet("module Discount; def compute(x); x - 1; end; end; class Pricer; include Discount; end");
+        assertEquals(Long.valueOf(11L), ref.call(new Object[]{1L}, Long.class));
+
+        container.runScriptlet("class Pricer; remove_method :compute; end");
+        assertEquals(Long.valueOf(0L), ref.call(new Object[]{1L}, Long.class));
+    }
+
+    /**
+     * Test of lookupMethod method with method_missing.
+     */
+    @Test
+    public void testMethodMissing() {
+        System.out.println("[testMethodMissing]");
+        String script =
+            "class Ghost\n" +
+              "def method_missing(name, *args); name.to_s; end\n" +
+            "end\n" +
+            "Ghost.new";
+        Object receiver = container.runScriptlet(script);
+        RubyMethodRef ref = container.lookupMethod(receiver, "boo");
+        assertEquals("boo", ref.call(String.class));
+    }
+}
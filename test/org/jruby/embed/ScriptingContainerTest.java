@@ -44,6 +44,7 @@ import java.io.StringWriter;
 import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -464,6 +465,70 @@ public class ScriptingContainerTest {
         instance = null;
     }
 
+    /**
+     * Test of runBatch methods, of class EmbedEvalUnit.
+     */
+    @Test
+    public void testRunBatch() {
+        System.out.println("runBatch");
+        ScriptingContainer instance = new ScriptingContainer(LocalContextScope.THREADSAFE, LocalVariableBehavior.PERSISTENT);
+        instance.getProvider().setLoadPaths(loadPaths);
+        instance.getProvider().getRubyInstanceConfig().setJRubyHome(jrubyhome);
+        instance.put("x", 0L);
+        instance.put("@rate", 1.0);
+        EmbedEvalUnit unit = instance.parse("x * @rate");
+        String[] names = {"x", "@rate"};
+        Object[][] columns = {
+            {1L, 2L, 3L, 4L},
+            {2.0, 2.0, 0.5, 0.5}
+        };
+        IRubyObject[] results = unit.runBatch(names, columns);
+        Object[] expResults = {2.0, 4.0, 1.5, 2.0};
+        assertEquals(expResults.length, results.length);
+        for (int i = 0; i < results.length; i++) {
+            assertEquals(expResults[i], JavaEmbedUtils.rubyToJava(results[i]));
+        }
+
+        List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+        for (long i = 0; i < 3; i++) {
+            Map<String, Object> row = new HashMap<String, Object>();
+            row.put("x", i);
+            row.put("@rate", 10.0);
+            rows.add(row);
+        }
+        results = unit.runBatch(rows);
+        assertEquals(3, results.length);
+        for (int i = 0; i < results.length; i++) {
+            assertEquals(i * 10.0, JavaEmbedUtils.rubyToJava(results[i]));
+        }
+        // batch values don't stay in the container
+        assertEquals(0L, instance.get("x"));
+        assertEquals(1.0, instance.get("@rate"));
+        results = unit.runBatch(new String[]{"@extra"}, new Object[][]{{5L, 6L}});
+        assertEquals(2, results.length);
+        assertFalse(instance.getVarMap().containsKey("@extra"));
+        assertEquals(1.0, instance.runScriptlet("@extra.nil? ? @rate : @extra"));
+
+        try {
+            unit.runBatch(new String[]{"y"}, new Object[][]{{1L}});
+            fail("y was not a local variable when the script was parsed");
+        } catch (IllegalArgumentException e) {
+        }
+
+        // the script changes batch variables, and equal inputs still start over
+        instance.put("$count", 0L);
+        unit = instance.parse("$count += 1; x = x + 1; sum ||= 0; sum += x; [$count, x, sum]");
+        results = unit.runBatch(new String[]{"$count", "x"}, new Object[][]{{1L, 1L, 1L}, {5L, 5L, 5L}});
+        assertEquals(3, results.length);
+        for (int i = 0; i < results.length; i++) {
+            assertEquals(Arrays.asList(2L, 6L, 6L), JavaEmbedUtils.rubyToJava(results[i]));
+        }
+        assertEquals(0L, instance.get("$count"));
+
+        instance.getVarMap().clear();
+        instance = null;
+    }
+
     /**
      * Test of evalScriptlet method, of class ScriptContainer.
      */
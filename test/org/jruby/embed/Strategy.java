@@ -27,19 +27,16 @@
  * the terms of any one of the CPL, the GPL or the LGPL.
  * **** END LICENSE BLOCK *****
  */
-package org.jruby.embed.internal;
-
-import java.lang.annotation.ElementType;
-import java.lang.annotation.Retention;
-import java.lang.annotation.RetentionPolicy;
-import java.lang.annotation.Target;
+package org.jruby.embed;
 
 /**
  *
  * @author Yoko Harada <yokolet@gmail.com>
  */
-@Retention(RetentionPolicy.RUNTIME)
-@Target(ElementType.METHOD)
-public @interface CallMethodType {
-    int methodType();
+public interface Strategy {
+    long score(long base, int weight);
+    double ratio(double value);
+    boolean accept(long value);
+    String getName();
+    void reset();
 }
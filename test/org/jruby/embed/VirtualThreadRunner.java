@@ -0,0 +1,152 @@
+/**
+ * **** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 Yoko Harada <yokolet@gmail.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ * **** END LICENSE BLOCK *****
+ */
+package org.jruby.embed;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.jruby.embed.internal.PooledLocalContextProvider;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Measures 10000 concurrent evaluations on a CONCURRENT scope container from
+ * platform threads and from virtual threads. Virtual threads are used only when
+ * the JVM has them.
+ *
+ * @author Yoko Harada <yokolet@gmail.com>
+ */
+public class VirtualThreadRunner {
+    private final static String jrubyhome = "/Users/yoko/Tools/jruby-1.4.0RC3";
+    private final static int tasks = 10000;
+    private final static int platformThreads = 200;
+    private ScriptingContainer container;
+    private PooledLocalContextProvider pool;
+
+    public VirtualThreadRunner() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        String[] paths = {
+            jrubyhome + "/lib/ruby/1.8",
+            jrubyhome + "/lib/ruby/site_ruby/1.8",
+            jrubyhome
+        };
+        String separator = System.getProperty("path.separator");
+        String classPath = "";
+        for (int i=0; i < paths.length; i++) {
+            classPath = classPath + paths[i] + separator;
+        }
+        classPath = classPath.substring(0, classPath.length()-1);
+        System.setProperty("org.jruby.embed.class.path", classPath);
+        System.setProperty("jruby.home", jrubyhome);
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+        container = new ScriptingContainer(LocalContextScope.CONCURRENT);
+        pool = (PooledLocalContextProvider) container.getProvider();
+        pool.setBorrowTimeout(0);
+        pool.setMinSize(pool.getMaxSize());
+        pool.prestart();
+    }
+
+    @After
+    public void tearDown() {
+        container.terminate();
+        container = null;
+    }
+
+    @Test
+    public void testPlatformThreads() throws Exception {
+        System.out.println("[platform threads runner]");
+        measure("platform threads", Executors.newFixedThreadPool(platformThreads));
+    }
+
+    @Test
+    public void testVirtualThreads() throws Exception {
+        System.out.println("[virtual threads runner]");
+        ExecutorService executor = newVirtualThreadExecutor();
+        if (executor == null) {
+            System.out.println("virtual threads: n/a");
+            return;
+        }
+        measure("virtual threads", executor);
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor is available on Java 21 or later
+    private ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private void measure(String label, ExecutorService executor) throws Exception {
+        List<Future<Object>> futures = new ArrayList<Future<Object>>(tasks);
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < tasks; i++) {
+                final long n = i;
+                futures.add(executor.submit(new Callable<Object>() {
+                    public Object call() {
+                        return container.runScriptlet(n + " * 2");
+                    }
+                }));
+            }
+            for (int i = 0; i < tasks; i++) {
+                assertEquals(Long.valueOf(i * 2L), futures.get(i).get());
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        long elapsed = System.nanoTime() - start;
+        long perSecond = elapsed > 0 ? (tasks * 1000000000L) / elapsed : 0;
+        System.out.println(label + ": " + perSecond + " evals/sec, max wait " +
+                pool.getMaxWaitTime() + "ms, " + pool.getSize() + " runtimes");
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * **** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 Yoko Harada <yokolet@gmail.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ * **** END LICENSE BLOCK *****
+ */
+package org.jruby.embed;
+
+import org.jruby.embed.internal.PooledLocalContextProvider;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Yoko Harada <yokolet@gmail.com>
+ */
+public class WarmupTest {
+    private final static String jrubyhome = "/Users/yoko/Tools/jruby-1.4.0RC3";
+
+    public WarmupTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        String[] paths = {
+            jrubyhome + "/lib/ruby/1.8",
+            jrubyhome + "/lib/ruby/site_ruby/1.8",
+            jrubyhome
+        };
+        String separator = System.getProperty("path.separator");
+        String classPath = "";
+        for (int i=0; i < paths.length; i++) {
+            classPath = classPath + paths[i] + separator;
+        }
+        classPath = classPath.substring(0, classPath.length()-1);
+        System.setProperty("org.jruby.embed.class.path", classPath);
+        System.setProperty("jruby.home", jrubyhome);
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    private WarmupSpec newSpec() {
+        WarmupSpec spec = new WarmupSpec();
+        spec.addRequire("set");
+        spec.addScriptlet("def fib(n); n < 2 ? n : fib(n - 1) + fib(n - 2); end; fib(10)");
+        spec.setIterations(10);
+        return spec;
+    }
+
+    /**
+     * Test of warmUp method, of class ScriptingContainer.
+     */
+    @Test
+    public void testWarmUp() {
+        System.out.println("[testWarmUp]");
+        ScriptingContainer container = new ScriptingContainer(LocalContextScope.SINGLETHREAD);
+        WarmupReport report = container.warmUp(newSpec());
+        System.out.println(report);
+        assertEquals(1, report.getRuntimeCount());
+        assertEquals(Boolean.TRUE, container.runScriptlet("defined?(Set) != nil"));
+        assertEquals(Long.valueOf(55L), container.runScriptlet("fib(10)"));
+    }
+
+    /**
+     * Test of warmUp method with a pooled container.
+     */
+    @Test
+    public void testWarmUpPooled() {
+        System.out.println("[testWarmUpPooled]");
+        ScriptingContainer container = new ScriptingContainer(LocalContextScope.POOLED);
+        PooledLocalContextProvider pool = (PooledLocalContextProvider)container.getProvider();
+        pool.setMaxSize(2);
+        WarmupSpec spec = newSpec();
+        spec.setParallelism(4);
+        WarmupReport report = container.warmUp(spec);
+        System.out.println(report);
+        assertEquals(2, report.getRuntimeCount());
+        assertEquals(2, pool.getSize());
+        assertEquals(2, pool.getIdleCount());
+    }
+
+    /**
+     * Test of warmUp method with a timeout while the pool is exhausted.
+     */
+    @Test
+    public void testWarmUpTimeout() {
+        System.out.println("[testWarmUpTimeout]");
+        ScriptingContainer container = new ScriptingContainer(LocalContextScope.POOLED);
+        PooledLocalContextProvider pool = (PooledLocalContextProvider)container.getProvider();
+        pool.setMaxSize(1);
+        WarmupSpec spec = newSpec();
+        spec.setParallelism(1);
+        spec.setTimeout(200L);
+        pool.checkout(null);
+        try {
+            WarmupReport report = container.warmUp(spec);
+            System.out.println(report);
+            assertEquals(0, report.getRuntimeCount());
+            assertEquals(1, report.getUnfinishedCount());
+        } finally {
+            pool.checkin();
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/**
+ * **** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 Yoko Harada <yokolet@gmail.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ * **** END LICENSE BLOCK *****
+ */
+package org.jruby.embed.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.jruby.Ruby;
+import org.jruby.embed.LocalContextScope;
+import org.jruby.embed.LocalVariableBehavior;
+import org.jruby.embed.ScriptingContainer;
+import org.jruby.embed.variable.BiVariable;
+import org.jruby.embed.variable.VariableInterceptor;
+import org.jruby.runtime.builtin.IRubyObject;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Measures containsKey/get/put and local variable views of
+ * {@link BiVariableMap} with 10, 100 and 1000 variables. Each measurement is
+ * compared with a baseline that works like the old map, which kept names and
+ * variables in two synchronized lists and looked names up by indexOf.
+ *
+ * @author Yoko Harada <yokolet@gmail.com>
+ */
+public class BiVariableMapRunner {
+    private final static String jrubyhome = "/Users/yoko/Tools/jruby-1.4.0RC3";
+    private final static int[] sizes = {10, 100, 1000};
+    private final static int iterations = 2000;
+    private ScriptingContainer container;
+
+    public BiVariableMapRunner() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        String[] paths = {
+            jrubyhome + "/lib/ruby/1.8",
+            jrubyhome + "/lib/ruby/site_ruby/1.8",
+            jrubyhome
+        };
+        String separator = System.getProperty("path.separator");
+        String classPath = "";
+        for (int i=0; i < paths.length; i++) {
+            classPath = classPath + paths[i] + separator;
+        }
+        classPath = classPath.substring(0, classPath.length()-1);
+        System.setProperty("org.jruby.embed.class.path", classPath);
+        System.setProperty("jruby.home", jrubyhome);
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+        container = new ScriptingContainer(LocalContextScope.SINGLETHREAD);
+    }
+
+    @After
+    public void tearDown() {
+        container.getVarMap().clear();
+        container = null;
+    }
+
+    @Test
+    public void testLookup() {
+        System.out.println("[BiVariableMap lookup runner]");
+        for (int size : sizes) {
+            ListBaseline baseline = new ListBaseline(container.getRuntime());
+            BiVariableMap map = new BiVariableMap(container.getRuntime());
+            for (int i = 0; i < size; i++) {
+                baseline.put("@v" + i, i);
+                map.put("@v" + i, i);
+            }
+            // warm up
+            lookup(baseline, size);
+            lookup(map, size);
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                lookup(baseline, size);
+            }
+            long before = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                lookup(map, size);
+            }
+            long after = System.nanoTime() - start;
+            long count = (long)iterations * size;
+            System.out.println(size + " variables: list " + (before / count) + " ns/lookup, map " +
+                    (after / count) + " ns/lookup");
+            map.clear();
+        }
+    }
+
+    private void lookup(ListBaseline baseline, int size) {
+        for (int i = 0; i < size; i++) {
+            String name = "@v" + (size - i - 1);
+            if (baseline.containsKey(name)) {
+                baseline.put(name, baseline.get(name));
+            }
+        }
+    }
+
+    private void lookup(BiVariableMap map, int size) {
+        for (int i = 0; i < size; i++) {
+            String name = "@v" + (size - i - 1);
+            if (map.containsKey(name)) {
+                map.put(name, map.get(name));
+            }
+        }
+    }
+
+    @Test
+    public void testLocalVariables() {
+        System.out.println("[BiVariableMap local variables runner]");
+        for (int size : sizes) {
+            ListBaseline baseline = new ListBaseline(container.getRuntime());
+            BiVariableMap map = new BiVariableMap(container.getRuntime());
+            for (int i = 0; i < size; i++) {
+                baseline.put("@v" + i, i);
+                baseline.put("v" + i, i);
+                map.put("@v" + i, i);
+                map.put("v" + i, i);
+            }
+            baseline.getLocalVarNames();
+            map.getLocalVarNames();
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                baseline.getLocalVarNames();
+                baseline.getLocalVarValues();
+            }
+            long before = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                map.getLocalVarNames();
+                map.getLocalVarValues();
+            }
+            long after = System.nanoTime() - start;
+            System.out.println(size + " variables: list " + (before / iterations) + " ns/call, map " +
+                    (after / iterations) + " ns/call");
+            map.clear();
+        }
+    }
+
+    /**
+     * Lookups and local variable views of the old BiVariableMap.
+     */
+    private static class ListBaseline {
+        private final Ruby runtime;
+        private final List<String> varNames = Collections.synchronizedList(new ArrayList<String>());
+        private final List<BiVariable> variables = Collections.synchronizedList(new ArrayList<BiVariable>());
+        private final VariableInterceptor interceptor = new VariableInterceptor(LocalVariableBehavior.TRANSIENT);
+
+        private ListBaseline(Ruby runtime) {
+            this.runtime = runtime;
+        }
+
+        private boolean containsKey(String key) {
+            return varNames.contains(key);
+        }
+
+        private Object get(String key) {
+            if (containsKey(key)) {
+                return getVariable(key).getJavaObject();
+            }
+            return null;
+        }
+
+        private BiVariable getVariable(String key) {
+            if (containsKey(key)) {
+                return variables.get(varNames.indexOf(key));
+            }
+            return null;
+        }
+
+        private void put(String key, Object value) {
+            BiVariable v = getVariable(key);
+            if (v != null) {
+                v.setJavaObject(runtime, value);
+            } else {
+                v = interceptor.getVariableInstance(runtime, key, value);
+                if (v != null) {
+                    varNames.add(key);
+                    variables.add(v);
+                }
+            }
+        }
+
+        private String[] getLocalVarNames() {
+            List<String> names = new ArrayList<String>();
+            for (BiVariable v : variables) {
+                if (v.getType() == BiVariable.Type.LocalVariable) {
+                    names.add(v.getName());
+                }
+            }
+            return names.toArray(new String[names.size()]);
+        }
+
+        private IRubyObject[] getLocalVarValues() {
+            List<IRubyObject> values = new ArrayList<IRubyObject>();
+            for (BiVariable v : variables) {
+                if (v.getType() == BiVariable.Type.LocalVariable) {
+                    values.add(v.getRubyObject());
+                }
+            }
+            return values.toArray(new IRubyObject[values.size()]);
+        }
+    }
+}
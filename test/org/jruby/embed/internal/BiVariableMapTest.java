@@ -30,6 +30,7 @@
 package org.jruby.embed.internal;
 
 import org.jruby.embed.variable.Constant;
+import org.jruby.embed.variable.ConversionStatistics;
 import org.jruby.embed.variable.GlobalVariable;
 import org.jruby.embed.variable.InstanceVariable;
 import java.util.ArrayList;
@@ -40,6 +41,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import org.jruby.embed.AttributeName;
 import org.jruby.embed.BiVariable;
 import org.jruby.embed.ScriptingContainer;
 import org.jruby.javasupport.JavaEmbedUtils;
@@ -501,4 +503,43 @@ public class BiVariableMapTest {
         IRubyObject receiver = null;
         instance.retrieve(receiver);
     }
-}
\ No newline at end of file
+
+    /**
+     * Test of incremental retrieval after global variables are removed from the map.
+     */
+    @Test
+    public void testIncrementalRetrieval() {
+        System.out.println("incremental retrieval");
+        container.setAttribute(AttributeName.INCREMENTAL_GLOBAL_RETRIEVAL, true);
+        try {
+            container.runScriptlet("$incremental = 1");
+            assertEquals(1L, instance.get("$incremental"));
+            instance.clear();
+            container.runScriptlet("$incremental = 2");
+            assertEquals(2L, instance.get("$incremental"));
+            instance.remove("$incremental");
+            container.runScriptlet("$incremental = 3");
+            assertEquals(3L, instance.get("$incremental"));
+        } finally {
+            container.removeAttribute(AttributeName.INCREMENTAL_GLOBAL_RETRIEVAL);
+        }
+    }
+
+    /**
+     * Test of retrieving the same constants repeatedly without converting them.
+     */
+    @Test
+    public void testLazyConstantRetrieval() {
+        System.out.println("lazy constant retrieval");
+        container.runScriptlet("module Palette; end; SHADES = [1, 2].freeze; nil");
+        ConversionStatistics.reset();
+        container.runScriptlet("nil");
+        long saved = ConversionStatistics.getRubyToJavaSavedCount();
+        // retrieved again, but neither converted
+        assertTrue(saved >= 2);
+        container.runScriptlet("nil");
+        assertTrue(ConversionStatistics.getRubyToJavaSavedCount() >= saved + 2);
+        assertNotNull(instance.get("Palette"));
+        assertNotNull(instance.get("SHADES"));
+    }
+}
@@ -0,0 +1,197 @@
+/**
+ * **** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 Yoko Harada <yokolet@gmail.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ * **** END LICENSE BLOCK *****
+ */
+package org.jruby.embed.internal;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import org.jruby.RubyInstanceConfig.CompileMode;
+import org.jruby.embed.AttributeName;
+import org.jruby.embed.EmbedEvalUnit;
+import org.jruby.embed.LocalContextScope;
+import org.jruby.embed.PathType;
+import org.jruby.embed.ScriptingContainer;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Yoko Harada <yokolet@gmail.com>
+ */
+public class CompiledScriptCacheTest {
+    private final static String jrubyhome = "/Users/yoko/Tools/jruby-1.4.0RC3";
+    private File directory;
+    private File script;
+
+    public CompiledScriptCacheTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        String[] paths = {
+            jrubyhome + "/lib/ruby/1.8",
+            jrubyhome + "/lib/ruby/site_ruby/1.8",
+            jrubyhome
+        };
+        String separator = System.getProperty("path.separator");
+        String classPath = "";
+        for (int i=0; i < paths.length; i++) {
+            classPath = classPath + paths[i] + separator;
+        }
+        classPath = classPath.substring(0, classPath.length()-1);
+        System.setProperty("org.jruby.embed.class.path", classPath);
+        System.setProperty("jruby.home", jrubyhome);
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("compiled", "cache");
+        directory.delete();
+        script = File.createTempFile("rule", ".rb");
+        writeScript("def discount(x); x * 0.9; end; discount(100)");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+        script.delete();
+    }
+
+    private void writeScript(String content) throws IOException {
+        FileWriter writer = new FileWriter(script);
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private ScriptingContainer newContainer() {
+        ScriptingContainer container = new ScriptingContainer(LocalContextScope.SINGLETHREAD);
+        container.getProvider().getRubyInstanceConfig().setCompileMode(CompileMode.FORCE);
+        container.setAttribute(AttributeName.COMPILED_SCRIPT_CACHE_DIR, directory.getPath());
+        return container;
+    }
+
+    private Object run() {
+        return newContainer().parse(PathType.ABSOLUTE, script.getPath()).run();
+    }
+
+    private Object run(String name, Object value) {
+        ScriptingContainer container = newContainer();
+        container.put(name, value);
+        return container.parse(PathType.ABSOLUTE, script.getPath()).run();
+    }
+
+    /**
+     * Test of load and compile methods, of class CompiledScriptCache.
+     */
+    @Test
+    public void testCache() throws IOException {
+        System.out.println("[testCache]");
+        CompiledScriptCache cache = CompiledScriptCache.getInstance(directory);
+        assertEquals(0L, cache.getHitCount());
+
+        assertEquals("90.0", run().toString());
+        assertEquals(0L, cache.getHitCount());
+        assertEquals(1L, cache.getMissCount());
+        assertTrue(new File(directory, "index").isFile());
+
+        assertEquals("90.0", run().toString());
+        assertEquals(1L, cache.getHitCount());
+
+        writeScript("def discount(x); x * 0.5; end; discount(100)");
+        assertEquals("50.0", run().toString());
+        assertEquals(1L, cache.getHitCount());
+        assertEquals(2L, cache.getMissCount());
+    }
+
+    /**
+     * Test of a cached script that uses local variables of a container.
+     */
+    @Test
+    public void testLocalVariables() throws IOException {
+        System.out.println("[testLocalVariables]");
+        CompiledScriptCache cache = CompiledScriptCache.getInstance(directory);
+        writeScript("rate * 100");
+        assertEquals("80.0", run("rate", 0.8).toString());
+        assertEquals(1L, cache.getMissCount());
+
+        assertEquals("50.0", run("rate", 0.5).toString());
+        assertEquals(1L, cache.getHitCount());
+    }
+
+    /**
+     * Test of a cached script interpreted after the compile mode is changed.
+     */
+    @Test
+    public void testInterpretedHit() throws IOException {
+        System.out.println("[testInterpretedHit]");
+        CompiledScriptCache cache = CompiledScriptCache.getInstance(directory);
+        assertEquals("90.0", run().toString());
+
+        ScriptingContainer container = newContainer();
+        EmbedEvalUnit unit = container.parse(PathType.ABSOLUTE, script.getPath());
+        assertEquals(1L, cache.getHitCount());
+        container.getProvider().getRuntime().getInstanceConfig().setCompileMode(CompileMode.OFF);
+        assertEquals("90.0", unit.run().toString());
+        assertNotNull(unit.getNode());
+    }
+
+    /**
+     * Test of digest method, of class CompiledScriptCache.
+     */
+    @Test
+    public void testDigest() throws IOException {
+        System.out.println("[testDigest]");
+        byte[] source = "puts 1".getBytes("UTF-8");
+        String digest = CompiledScriptCache.digest(source, "a.rb", 0, null, "RUBY1_8");
+        assertEquals(40, digest.length());
+        assertEquals(digest, CompiledScriptCache.digest(source, "a.rb", 0, null, "RUBY1_8"));
+        assertFalse(digest.equals(CompiledScriptCache.digest(source, "b.rb", 0, null, "RUBY1_8")));
+        assertFalse(digest.equals(CompiledScriptCache.digest(source, "a.rb", 1, null, "RUBY1_8")));
+        assertFalse(digest.equals(CompiledScriptCache.digest(source, "a.rb", 0, new String[]{"x"}, "RUBY1_8")));
+        assertFalse(digest.equals(CompiledScriptCache.digest(source, "a.rb", 0, null, "RUBY1_9")));
+    }
+}
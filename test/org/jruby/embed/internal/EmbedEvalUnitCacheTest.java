@@ -0,0 +1,176 @@
+/**
+ * **** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 Yoko Harada <yokolet@gmail.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ * **** END LICENSE BLOCK *****
+ */
+package org.jruby.embed.internal;
+
+import org.jruby.embed.AttributeName;
+import org.jruby.embed.EmbedEvalUnit;
+import org.jruby.embed.LocalContextScope;
+import org.jruby.embed.ScriptingContainer;
+import org.jruby.javasupport.JavaEmbedUtils;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Yoko Harada <yokolet@gmail.com>
+ */
+public class EmbedEvalUnitCacheTest {
+    private final static String jrubyhome = "/Users/yoko/Tools/jruby-1.4.0RC3";
+    private ScriptingContainer container;
+
+    public EmbedEvalUnitCacheTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        String[] paths = {
+            jrubyhome + "/lib/ruby/1.8",
+            jrubyhome + "/lib/ruby/site_ruby/1.8",
+            jrubyhome
+        };
+        String separator = System.getProperty("path.separator");
+        String classPath = "";
+        for (int i=0; i < paths.length; i++) {
+            classPath = classPath + paths[i] + separator;
+        }
+        classPath = classPath.substring(0, classPath.length()-1);
+        System.setProperty("org.jruby.embed.class.path", classPath);
+        System.setProperty("jruby.home", jrubyhome);
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+        container = new ScriptingContainer(LocalContextScope.SINGLETHREAD);
+    }
+
+    @After
+    public void tearDown() {
+        container.getVarMap().clear();
+        container = null;
+    }
+
+    /**
+     * Test of the parse cache disabled by default.
+     */
+    @Test
+    public void testDisabled() {
+        System.out.println("[testDisabled]");
+        EmbedEvalUnit unit1 = container.parse("1 + 2");
+        EmbedEvalUnit unit2 = container.parse("1 + 2");
+        assertNotSame(unit1, unit2);
+        assertEquals(0, container.getParseCache().size());
+        assertEquals(0L, container.getParseCache().getHitCount());
+    }
+
+    /**
+     * Test of hits and misses of the parse cache.
+     */
+    @Test
+    public void testHitAndMiss() {
+        System.out.println("[testHitAndMiss]");
+        container.setAttribute(AttributeName.PARSE_CACHE_SIZE, 8);
+        EmbedEvalUnitCache cache = container.getParseCache();
+        EmbedEvalUnit unit1 = container.parse("1 + 2");
+        EmbedEvalUnit unit2 = container.parse("1 + 2");
+        assertSame(unit1.getNode(), unit2.getNode());
+        assertNotSame(unit1.getScope(), unit2.getScope());
+        EmbedEvalUnit unit3 = container.parse("1 + 2", 3);
+        assertNotSame(unit1.getNode(), unit3.getNode());
+        assertEquals(1L, cache.getHitCount());
+        assertEquals(2L, cache.getMissCount());
+        assertEquals(3L, container.runScriptlet("1 + 2"));
+        assertEquals(3L, container.runScriptlet("1 + 2"));
+        assertEquals(3L, cache.getHitCount());
+    }
+
+    /**
+     * Test of local variable names as a part of keys.
+     */
+    @Test
+    public void testLocalVariableNames() {
+        System.out.println("[testLocalVariableNames]");
+        container.setAttribute(AttributeName.PARSE_CACHE_SIZE, 8);
+        EmbedEvalUnit unit1 = container.parse("x = 1");
+        container.put("y", 2);
+        EmbedEvalUnit unit2 = container.parse("x = 1");
+        assertNotSame(unit1, unit2);
+        container.put("x", 3);
+        assertEquals(6L, container.runScriptlet("x * 2"));
+        container.put("x", 4);
+        container.put("y", 2);
+        assertEquals(8L, container.runScriptlet("x * 2"));
+    }
+
+    /**
+     * Test of the least recently used eviction.
+     */
+    @Test
+    public void testEviction() {
+        System.out.println("[testEviction]");
+        container.setAttribute(AttributeName.PARSE_CACHE_SIZE, 2);
+        EmbedEvalUnitCache cache = container.getParseCache();
+        EmbedEvalUnit unit1 = container.parse("1");
+        container.parse("2");
+        assertSame(unit1.getNode(), container.parse("1").getNode());
+        container.parse("3");
+        assertEquals(2, cache.size());
+        assertEquals(1L, cache.getEvictionCount());
+        assertSame(unit1.getNode(), container.parse("1").getNode());
+        container.setAttribute(AttributeName.PARSE_CACHE_SIZE, 1);
+        container.parse("1");
+        assertEquals(1, cache.size());
+        assertEquals(2L, cache.getEvictionCount());
+    }
+
+    /**
+     * Test of a fresh scope for each unit created from a cached parse.
+     */
+    @Test
+    public void testFreshScope() {
+        System.out.println("[testFreshScope]");
+        container.setAttribute(AttributeName.PARSE_CACHE_SIZE, 8);
+        String script = "x ||= 0; x += 1";
+        assertEquals(1L, container.runScriptlet(script));
+        assertEquals(1L, container.runScriptlet(script));
+        assertEquals(1L, container.getParseCache().getHitCount());
+        EmbedEvalUnit unit1 = container.parse(script);
+        EmbedEvalUnit unit2 = container.parse(script);
+        assertEquals(1L, JavaEmbedUtils.rubyToJava(unit1.run()));
+        assertEquals(1L, JavaEmbedUtils.rubyToJava(unit2.run()));
+    }
+}
@@ -0,0 +1,271 @@
+/**
+ * **** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 Yoko Harada <yokolet@gmail.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ * **** END LICENSE BLOCK *****
+ */
+package org.jruby.embed.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.jruby.Ruby;
+import org.jruby.embed.EmbedEvalUnit;
+import org.jruby.embed.LocalContextScope;
+import org.jruby.embed.ScriptingContainer;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Yoko Harada <yokolet@gmail.com>
+ */
+public class PooledLocalContextProviderTest {
+    private final static String jrubyhome = "/Users/yoko/Tools/jruby-1.4.0RC3";
+    private ScriptingContainer container;
+    private PooledLocalContextProvider pool;
+
+    public PooledLocalContextProviderTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        String[] paths = {
+            jrubyhome + "/lib/ruby/1.8",
+            jrubyhome + "/lib/ruby/site_ruby/1.8",
+            jrubyhome
+        };
+        String separator = System.getProperty("path.separator");
+        String classPath = "";
+        for (int i=0; i < paths.length; i++) {
+            classPath = classPath + paths[i] + separator;
+        }
+        classPath = classPath.substring(0, classPath.length()-1);
+        System.setProperty("org.jruby.embed.class.path", classPath);
+        System.setProperty("jruby.home", jrubyhome);
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+        container = new ScriptingContainer(LocalContextScope.POOLED);
+        pool = (PooledLocalContextProvider) container.getProvider();
+    }
+
+    @After
+    public void tearDown() {
+        container.terminate();
+        container = null;
+    }
+
+    /**
+     * Test of prestart method, of class PooledLocalContextProvider.
+     */
+    @Test
+    public void testPrestart() {
+        System.out.println("[testPrestart]");
+        pool.setMinSize(2);
+        pool.setMaxSize(4);
+        pool.prestart();
+        assertEquals(2, pool.getSize());
+        assertEquals(2, pool.getIdleCount());
+        assertEquals(0, pool.getActiveCount());
+    }
+
+    /**
+     * Test of checkout and checkin methods, of class PooledLocalContextProvider.
+     */
+    @Test
+    public void testCheckoutAndCheckin() throws Exception {
+        System.out.println("[testCheckoutAndCheckin]");
+        pool.setMaxSize(1);
+        assertEquals(3L, container.runScriptlet("1 + 2"));
+        assertEquals(0, pool.getActiveCount());
+        final Ruby[] runtimes = new Ruby[2];
+        runtimes[0] = container.getRuntime();
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                container.runScriptlet("3 + 4");
+                runtimes[1] = container.getRuntime();
+            }
+        };
+        t.start();
+        t.join();
+        assertSame(runtimes[0], runtimes[1]);
+        assertEquals(1, pool.getSize());
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    /**
+     * Test of a borrow timeout, of class PooledLocalContextProvider.
+     */
+    @Test
+    public void testBorrowTimeout() throws Exception {
+        System.out.println("[testBorrowTimeout]");
+        pool.setMaxSize(1);
+        pool.setBorrowTimeout(100);
+        pool.checkout(null);
+        final Throwable[] errors = new Throwable[1];
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    container.runScriptlet("1");
+                } catch (Throwable e) {
+                    errors[0] = e;
+                }
+            }
+        };
+        t.start();
+        t.join();
+        pool.checkin();
+        assertTrue(errors[0] instanceof IllegalStateException);
+        assertEquals(1L, pool.getTimeoutCount());
+    }
+
+    /**
+     * Test of running a parsed unit on the runtime that parsed it.
+     */
+    @Test
+    public void testRunOnOwnerRuntime() throws Exception {
+        System.out.println("[testRunOnOwnerRuntime]");
+        pool.setMinSize(2);
+        pool.setMaxSize(2);
+        pool.prestart();
+        final EmbedEvalUnit unit = container.parse("$x = 10");
+        Ruby runtime = container.getRuntime();
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                unit.run();
+            }
+        };
+        t.start();
+        t.join();
+        assertEquals(10L, runtime.getGlobalVariables().get("$x").convertToInteger().getLongValue());
+        assertEquals(2, pool.getIdleCount());
+    }
+
+    /**
+     * Test of idle eviction, of class PooledLocalContextProvider.
+     */
+    @Test
+    public void testEvictIdle() throws Exception {
+        System.out.println("[testEvictIdle]");
+        pool.setMinSize(0);
+        pool.setMaxSize(2);
+        pool.setIdleTimeout(1);
+        container.runScriptlet("1");
+        Thread.sleep(10);
+        pool.evictIdle();
+        assertEquals(0, pool.getSize());
+        assertTrue(pool.getEvictionCount() > 0);
+    }
+
+    /**
+     * Test of a fair pool, which serves waiting threads in arrival order.
+     */
+    @Test
+    public void testFairOrder() throws Exception {
+        System.out.println("[testFairOrder]");
+        container = new ScriptingContainer(LocalContextScope.CONCURRENT);
+        pool = (PooledLocalContextProvider) container.getProvider();
+        assertTrue(pool.isFair());
+        pool.setMaxSize(1);
+        pool.setBorrowTimeout(0);
+        pool.checkout(null);
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        Thread[] threads = new Thread[3];
+        for (int i = 0; i < threads.length; i++) {
+            final int n = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    pool.checkout(null);
+                    order.add(n);
+                    pool.checkin();
+                }
+            };
+            threads[i].start();
+            while (pool.getWaitingCount() < i + 1) {
+                Thread.sleep(1);
+            }
+        }
+        pool.checkin();
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+        assertEquals(3, order.size());
+        for (int i = 0; i < threads.length; i++) {
+            assertEquals(Integer.valueOf(i), order.get(i));
+        }
+        assertEquals(0, pool.getWaitingCount());
+    }
+
+    /**
+     * Test of variables and attributes shared by threads without checking out
+     * local contexts.
+     */
+    @Test
+    public void testContainerVariables() throws Exception {
+        System.out.println("[testContainerVariables]");
+        pool.setMinSize(2);
+        pool.setMaxSize(2);
+        pool.prestart();
+        container.put("$x", 21L);
+        container.setAttribute("key", "value");
+        assertFalse(pool.isCheckedOut());
+        assertEquals(0, pool.getActiveCount());
+        final Object[] results = new Object[2];
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                results[0] = container.getAttribute("key");
+                results[1] = container.runScriptlet("$y = $x * 2");
+            }
+        };
+        t.start();
+        t.join();
+        assertEquals("value", results[0]);
+        assertEquals(42L, results[1]);
+        assertEquals(42L, container.get("$y"));
+        pool.checkout(null);
+        try {
+            assertEquals(42L, container.get("$y"));
+        } finally {
+            pool.checkin();
+        }
+        assertEquals(2, pool.getIdleCount());
+    }
+}
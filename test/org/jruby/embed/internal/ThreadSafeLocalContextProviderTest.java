@@ -0,0 +1,193 @@
+/**
+ * **** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 Yoko Harada <yokolet@gmail.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ * **** END LICENSE BLOCK *****
+ */
+package org.jruby.embed.internal;
+
+import org.jruby.Ruby;
+import org.jruby.embed.LocalContextScope;
+import org.jruby.embed.ScriptingContainer;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Yoko Harada <yokolet@gmail.com>
+ */
+public class ThreadSafeLocalContextProviderTest {
+    private final static String jrubyhome = "/Users/yoko/Tools/jruby-1.4.0RC3";
+    private ScriptingContainer container;
+    private ThreadSafeLocalContextProvider provider;
+
+    public ThreadSafeLocalContextProviderTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        String[] paths = {
+            jrubyhome + "/lib/ruby/1.8",
+            jrubyhome + "/lib/ruby/site_ruby/1.8",
+            jrubyhome
+        };
+        String separator = System.getProperty("path.separator");
+        String classPath = "";
+        for (int i=0; i < paths.length; i++) {
+            classPath = classPath + paths[i] + separator;
+        }
+        classPath = classPath.substring(0, classPath.length()-1);
+        System.setProperty("org.jruby.embed.class.path", classPath);
+        System.setProperty("jruby.home", jrubyhome);
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+        container = new ScriptingContainer(LocalContextScope.THREADSAFE);
+        provider = (ThreadSafeLocalContextProvider) container.getProvider();
+    }
+
+    @After
+    public void tearDown() {
+        container.terminate();
+        container = null;
+    }
+
+    private Thread runInThread(final String script) throws Exception {
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                container.runScriptlet(script);
+            }
+        };
+        t.start();
+        t.join();
+        return t;
+    }
+
+    /**
+     * Test of evicting runtimes of dead threads.
+     */
+    @Test
+    public void testEvictDeadThreads() throws Exception {
+        System.out.println("[testEvictDeadThreads]");
+        assertEquals(3L, container.runScriptlet("1 + 2"));
+        runInThread("3 + 4");
+        runInThread("5 + 6");
+        assertEquals(3, provider.getLiveRuntimeCount());
+        assertTrue(provider.getApproximateHeapSize() > 0L);
+        provider.evictIdle();
+        assertEquals(1, provider.getSize());
+        assertEquals(1, provider.getLiveRuntimeCount());
+        assertEquals(2L, provider.getEvictionCount());
+    }
+
+    /**
+     * Test of idle eviction, of class ThreadSafeLocalContextProvider.
+     */
+    @Test
+    public void testEvictIdle() throws Exception {
+        System.out.println("[testEvictIdle]");
+        container.runScriptlet("$x = 1");
+        Ruby runtime = container.getRuntime();
+        provider.setIdleTimeout(1);
+        Thread.sleep(10);
+        provider.evictIdle();
+        assertEquals(0, provider.getSize());
+        assertNotSame(runtime, container.getRuntime());
+        assertEquals(1, provider.getSize());
+    }
+
+    /**
+     * Test of idle eviction while a script is running.
+     */
+    @Test
+    public void testNoEvictionInUse() throws Exception {
+        System.out.println("[testNoEvictionInUse]");
+        provider.setIdleTimeout(1);
+        final Object[] results = new Object[1];
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                results[0] = container.runScriptlet("sleep 0.2; 1 + 2");
+            }
+        };
+        t.start();
+        Thread.sleep(100);
+        provider.evictIdle();
+        assertEquals(1, provider.getSize());
+        t.join();
+        assertEquals(3L, results[0]);
+        assertEquals(0L, provider.getEvictionCount());
+    }
+
+    /**
+     * Test of the maximum number of runtimes.
+     */
+    @Test
+    public void testMaxRuntimes() throws Exception {
+        System.out.println("[testMaxRuntimes]");
+        provider.setMaxRuntimes(1);
+        container.runScriptlet("1");
+        final Throwable[] errors = new Throwable[1];
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    container.runScriptlet("2");
+                } catch (Throwable e) {
+                    errors[0] = e;
+                }
+            }
+        };
+        t.start();
+        t.join();
+        assertTrue(errors[0] instanceof IllegalStateException);
+    }
+
+    /**
+     * Test of terminate method, of class ScriptingContainer.
+     */
+    @Test
+    public void testTerminate() throws Exception {
+        System.out.println("[testTerminate]");
+        container.runScriptlet("$x = 1");
+        Ruby runtime = container.getRuntime();
+        container.terminate();
+        assertEquals(0, provider.getSize());
+        assertEquals(0, provider.getLiveRuntimeCount());
+        assertNotSame(runtime, container.getRuntime());
+        assertNull(container.runScriptlet("$x"));
+    }
+}
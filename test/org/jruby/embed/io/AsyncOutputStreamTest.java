@@ -0,0 +1,119 @@
+/**
+ * **** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 Yoko Harada <yokolet@gmail.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ * **** END LICENSE BLOCK *****
+ */
+package org.jruby.embed.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Yoko Harada <yokolet@gmail.com>
+ */
+public class AsyncOutputStreamTest {
+
+    public AsyncOutputStreamTest() {
+    }
+
+    /**
+     * Test of write method under each overflow policy.
+     */
+    @Test
+    public void testWrite() throws Exception {
+        System.out.println("[testWrite]");
+        for (OverflowPolicy policy : new OverflowPolicy[]{OverflowPolicy.BLOCK, OverflowPolicy.GROW}) {
+            final ByteArrayOutputStream target = new ByteArrayOutputStream();
+            final AsyncOutputStream ostream = new AsyncOutputStream(target, policy, 8);
+            Thread[] threads = new Thread[4];
+            for (int i = 0; i < threads.length; i++) {
+                final int id = i;
+                threads[i] = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (int j = 0; j < 1000; j++) {
+                                ostream.write((id + ":" + j + "\n").getBytes());
+                            }
+                        } catch (IOException e) {
+                            fail(e.getMessage());
+                        }
+                    }
+                };
+                threads[i].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            ostream.close();
+            String[] lines = target.toString().split("\n");
+            assertEquals(4000, lines.length);
+            int[] last = {-1, -1, -1, -1};
+            for (String line : lines) {
+                int id = line.charAt(0) - '0';
+                int n = Integer.parseInt(line.substring(2));
+                assertEquals(last[id] + 1, n);
+                last[id] = n;
+            }
+            assertEquals(0L, ostream.getQueueDepth());
+            assertEquals(0L, ostream.getDroppedBytes());
+        }
+    }
+
+    /**
+     * Test of write method under OverflowPolicy.DROP.
+     */
+    @Test
+    public void testDrop() throws Exception {
+        System.out.println("[testDrop]");
+        final CountDownLatch latch = new CountDownLatch(1);
+        OutputStream blocked = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e.getMessage());
+                }
+            }
+        };
+        AsyncOutputStream ostream = new AsyncOutputStream(blocked, OverflowPolicy.DROP, 4);
+        for (int i = 0; i < 100; i++) {
+            ostream.write(1);
+        }
+        assertTrue(ostream.getDroppedBytes() > 0L);
+        assertTrue(ostream.getQueueDepth() <= 4L);
+        latch.countDown();
+        ostream.close();
+        assertEquals(100L, ostream.getDroppedBytes() + ostream.getWrittenBytes());
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * **** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 Yoko Harada <yokolet@gmail.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ * **** END LICENSE BLOCK *****
+ */
+package org.jruby.embed.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Yoko Harada <yokolet@gmail.com>
+ */
+public class ReaderInputStreamTest {
+
+    public ReaderInputStreamTest() {
+    }
+
+    /**
+     * Test of read method, of class ReaderInputStream.
+     */
+    @Test
+    public void testRead() throws IOException {
+        System.out.println("[testRead]");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            sb.append("a\u00e9\u65e5\ud83d\ude00");
+        }
+        String expected = sb.toString();
+        ReaderInputStream istream = new ReaderInputStream(new StringReader(expected), "UTF-8");
+        ByteArrayOutputStream ostream = new ByteArrayOutputStream();
+        byte[] buf = new byte[1000];
+        int size;
+        while ((size = istream.read(buf, 10, 333)) != -1) {
+            ostream.write(buf, 10, size);
+        }
+        assertEquals(expected, ostream.toString("UTF-8"));
+        assertEquals(-1, istream.read());
+    }
+
+    /**
+     * Test of mark and reset methods, of class ReaderInputStream.
+     */
+    @Test
+    public void testMarkAndReset() throws IOException {
+        System.out.println("[testMarkAndReset]");
+        ReaderInputStream istream = new ReaderInputStream(new StringReader("abcdefghij"), "UTF-8");
+        assertEquals('a', istream.read());
+        istream.mark(5);
+        byte[] buf = new byte[3];
+        assertEquals(3, istream.read(buf));
+        assertEquals("bcd", new String(buf, "UTF-8"));
+        istream.reset();
+        assertEquals('b', istream.read());
+        assertEquals(2, istream.skip(2));
+        assertEquals('e', istream.read());
+        istream.reset();
+        assertEquals('b', istream.read());
+        istream.mark(1);
+        assertEquals('c', istream.read());
+        assertEquals('d', istream.read());
+        try {
+            istream.reset();
+            fail("mark should be invalidated");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals('e', istream.read());
+    }
+
+    /**
+     * Test that the constructor does not read from the given Reader.
+     */
+    @Test
+    public void testLazyRead() throws IOException {
+        System.out.println("[testLazyRead]");
+        final int[] count = {0};
+        Reader reader = new StringReader("puts 'hello'") {
+            @Override
+            public int read(char[] cbuf, int off, int len) throws IOException {
+                count[0]++;
+                return super.read(cbuf, off, len);
+            }
+        };
+        ReaderInputStream istream = new ReaderInputStream(reader, "UTF-8");
+        assertEquals(0, count[0]);
+        assertEquals('p', istream.read());
+        assertTrue(count[0] > 0);
+    }
+}
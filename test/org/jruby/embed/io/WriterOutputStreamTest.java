@@ -0,0 +1,118 @@
+/**
+ * **** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 Yoko Harada <yokolet@gmail.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ * **** END LICENSE BLOCK *****
+ */
+package org.jruby.embed.io;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Yoko Harada <yokolet@gmail.com>
+ */
+public class WriterOutputStreamTest {
+
+    public WriterOutputStreamTest() {
+    }
+
+    /**
+     * Test of write method with a character split across two writes.
+     */
+    @Test
+    public void testSplitCharacter() throws IOException {
+        System.out.println("[testSplitCharacter]");
+        String expected = "a\u00e9\u65e5\ud83d\ude00";
+        byte[] bytes = expected.getBytes("UTF-8");
+        StringWriter writer = new StringWriter();
+        WriterOutputStream ostream = new WriterOutputStream(writer, "UTF-8");
+        for (int i = 0; i < bytes.length; i += 2) {
+            ostream.write(bytes, i, Math.min(2, bytes.length - i));
+        }
+        assertEquals(expected, writer.toString());
+
+        writer = new StringWriter();
+        ostream = new WriterOutputStream(writer, "UTF-8");
+        for (int i = 0; i < bytes.length; i++) {
+            ostream.write(bytes[i]);
+        }
+        assertEquals(expected, writer.toString());
+    }
+
+    /**
+     * Test of flush policies, of class WriterOutputStream.
+     */
+    @Test
+    public void testFlushPolicy() throws IOException {
+        System.out.println("[testFlushPolicy]");
+        assertEquals(3, countFlushes(FlushPolicy.ALWAYS, 10));
+        assertEquals(1, countFlushes(FlushPolicy.NEWLINE, 10));
+        assertEquals(1, countFlushes(FlushPolicy.THRESHOLD, 10));
+        assertEquals(0, countFlushes(FlushPolicy.EXPLICIT, 10));
+    }
+
+    /**
+     * Test of flush method under every flush policy, of class WriterOutputStream.
+     */
+    @Test
+    public void testFlush() throws IOException {
+        System.out.println("[testFlush]");
+        for (FlushPolicy policy : FlushPolicy.values()) {
+            final int[] count = {0};
+            StringWriter writer = new StringWriter() {
+                @Override
+                public void flush() {
+                    count[0]++;
+                }
+            };
+            WriterOutputStream ostream = new WriterOutputStream(writer, "UTF-8", policy, 10);
+            ostream.write("abc".getBytes("UTF-8"));
+            int before = count[0];
+            ostream.flush();
+            assertEquals(before + 1, count[0]);
+        }
+    }
+
+    private int countFlushes(FlushPolicy policy, int threshold) throws IOException {
+        final int[] count = {0};
+        StringWriter writer = new StringWriter() {
+            @Override
+            public void flush() {
+                count[0]++;
+            }
+        };
+        WriterOutputStream ostream = new WriterOutputStream(writer, "UTF-8", policy, threshold);
+        ostream.write("abc".getBytes("UTF-8"));
+        ostream.write("def\n".getBytes("UTF-8"));
+        ostream.write("ghijk".getBytes("UTF-8"));
+        assertEquals("abcdef\nghijk", writer.toString());
+        return count[0];
+    }
+}
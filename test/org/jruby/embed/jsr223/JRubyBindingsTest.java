@@ -31,6 +31,7 @@ package org.jruby.embed.jsr223;
 
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import javax.script.ScriptEngine;
@@ -324,4 +325,46 @@ public class JRubyBindingsTest {
             System.out.println(key + ": " + value);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Test of views of Jsr223JRubyBindings, which reflect changes to bindings.
+     */
+    @Test
+    public void testLiveView() {
+        System.out.println("live view");
+        JRubyBindings instance = new JRubyBindings(new ScriptingContainer(LocalContextScope.THREADSAFE));
+        Set keys = instance.keySet();
+        Collection values = instance.values();
+        Set<Map.Entry> entries = instance.entrySet();
+        assertEquals(0, keys.size());
+
+        instance.put("@abc", "abbc");
+        instance.put("$abc", "abcc");
+        instance.put(ScriptEngine.FILENAME, "filename");
+        assertEquals(3, instance.size());
+        assertEquals(3, keys.size());
+        assertTrue(keys.contains("$abc"));
+        assertTrue(keys.contains(ScriptEngine.FILENAME));
+        assertTrue(values.contains("abbc"));
+        assertTrue(values.contains("filename"));
+
+        for (Map.Entry entry : entries) {
+            if ("@abc".equals(entry.getKey())) {
+                entry.setValue("aabc");
+            }
+        }
+        assertEquals("aabc", instance.get("@abc"));
+
+        Iterator itr = keys.iterator();
+        while (itr.hasNext()) {
+            Object key = itr.next();
+            if ("$abc".equals(key) || ScriptEngine.FILENAME.equals(key)) {
+                itr.remove();
+            }
+        }
+        assertEquals(1, instance.size());
+        assertFalse(instance.containsKey("$abc"));
+        assertFalse(instance.containsKey(ScriptEngine.FILENAME));
+        assertEquals(1, entries.size());
+    }
+}
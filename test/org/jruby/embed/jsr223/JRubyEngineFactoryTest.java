@@ -30,8 +30,15 @@
 package org.jruby.embed.jsr223;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+import org.jruby.embed.LocalContextScope;
+import org.jruby.embed.ScriptingContainer;
+import org.jruby.embed.internal.PooledLocalContextProvider;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -254,4 +261,91 @@ public class JRubyEngineFactoryTest {
         assertEquals(expResult, result);
     }
 
-}
\ No newline at end of file
+    /**
+     * Test of engines backed by a pool of runtimes.
+     */
+    @Test
+    public void testPooledEngines() throws Exception {
+        System.out.println("pooled engines");
+        System.setProperty("org.jruby.embed.localcontext.scope", "pooled");
+        System.setProperty("org.jruby.embed.pool.max", "2");
+        try {
+            final JRubyEngineFactory instance = new JRubyEngineFactory();
+            assertEquals(LocalContextScope.POOLED, instance.getScope());
+            assertEquals("MULTITHREADED", instance.getParameter("THREADING"));
+
+            int threads = 8;
+            final CountDownLatch done = new CountDownLatch(threads);
+            final List<Object> results = Collections.synchronizedList(new ArrayList<Object>());
+            for (int i = 0; i < threads; i++) {
+                final long n = i;
+                new Thread() {
+                    public void run() {
+                        try {
+                            ScriptEngine engine = instance.getScriptEngine();
+                            results.add(engine.eval(n + " * 2"));
+                        } catch (ScriptException e) {
+                            results.add(e);
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                }.start();
+            }
+            assertTrue(done.await(60, TimeUnit.SECONDS));
+            assertEquals(threads, results.size());
+            for (int i = 0; i < threads; i++) {
+                assertTrue(results.contains((long)i * 2));
+            }
+            ScriptingContainer container = instance.getContainer();
+            PooledLocalContextProvider pool = (PooledLocalContextProvider)container.getProvider();
+            assertTrue(pool.getSize() <= 2);
+            assertEquals(0, pool.getActiveCount());
+        } finally {
+            System.clearProperty("org.jruby.embed.pool.max");
+        }
+    }
+
+    /**
+     * Test of engine scope bindings of engines backed by a pool of runtimes.
+     */
+    @Test
+    public void testPooledEngineBindings() throws Exception {
+        System.out.println("pooled engine bindings");
+        System.setProperty("org.jruby.embed.localcontext.scope", "pooled");
+        System.setProperty("org.jruby.embed.pool.max", "2");
+        try {
+            JRubyEngineFactory instance = new JRubyEngineFactory();
+            final ScriptEngine first = instance.getScriptEngine();
+            final ScriptEngine second = instance.getScriptEngine();
+            final List<Object> errors = Collections.synchronizedList(new ArrayList<Object>());
+            Thread putter = new Thread() {
+                public void run() {
+                    first.put("message", "hello");
+                    second.put("message", "bye");
+                }
+            };
+            putter.start();
+            putter.join();
+            Thread evaluator = new Thread() {
+                public void run() {
+                    try {
+                        first.eval("$message = $message + ' world'");
+                        second.eval("$message = $message + ' for now'");
+                    } catch (ScriptException e) {
+                        errors.add(e);
+                    }
+                }
+            };
+            evaluator.start();
+            evaluator.join();
+            assertTrue(errors.isEmpty());
+            // each engine sees its own bindings on any thread
+            assertEquals("hello world", first.get("message"));
+            assertEquals("bye for now", second.get("message"));
+            assertEquals("hello world", first.eval("$message"));
+        } finally {
+            System.clearProperty("org.jruby.embed.pool.max");
+        }
+    }
+}
@@ -570,4 +570,76 @@ public class JRubyEngineTest {
         assertEquals(expResult, result.velocity(t));
         System.out.println("Velocity after " + t + " sec is " + result.velocity(2.0));
     }
-}
\ No newline at end of file
+
+    /**
+     * Test of eval method with Bindings not created by this engine.
+     */
+    @Test
+    public void testEval_String_ForeignBindings() throws Exception {
+        System.out.println("eval String with foreign Bindings");
+        System.setProperty("org.jruby.embed.localvariable.behavior", "global");
+        JRubyEngineFactory factory = new JRubyEngineFactory();
+        JRubyEngine instance = (JRubyEngine) factory.getScriptEngine();
+        final List<String> touched = new ArrayList<String>();
+        Bindings bindings = new SimpleBindings() {
+            @Override
+            public Object get(Object key) {
+                touched.add((String) key);
+                return super.get(key);
+            }
+        };
+        bindings.put("width", 3L);
+        bindings.put("height", 4L);
+        bindings.put("unused", new ArrayList());
+        bindings.put("area", 0L);
+
+        assertEquals(12L, instance.eval("$area = $width * $height", bindings));
+        assertFalse(touched.contains("unused"));
+        assertEquals(12L, bindings.get("area"));
+        assertEquals(3L, bindings.get("width"));
+
+        // changes by a host are seen by the next evaluation
+        bindings.put("width", 5L);
+        assertEquals(20L, instance.eval("$width * $height", bindings));
+        assertEquals(12L, bindings.get("area"));
+
+        // global variables defined by a script are written back
+        instance.eval("$perimeter = 2 * ($width + $height)", bindings);
+        assertEquals(18L, bindings.get("perimeter"));
+        assertEquals(18L, instance.eval("$perimeter", bindings));
+    }
+
+    /**
+     * Test of invokeFunction, invokeMethod and getInterface methods with Bindings
+     * not created by this engine.
+     */
+    @Test
+    public void testInvoke_ForeignBindings() throws Exception {
+        System.out.println("invoke with foreign Bindings");
+        System.setProperty("org.jruby.embed.localvariable.behavior", "global");
+        JRubyEngineFactory factory = new JRubyEngineFactory();
+        JRubyEngine instance = (JRubyEngine) factory.getScriptEngine();
+        Bindings bindings = new SimpleBindings();
+        bindings.put("name", "ruby");
+        String script =
+            "def greet; \"hello, #{$name}\"; end\n" +
+            "def rename(name); $name = name; end\n" +
+            "class Greeter; def greet; \"hi, #{$name}\"; end; end\n" +
+            "$name";
+        assertEquals("ruby", instance.eval(script, bindings));
+
+        // changes by a host are seen by method calls
+        bindings.put("name", "java");
+        assertEquals("hello, java", instance.invokeFunction("greet"));
+        Object greeter = instance.eval("Greeter.new");
+        assertEquals("hi, java", instance.invokeMethod(greeter, "greet"));
+
+        // variables assigned by a method are written back
+        instance.invokeFunction("rename", "jruby");
+        assertEquals("jruby", bindings.get("name"));
+
+        bindings.put("name", "embed");
+        Greeting greeting = instance.getInterface(greeter, Greeting.class);
+        assertEquals("hi, embed", greeting.greet());
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * **** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 Yoko Harada <yokolet@gmail.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ * **** END LICENSE BLOCK *****
+ */
+package org.jruby.embed.jsr223;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Measures evaluations per second through javax.script at 1, 8 and 64 threads,
+ * on engines of a threadsafe factory and of a pooled factory. Each thread gets
+ * its own engine from the same factory.
+ *
+ * @author Yoko Harada <yokolet@gmail.com>
+ */
+public class Jsr223ThroughputRunner {
+    private final static String jrubyhome = "/Users/yoko/Tools/jruby-1.4.0RC3";
+    private final static int[] threadCounts = {1, 8, 64};
+    private final static int evaluations = 20000;
+
+    public Jsr223ThroughputRunner() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        String[] paths = {
+            jrubyhome + "/lib/ruby/1.8",
+            jrubyhome + "/lib/ruby/site_ruby/1.8",
+            jrubyhome
+        };
+        String separator = System.getProperty("path.separator");
+        String classPath = "";
+        for (int i=0; i < paths.length; i++) {
+            classPath = classPath + paths[i] + separator;
+        }
+        classPath = classPath.substring(0, classPath.length()-1);
+        System.setProperty("org.jruby.embed.class.path", classPath);
+        System.setProperty("jruby.home", jrubyhome);
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+        System.setProperty("org.jruby.embed.localcontext.scope", "threadsafe");
+    }
+
+    @Test
+    public void testThreadSafe() throws Exception {
+        System.out.println("[jsr223 threadsafe runner]");
+        System.setProperty("org.jruby.embed.localcontext.scope", "threadsafe");
+        measure("threadsafe");
+    }
+
+    @Test
+    public void testPooled() throws Exception {
+        System.out.println("[jsr223 pooled runner]");
+        System.setProperty("org.jruby.embed.localcontext.scope", "pooled");
+        measure("pooled");
+    }
+
+    private void measure(String label) throws Exception {
+        // the factory is looked up through javax.script as hosts do
+        ScriptEngineManager manager = new ScriptEngineManager();
+        final JRubyEngineFactory factory = (JRubyEngineFactory) manager.getEngineByName("jruby").getFactory();
+        for (int threads : threadCounts) {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            final int perThread = evaluations / threads;
+            List<Future<Object>> futures = new ArrayList<Future<Object>>(threads);
+            long start = System.nanoTime();
+            try {
+                for (int i = 0; i < threads; i++) {
+                    futures.add(executor.submit(new Callable<Object>() {
+                        public Object call() throws Exception {
+                            ScriptEngine engine = factory.getScriptEngine();
+                            Object ret = null;
+                            for (int j = 0; j < perThread; j++) {
+                                ret = engine.eval("[1, 2, 3].inject(0) {|s, x| s + x * " + j + "}");
+                            }
+                            return ret;
+                        }
+                    }));
+                }
+                for (Future<Object> future : futures) {
+                    assertEquals(Long.valueOf(6L * (perThread - 1)), future.get());
+                }
+            } finally {
+                executor.shutdown();
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            }
+            long elapsed = System.nanoTime() - start;
+            long perSecond = elapsed > 0 ? (perThread * threads * 1000000000L) / elapsed : 0;
+            System.out.println(label + ", " + threads + " threads: " + perSecond + " evals/sec, THREADING=" +
+                    factory.getParameter("THREADING"));
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * **** BEGIN LICENSE BLOCK *****
+ * Version: CPL 1.0/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Common Public
+ * License Version 1.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.eclipse.org/legal/cpl-v10.html
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * Copyright (C) 2009 Yoko Harada <yokolet@gmail.com>
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either of the GNU General Public License Version 2 or later (the "GPL"),
+ * or the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the CPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the CPL, the GPL or the LGPL.
+ * **** END LICENSE BLOCK *****
+ */
+package org.jruby.embed.variable;
+
+import org.jruby.embed.variable.BiVariable.Type;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Yoko Harada <yokolet@gmail.com>
+ */
+public class NameClassifierTest {
+
+    public NameClassifierTest() {
+    }
+
+    /**
+     * Test of classify method, of class NameClassifier.
+     */
+    @Test
+    public void testClassify() {
+        System.out.println("[testClassify]");
+        assertEquals(Type.GlobalVariable, NameClassifier.classify("$abc"));
+        assertEquals(Type.GlobalVariable, NameClassifier.classify("$_a1"));
+        assertEquals(Type.GlobalVariable, NameClassifier.classify("$__"));
+        assertEquals(Type.InstanceVariable, NameClassifier.classify("@abc"));
+        assertEquals(Type.InstanceVariable, NameClassifier.classify("@_1"));
+        assertEquals(Type.ClassVariable, NameClassifier.classify("@@abc"));
+        assertEquals(Type.Constant, NameClassifier.classify("PI"));
+        assertEquals(Type.Constant, NameClassifier.classify("My_Const9"));
+        assertEquals(Type.LocalVariable, NameClassifier.classify("abc"));
+        assertEquals(Type.LocalVariable, NameClassifier.classify("_x9Z"));
+    }
+
+    /**
+     * Test of invalid names, of class NameClassifier.
+     */
+    @Test
+    public void testInvalidNames() {
+        System.out.println("[testInvalidNames]");
+        String[] names = {
+            null, "", "$", "$_", "$1", "$-w", "@", "@1", "@@", "@@@a", "@@1",
+            "A", "A1", "1a", "a-b", "a b", "$a.b", "@a!"
+        };
+        for (String name : names) {
+            assertNull(name, NameClassifier.classify(name));
+        }
+    }
+}